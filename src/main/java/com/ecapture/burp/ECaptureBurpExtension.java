@@ -4,8 +4,13 @@ import burp.api.montoya.BurpExtension;
 import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.logging.Logging;
 import com.ecapture.burp.ui.ECaptureTab;
-import com.ecapture.burp.websocket.ECaptureWebSocketClient;
+import com.ecapture.burp.websocket.SourceManager;
+import com.ecapture.burp.event.BusEvent;
+import com.ecapture.burp.event.EventBus;
 import com.ecapture.burp.event.EventManager;
+import com.ecapture.burp.ingest.FrameDecoder;
+import com.ecapture.burp.ingest.IngestPipeline;
+import com.ecapture.burp.session.SessionStore;
 
 /**
  * Main entry point for the eCapture Burp Suite Extension.
@@ -18,8 +23,10 @@ public class ECaptureBurpExtension implements BurpExtension {
     
     private MontoyaApi api;
     private Logging logging;
-    private ECaptureWebSocketClient wsClient;
+    private SourceManager sourceManager;
     private EventManager eventManager;
+    private IngestPipeline pipeline;
+    private SessionStore sessionStore;
     private ECaptureTab mainTab;
     
     @Override
@@ -38,11 +45,21 @@ public class ECaptureBurpExtension implements BurpExtension {
         // Initialize event manager
         this.eventManager = new EventManager(api);
         
-        // Initialize WebSocket client
-        this.wsClient = new ECaptureWebSocketClient(api, eventManager);
+        // Initialize ingestion pipeline (decoding runs off the socket thread)
+        this.pipeline = new IngestPipeline(logging, new FrameDecoder(logging, eventManager));
+        
+        // Persist completed pairs once a session directory is opened
+        this.sessionStore = new SessionStore(logging);
+        // A pair is written once, when it completes or expires. onPair only queues it for the
+        // session writer (dropping when that queue is full), so capture never waits for the disk.
+        eventManager.getEventBus().subscribe("Session", BusEvent.PairFinished.class,
+                EventBus.DeliveryMode.LATEST, EventBus.DEFAULT_CAPACITY, event -> sessionStore.onPair(event.getPair()));
+        
+        // Initialize WebSocket sources (one client per eCapture endpoint)
+        this.sourceManager = new SourceManager(api, pipeline, eventManager.getEventBus());
         
         // Initialize and register UI tab
-        this.mainTab = new ECaptureTab(api, wsClient, eventManager);
+        this.mainTab = new ECaptureTab(api, sourceManager, eventManager, sessionStore);
         api.userInterface().registerSuiteTab(EXTENSION_NAME, mainTab.getComponent());
         
         // Register context menu
@@ -51,21 +68,33 @@ public class ECaptureBurpExtension implements BurpExtension {
         // Register extension unload handler
         api.extension().registerUnloadingHandler(() -> {
             logging.logToOutput("Unloading eCapture extension...");
-            if (wsClient != null) {
-                wsClient.disconnect();
+            if (mainTab != null) {
+                mainTab.shutdown();
+            }
+            if (sourceManager != null) {
+                sourceManager.shutdown();
+            }
+            if (pipeline != null) {
+                pipeline.shutdown();
+            }
+            if (eventManager != null) {
+                eventManager.shutdown();
+            }
+            if (sessionStore != null) {
+                sessionStore.close();
             }
         });
         
         logging.logToOutput("eCapture extension loaded successfully!");
-        logging.logToOutput("Configure WebSocket URL and click Connect to start receiving data.");
+        logging.logToOutput("Configure WebSocket URL(s) and click Connect to start receiving data.");
     }
     
     public MontoyaApi getApi() {
         return api;
     }
     
-    public ECaptureWebSocketClient getWsClient() {
-        return wsClient;
+    public SourceManager getSourceManager() {
+        return sourceManager;
     }
     
     public EventManager getEventManager() {
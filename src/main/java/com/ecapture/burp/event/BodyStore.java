@@ -0,0 +1,302 @@
+package com.ecapture.burp.event;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Content-addressed store for the bodies of retained HTTP/1.x messages.
+ * <p>
+ * When a payload is moved into the arena, a body of at least {@link #DEFAULT_MIN_BODY_SIZE}
+ * bytes is hashed (128 bits) and looked up. Identical bodies are stored once and reference
+ * counted; each event keeps only its own head in the arena plus a reference to the shared body.
+ * Hits are compared byte for byte, so a hash collision stores the body separately instead of
+ * returning the wrong bytes.
+ * <p>
+ * Thread-safe. Bodies are hashed, copied and compared without locking; only the map lookup and
+ * the reference count take a lock, one of {@link #STRIPES} chosen by the hash.
+ */
+public class BodyStore {
+    
+    public static final int DEFAULT_MIN_BODY_SIZE = 1024;
+    private static final int STRIPES = 16;
+    
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    
+    private static final class BodyKey {
+        final long high;
+        final long low;
+        final int length;
+        
+        BodyKey(long high, long low, int length) {
+            this.high = high;
+            this.low = low;
+            this.length = length;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof BodyKey)) {
+                return false;
+            }
+            BodyKey other = (BodyKey) o;
+            return high == other.high && low == other.low && length == other.length;
+        }
+        
+        @Override
+        public int hashCode() {
+            return (int) low;
+        }
+    }
+    
+    /**
+     * One stored body and the number of events referencing it.
+     */
+    static final class SharedBody {
+        final BodyKey key;
+        final Payload payload;
+        // Guarded by the stripe of the key
+        int references;
+        
+        SharedBody(BodyKey key, Payload payload) {
+            this.key = key;
+            this.payload = payload;
+        }
+    }
+    
+    private final PayloadArena arena;
+    // Stored bodies by key; each map is its own lock
+    @SuppressWarnings("unchecked")
+    private final HashMap<BodyKey, SharedBody>[] stripes = new HashMap[STRIPES];
+    private volatile int minBodySize = DEFAULT_MIN_BODY_SIZE;
+    
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder collisions = new LongAdder();
+    private final AtomicLong uniqueBytes = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+    private final AtomicInteger uniqueBodies = new AtomicInteger();
+    
+    BodyStore(PayloadArena arena) {
+        this.arena = arena;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new HashMap<>();
+        }
+    }
+    
+    /**
+     * Move a payload into the arena, sharing its body with identical stored bodies.
+     * Payloads without a complete HTTP/1.x head or with a small body are stored whole.
+     */
+    Payload store(Payload payload, CapturedEvent event) {
+        if (payload.isOffHeap() || payload.size() < minBodySize) {
+            return arena.store(payload);
+        }
+        int bodyOffset = event.getHead().getBodyOffset();
+        if (bodyOffset < 0 || payload.size() - bodyOffset < minBodySize) {
+            return arena.store(payload);
+        }
+        
+        ByteString bytes = payload.bytes();
+        ByteString body = bytes.substring(bodyOffset);
+        BodyKey key = hash(body);
+        lookups.increment();
+        HashMap<BodyKey, SharedBody> stripe = stripeFor(key);
+        SharedBody shared;
+        synchronized (stripe) {
+            shared = stripe.get(key);
+            if (shared != null) {
+                // Held while comparing, so the body cannot be released meanwhile
+                shared.references++;
+            }
+        }
+        
+        if (shared == null) {
+            SharedBody stored = new SharedBody(key, arena.store(Payload.of(body)));
+            stored.references = 1;
+            synchronized (stripe) {
+                shared = stripe.putIfAbsent(key, stored);
+                if (shared != null) {
+                    shared.references++;
+                }
+            }
+            if (shared == null) {
+                uniqueBodies.incrementAndGet();
+                uniqueBytes.addAndGet(body.size());
+                return new DedupPayload(this, arena.store(Payload.of(bytes.substring(0, bodyOffset))), stored);
+            }
+            // Another thread stored the same key first; share its body if it matches
+            arena.release(stored.payload);
+        }
+        
+        if (!shared.payload.contentEquals(body)) {
+            collisions.increment();
+            release(shared, false);
+            return arena.store(payload);
+        }
+        hits.increment();
+        savedBytes.addAndGet(body.size());
+        return new DedupPayload(this, arena.store(Payload.of(bytes.substring(0, bodyOffset))), shared);
+    }
+    
+    /**
+     * Drop one reference to a shared body; the last one returns its arena space.
+     */
+    void release(SharedBody shared) {
+        release(shared, true);
+    }
+    
+    /**
+     * @param saved whether the reference counts in the saved bytes; the one taken only for a
+     *              comparison that failed does not
+     */
+    private void release(SharedBody shared, boolean saved) {
+        HashMap<BodyKey, SharedBody> stripe = stripeFor(shared.key);
+        synchronized (stripe) {
+            // Bodies from before clear() are no longer tracked
+            if (stripe.get(shared.key) != shared) {
+                return;
+            }
+            if (--shared.references > 0) {
+                if (saved) {
+                    savedBytes.addAndGet(-shared.payload.size());
+                }
+                return;
+            }
+            stripe.remove(shared.key);
+        }
+        arena.release(shared.payload);
+        uniqueBodies.decrementAndGet();
+        uniqueBytes.addAndGet(-shared.payload.size());
+    }
+    
+    /**
+     * Forget every body; called by the pair store while no payload is being stored or released.
+     */
+    void clear() {
+        for (HashMap<BodyKey, SharedBody> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clear();
+            }
+        }
+        lookups.reset();
+        hits.reset();
+        collisions.reset();
+        uniqueBytes.set(0);
+        savedBytes.set(0);
+        uniqueBodies.set(0);
+    }
+    
+    private HashMap<BodyKey, SharedBody> stripeFor(BodyKey key) {
+        return stripes[(int) (key.high >>> 60)];
+    }
+    
+    /**
+     * The 128-bit hash bodies are deduplicated by, as 32 hex digits; for keys outside the store.
+     */
+    static String hashHex(ByteString body) {
+        BodyKey key = hash(body);
+        return String.format("%016x%016x", key.high, key.low);
+    }
+    
+    /**
+     * 128-bit hash of the body: two 64-bit lanes over 16-byte blocks, mixed at the end.
+     */
+    private static BodyKey hash(ByteString body) {
+        ByteBuffer buffer = body.asReadOnlyByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        int length = body.size();
+        long h1 = PRIME1 ^ length;
+        long h2 = PRIME2 ^ length;
+        while (buffer.remaining() >= 16) {
+            h1 = Long.rotateLeft(h1 + buffer.getLong() * PRIME2, 31) * PRIME1;
+            h2 = Long.rotateLeft(h2 + buffer.getLong() * PRIME3, 29) * PRIME2;
+        }
+        long tail = 0;
+        int shift = 0;
+        while (buffer.hasRemaining()) {
+            tail |= (buffer.get() & 0xFFL) << shift;
+            shift += 8;
+            if (shift == 64) {
+                h1 = Long.rotateLeft(h1 + tail * PRIME2, 31) * PRIME1;
+                tail = 0;
+                shift = 0;
+            }
+        }
+        h2 = Long.rotateLeft(h2 + tail * PRIME3, 29) * PRIME2;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new BodyKey(h1, h2, length);
+    }
+    
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+    
+    public int getMinBodySize() {
+        return minBodySize;
+    }
+    
+    /**
+     * Bodies smaller than this are stored with their event. Applies to payloads stored from now on.
+     */
+    public void setMinBodySize(int minBodySize) {
+        this.minBodySize = Math.max(1, minBodySize);
+    }
+    
+    // Getters for stats
+    public long getLookups() {
+        return lookups.sum();
+    }
+    
+    public long getHits() {
+        return hits.sum();
+    }
+    
+    /**
+     * Share of looked-up bodies that were already stored, 0 to 1.
+     */
+    public double getHitRate() {
+        long total = lookups.sum();
+        return total > 0 ? (double) hits.sum() / total : 0;
+    }
+    
+    /**
+     * Bodies whose hash matched a stored body with different content.
+     */
+    public long getCollisions() {
+        return collisions.sum();
+    }
+    
+    public int getUniqueBodies() {
+        return uniqueBodies.get();
+    }
+    
+    /**
+     * Arena bytes held by shared bodies, each counted once.
+     */
+    public long getUniqueBytes() {
+        return uniqueBytes.get();
+    }
+    
+    /**
+     * Bytes not stored because an identical body was already retained.
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+}
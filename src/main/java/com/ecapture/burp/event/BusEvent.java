@@ -0,0 +1,145 @@
+package com.ecapture.burp.event;
+
+import com.ecapture.burp.websocket.ECaptureWebSocketClient;
+
+import java.util.List;
+
+/**
+ * Events published on the {@link EventBus}.
+ * <p>
+ * Subscribers in latest-only mode keep one event per {@link #conflationKey()}: later events
+ * about the same pair replace earlier ones, and only the newest heartbeat or connection state
+ * is kept. Log batches are never conflated.
+ */
+public abstract class BusEvent {
+    
+    /**
+     * Events with the same key supersede each other in latest-only delivery.
+     */
+    Object conflationKey() {
+        return this;
+    }
+    
+    /**
+     * A pair was created, completed or expired.
+     */
+    public abstract static class PairEvent extends BusEvent {
+        private final MatchedHttpPair pair;
+        
+        PairEvent(MatchedHttpPair pair) {
+            this.pair = pair;
+        }
+        
+        public MatchedHttpPair getPair() {
+            return pair;
+        }
+        
+        @Override
+        Object conflationKey() {
+            return pair;
+        }
+    }
+    
+    /**
+     * A request was captured and stored; its pair has no response yet.
+     */
+    public static final class PairCreated extends PairEvent {
+        public PairCreated(MatchedHttpPair pair) {
+            super(pair);
+        }
+    }
+    
+    /**
+     * A pair reached its final state: completed or expired.
+     */
+    public abstract static class PairFinished extends PairEvent {
+        PairFinished(MatchedHttpPair pair) {
+            super(pair);
+        }
+    }
+    
+    /**
+     * A stored pair got its response.
+     */
+    public static final class PairCompleted extends PairFinished {
+        public PairCompleted(MatchedHttpPair pair) {
+            super(pair);
+        }
+    }
+    
+    /**
+     * A stored request timed out without a response.
+     */
+    public static final class PairExpired extends PairFinished {
+        public PairExpired(MatchedHttpPair pair) {
+            super(pair);
+        }
+    }
+    
+    /**
+     * eCapture runtime log lines, oldest first, as collected by one delivery tick.
+     */
+    public static final class LogLines extends BusEvent {
+        private final List<String> lines;
+        
+        public LogLines(List<String> lines) {
+            this.lines = lines;
+        }
+        
+        public List<String> getLines() {
+            return lines;
+        }
+    }
+    
+    /**
+     * Heartbeat from an eCapture source.
+     */
+    public static final class Heartbeat extends BusEvent {
+        private final long timestamp;
+        private final long count;
+        private final String message;
+        
+        public Heartbeat(long timestamp, long count, String message) {
+            this.timestamp = timestamp;
+            this.count = count;
+            this.message = message;
+        }
+        
+        public long getTimestamp() {
+            return timestamp;
+        }
+        
+        public long getCount() {
+            return count;
+        }
+        
+        public String getMessage() {
+            return message;
+        }
+        
+        @Override
+        Object conflationKey() {
+            return Heartbeat.class;
+        }
+    }
+    
+    /**
+     * The combined connection state of the sources changed.
+     */
+    public static final class ConnectionStateChanged extends BusEvent {
+        private final ECaptureWebSocketClient.ConnectionState state;
+        
+        public ConnectionStateChanged(ECaptureWebSocketClient.ConnectionState state) {
+            this.state = state;
+        }
+        
+        public ECaptureWebSocketClient.ConnectionState getState() {
+            return state;
+        }
+        
+        @Override
+        Object conflationKey() {
+            return ConnectionStateChanged.class;
+        }
+    }
+}
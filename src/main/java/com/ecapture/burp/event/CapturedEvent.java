@@ -1,8 +1,16 @@
 package com.ecapture.burp.event;
 
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
 /**
  * Represents a captured HTTP event from eCapture.
@@ -39,7 +47,8 @@ public class CapturedEvent {
         }
         
         public static EventType fromCode(int code) {
-            for (EventType type : values()) {
+            // TYPES rather than values(), which copies the array on every call
+            for (EventType type : TYPES) {
                 if (type.code == code) {
                     return type;
                 }
@@ -56,51 +65,131 @@ public class CapturedEvent {
         }
     }
     
+    // Strings shared by many events are pooled; the rest of the fields are primitives
+    private static final StringPool NAMES = new StringPool(4096);
+    private static final StringPool UUIDS = new StringPool(65536);
+    private static final EventType[] TYPES = EventType.values();
+    
+    // Heap sizes of what an event retains, measured on this JVM when the class loads as the
+    // allocation delta of creating instances. Without allocation accounting they fall back to the
+    // layout with compressed oops. Pooled strings and payload bytes (owned by the received frame
+    // or the arena) are not counted.
+    private static final int SHALLOW_SIZE = measureSize(
+            () -> restore("", 0, "", "", 0, "", 0, 0, "", 0, 0, Payload.EMPTY, null), 112 + 32)
+            - measureSize(() -> new long[2], 32); // The constructor's address scratch array
+    // Payload handle and the ByteString slice it holds, without the sliced array
+    private static final int HEAP_PAYLOAD_SIZE = measureSize(
+            () -> Payload.of(UnsafeByteOperations.unsafeWrap(new byte[2], 0, 1)), 16 + 24 + 24)
+            - measureSize(() -> new byte[2], 24);
+    private static final int ARENA_PAYLOAD_SIZE = measureSize(PayloadArena::detachedPayload, 32);
+    private static final int HTTP_HEAD_SIZE = measureSize(() -> HttpHead.of(null, null, null, null), 48);
+    private static final byte[] NO_BYTES = new byte[0];
+    private static final int STRING_SIZE = measureSize(() -> new String(NO_BYTES, 0, 0, StandardCharsets.ISO_8859_1), 24);
+    private static final int BYTE_ARRAY_HEADER = measureSize(() -> new byte[0], 16);
+    
+    private final String sourceName;
     private final long timestamp;
     private final String uuid;
-    private final String srcIp;
-    private final int srcPort;
-    private final String dstIp;
-    private final int dstPort;
+    // Addresses as 128-bit values (IPv4 mapped into IPv6). The text is kept if it was not an
+    // address, otherwise formatted on first use and pooled
+    private final long srcAddrHigh;
+    private final long srcAddrLow;
+    private final long dstAddrHigh;
+    private final long dstAddrLow;
+    private volatile String srcIpText;
+    private volatile String dstIpText;
     private final long pid;
     private final String processName;
-    private final EventType eventType;
+    // srcPort | dstPort << 16 | EventType ordinal << 32
+    private final long packed;
     private final int length;
-    private final byte[] payload;
+    // Aliases the received WebSocket frame until the event is retained, then moved off-heap
+    private volatile Payload payload;
     private final long receivedAt;
     
+    // Parsed lazily from the payload head
+    private volatile HttpHead head;
+    private volatile String url;
+    
     public CapturedEvent(long timestamp, String uuid, String srcIp, int srcPort,
                          String dstIp, int dstPort, long pid, String processName,
                          int type, int length, byte[] payload) {
+        this("", timestamp, uuid, srcIp, srcPort, dstIp, dstPort, pid, processName, type, length,
+                payload != null ? UnsafeByteOperations.unsafeWrap(payload) : ByteString.EMPTY);
+    }
+    
+    /**
+     * Create an event received from the given source, referencing the payload without copying it.
+     */
+    public CapturedEvent(String sourceName, long timestamp, String uuid, String srcIp, int srcPort,
+                         String dstIp, int dstPort, long pid, String processName,
+                         int type, int length, ByteString payload) {
+        this.sourceName = sourceName != null ? NAMES.intern(sourceName) : "";
         this.timestamp = timestamp;
-        this.uuid = uuid;
-        this.srcIp = srcIp;
-        this.srcPort = srcPort;
-        this.dstIp = dstIp;
-        this.dstPort = dstPort;
+        this.uuid = UUIDS.intern(uuid);
+        
+        long[] address = new long[2];
+        if (PackedAddress.parse(srcIp, address)) {
+            this.srcAddrHigh = address[0];
+            this.srcAddrLow = address[1];
+        } else {
+            this.srcAddrHigh = 0;
+            this.srcAddrLow = 0;
+            this.srcIpText = NAMES.intern(srcIp);
+        }
+        if (PackedAddress.parse(dstIp, address)) {
+            this.dstAddrHigh = address[0];
+            this.dstAddrLow = address[1];
+        } else {
+            this.dstAddrHigh = 0;
+            this.dstAddrLow = 0;
+            this.dstIpText = NAMES.intern(dstIp);
+        }
+        
         this.pid = pid;
-        this.processName = processName;
+        this.processName = NAMES.intern(processName);
         this.length = length;
-        this.payload = payload;
+        this.payload = Payload.of(payload);
         this.receivedAt = System.currentTimeMillis();
         
         // Auto-detect event type if UNKNOWN (type=0)
         EventType detectedType = EventType.fromCode(type);
-        if (detectedType == EventType.UNKNOWN && payload != null && payload.length > 0) {
+        if (detectedType == EventType.UNKNOWN && payload != null && !payload.isEmpty()) {
             detectedType = detectEventType(payload);
         }
-        this.eventType = detectedType;
+        this.packed = (srcPort & 0xFFFFL) | (dstPort & 0xFFFFL) << 16 | (long) detectedType.ordinal() << 32;
+    }
+    
+    /**
+     * Recreate an event from stored metadata. The head is taken as given and the payload
+     * is only read when its bytes are requested.
+     */
+    public static CapturedEvent restore(String sourceName, long timestamp, String uuid, String srcIp, int srcPort,
+                                        String dstIp, int dstPort, long pid, String processName,
+                                        int type, int length, Payload payload, HttpHead head) {
+        CapturedEvent event = new CapturedEvent(sourceName, timestamp, uuid, srcIp, srcPort, dstIp, dstPort,
+                pid, processName, type, length, (ByteString) null);
+        event.payload = payload != null ? payload : Payload.EMPTY;
+        event.head = head;
+        return event;
+    }
+    
+    /**
+     * Pooled instance of a value parsed from a payload head (host, status, ...).
+     */
+    static String internValue(String value) {
+        return NAMES.intern(value);
     }
     
     /**
      * Auto-detect if payload is HTTP request or response based on content.
      */
-    private static EventType detectEventType(byte[] payload) {
-        if (payload == null || payload.length < 4) {
+    private static EventType detectEventType(ByteString payload) {
+        if (payload.size() < 4) {
             return EventType.UNKNOWN;
         }
         
-        String start = new String(payload, 0, Math.min(payload.length, 200));
+        String start = payload.substring(0, Math.min(payload.size(), 200)).toString(Charset.defaultCharset());
 
         // Check for HTTP/2 pseudo-headers text form
         if (start.contains(":method") || start.contains(":path") || start.contains(":authority") || start.contains(":status")) {
@@ -133,6 +222,13 @@ public class CapturedEvent {
         return EventType.UNKNOWN;
     }
     
+    /**
+     * Name of the eCapture endpoint this event was received from.
+     */
+    public String getSourceName() {
+        return sourceName;
+    }
+    
     public long getTimestamp() {
         return timestamp;
     }
@@ -148,27 +244,37 @@ public class CapturedEvent {
     }
     
     public String getSrcIp() {
-        return srcIp;
+        String text = srcIpText;
+        if (text == null) {
+            text = NAMES.intern(PackedAddress.format(srcAddrHigh, srcAddrLow));
+            srcIpText = text;
+        }
+        return text;
     }
     
     public int getSrcPort() {
-        return srcPort;
+        return (int) (packed & 0xFFFF);
     }
     
     public String getDstIp() {
-        return dstIp;
+        String text = dstIpText;
+        if (text == null) {
+            text = NAMES.intern(PackedAddress.format(dstAddrHigh, dstAddrLow));
+            dstIpText = text;
+        }
+        return text;
     }
     
     public int getDstPort() {
-        return dstPort;
+        return (int) ((packed >>> 16) & 0xFFFF);
     }
     
     public String getSource() {
-        return srcIp + ":" + srcPort;
+        return getSrcIp() + ":" + getSrcPort();
     }
     
     public String getDestination() {
-        return dstIp + ":" + dstPort;
+        return getDstIp() + ":" + getDstPort();
     }
     
     public long getPid() {
@@ -180,75 +286,147 @@ public class CapturedEvent {
     }
     
     public EventType getEventType() {
-        return eventType;
+        return TYPES[(int) (packed >>> 32)];
     }
     
     public int getLength() {
         return length;
     }
     
+    /**
+     * Get a copy of the payload. Prefer {@link #getPayloadBytes()} where a ByteString will do.
+     */
     public byte[] getPayload() {
+        return copyPayload(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * At most the first maxBytes of the payload in a new array, copied once from where it is stored.
+     */
+    public byte[] copyPayload(int maxBytes) {
+        Payload current = payload;
+        byte[] bytes = new byte[Math.min(current.size(), maxBytes)];
+        int copied = current.copyTo(bytes, 0, bytes.length);
+        if (copied != bytes.length && payload != current) {
+            // The arena copy reads short if a compressed copy replaced it while reading
+            return copyPayload(maxBytes);
+        }
+        return copied == bytes.length ? bytes : Arrays.copyOf(bytes, copied);
+    }
+    
+    /**
+     * Get the payload as a ByteString. Copies it to the heap if it is stored off-heap,
+     * so callers should fetch it once per use.
+     */
+    public ByteString getPayloadBytes() {
+        Payload current = payload;
+        ByteString bytes = current.bytes();
+        // The arena copy reads empty if a compressed copy replaced it while reading
+        if (bytes.size() != current.size() && payload != current) {
+            return payload.bytes();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Get the payload handle without materializing the bytes.
+     */
+    public Payload getStoredPayload() {
         return payload;
     }
     
+    /**
+     * Move the payload into the arena; the event no longer references the received frame.
+     */
+    void movePayloadTo(BodyStore bodies) {
+        payload = bodies.store(payload, this);
+    }
+    
+    /**
+     * Return the payload's arena space; called when the pair store evicts this event.
+     */
+    void releasePayload(PayloadArena arena) {
+        payload.release(arena);
+    }
+    
+    /**
+     * Replace the payload if it is still the expected one; called by the pair store with the pair locked.
+     */
+    boolean swapPayload(Payload expected, Payload replacement) {
+        if (payload != expected) {
+            return false;
+        }
+        payload = replacement;
+        return true;
+    }
+    
+    public int getPayloadSize() {
+        return payload.size();
+    }
+    
     public long getReceivedAt() {
         return receivedAt;
     }
     
     public boolean isRequest() {
-        return eventType.isRequest();
+        return getEventType().isRequest();
     }
     
     public boolean isResponse() {
-        return eventType.isResponse();
+        return getEventType().isResponse();
+    }
+    
+    /**
+     * Parsed request/status line and headers; parsed from the payload on first use.
+     */
+    public HttpHead getHead() {
+        HttpHead parsed = head;
+        if (parsed == null) {
+            // Benign race: concurrent callers parse the same bytes to an equal result
+            parsed = HttpHead.parse(payload.head(HttpHead.MAX_HEAD_BYTES));
+            head = parsed;
+        }
+        return parsed;
     }
     
     /**
      * Extract HTTP method from request payload, support HTTP/1.x and HTTP/2 pseudo-headers.
      */
     public String getHttpMethod() {
-        if (!isRequest() || payload == null || payload.length == 0) {
+        if (!isRequest() || payload.isEmpty()) {
             return "-";
         }
-        String payloadStr = new String(payload);
-        // HTTP/1.x style: METHOD <path> HTTP/1.1
-        int spaceIndex = payloadStr.indexOf(' ');
-        if (spaceIndex > 0 && spaceIndex < 12) {
-            String candidate = payloadStr.substring(0, spaceIndex);
-            if (candidate.matches("[A-Z]+")) return candidate;
-        }
-        // HTTP/2 pseudo-headers (text representation), look for :method: or :method <value>
-        String method = extractPseudoHeader(payloadStr, ":method");
-        if (method != null) return method;
-        // Try case-insensitive
-        method = extractPseudoHeader(payloadStr, ":Method");
-        if (method != null) return method;
-        return "-";
+        String method = getHead().getMethod();
+        return method != null ? method : "-";
     }
     
     /**
      * Extract URL or path from request payload; for HTTP/2 reconstruct using :scheme, :authority, :path when possible.
      */
     public String getUrl() {
-        if (!isRequest() || payload == null || payload.length == 0) {
+        if (!isRequest() || payload.isEmpty()) {
             return "-";
         }
-        String payloadStr = new String(payload);
+        String cached = url;
+        if (cached == null) {
+            cached = buildUrl(getHead());
+            url = cached;
+        }
+        return cached;
+    }
+    
+    private String buildUrl(HttpHead head) {
         // HTTP/1.x
-        int firstSpace = payloadStr.indexOf(' ');
-        if (firstSpace > 0) {
-            int secondSpace = payloadStr.indexOf(' ', firstSpace + 1);
-            if (secondSpace > firstSpace) {
-                return payloadStr.substring(firstSpace + 1, secondSpace);
-            }
+        if (head.getTarget() != null) {
+            return head.getTarget();
         }
         // HTTP/2 pseudo-headers
-        String path = extractPseudoHeader(payloadStr, ":path");
-        String authority = extractPseudoHeader(payloadStr, ":authority");
-        String scheme = extractPseudoHeader(payloadStr, ":scheme");
+        String path = head.getPath();
         if (path != null) {
+            String authority = head.getAuthority();
             if (authority != null) {
-                if (scheme == null) scheme = (isHttpsPort(dstPort) ? "https" : "http");
+                String scheme = head.getScheme();
+                if (scheme == null) scheme = (isHttpsPort(getDstPort()) ? "https" : "http");
                 return scheme + "://" + authority + path;
             }
             return path;
@@ -260,81 +438,77 @@ public class CapturedEvent {
      * Extract status code from response payload; support HTTP/1.x and HTTP/2 pseudo-headers.
      */
     public String getStatusCode() {
-        if (!isResponse() || payload == null || payload.length == 0) {
+        if (!isResponse() || payload.isEmpty()) {
             return "-";
         }
-        String payloadStr = new String(payload);
-        // HTTP/1.x response: HTTP/1.1 200 OK
-        if (payloadStr.startsWith("HTTP/")) {
-            int firstSpace = payloadStr.indexOf(' ');
-            if (firstSpace > 0) {
-                int secondSpace = payloadStr.indexOf(' ', firstSpace + 1);
-                int endIndex = secondSpace > firstSpace ? secondSpace : Math.min(payloadStr.length(), firstSpace + 4);
-                if (endIndex > firstSpace + 1) {
-                    return payloadStr.substring(firstSpace + 1, endIndex).trim();
-                }
-            }
-        }
-        // HTTP/2 pseudo-header :status
-        String status = extractPseudoHeader(payloadStr, ":status");
-        if (status != null) return status;
-        return "-";
+        String status = getHead().getStatus();
+        return status != null ? status : "-";
     }
     
     /**
      * Extract Host header from HTTP request; for HTTP/2 check :authority.
      */
     public String getHost() {
-        if (payload == null || payload.length == 0) {
-            return dstIp;
+        if (payload.isEmpty()) {
+            return getDstIp();
         }
-        String payloadStr = new String(payload);
-        // HTTP/1.x Host: header
-        String hostHeader = "Host:";
-        int hostIndex = payloadStr.indexOf(hostHeader);
-        if (hostIndex == -1) {
-            hostHeader = "host:";
-            hostIndex = payloadStr.indexOf(hostHeader);
+        String host = getHead().getHost();
+        return host != null ? host : getDstIp();
+    }
+    
+    /**
+     * Approximate heap retained by this event apart from its payload bytes and pooled strings.
+     */
+    public int getRetainedBytes() {
+        int size = align(SHALLOW_SIZE) + (payload.isOffHeap() ? ARENA_PAYLOAD_SIZE : HEAP_PAYLOAD_SIZE);
+        if (head != null) {
+            size += HTTP_HEAD_SIZE + stringSize(head.getTarget()) + stringSize(head.getPath());
+        }
+        String cachedUrl = url;
+        if (cachedUrl != null && (head == null || cachedUrl != head.getTarget())) {
+            size += stringSize(cachedUrl);
         }
-        if (hostIndex >= 0) {
-            int start = hostIndex + hostHeader.length();
-            int end = payloadStr.indexOf('\r', start);
-            if (end == -1) {
-                end = payloadStr.indexOf('\n', start);
+        return size;
+    }
+    
+    private static int stringSize(String value) {
+        // String object plus its Latin-1 byte array
+        return value == null ? 0 : STRING_SIZE + align(BYTE_ARRAY_HEADER + value.length());
+    }
+    
+    /**
+     * Bytes allocated per instance the factory creates, or the fallback if allocation is not accounted.
+     */
+    private static int measureSize(Supplier<Object> factory, int fallback) {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+                return fallback;
             }
-            if (end > start) {
-                return payloadStr.substring(start, end).trim();
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+                return fallback;
             }
+            Object[] keep = new Object[256];
+            for (int i = 0; i < keep.length; i++) {
+                keep[i] = factory.get(); // Warm-up: class loading and first-call allocations
+            }
+            long before = sunBean.getCurrentThreadAllocatedBytes();
+            for (int i = 0; i < keep.length; i++) {
+                keep[i] = factory.get();
+            }
+            long perInstance = (sunBean.getCurrentThreadAllocatedBytes() - before) / keep.length;
+            return perInstance > 0 ? (int) perInstance : fallback;
+        } catch (Throwable t) {
+            // Accounting is optional
+            return fallback;
         }
-        // HTTP/2 pseudo-header
-        String authority = extractPseudoHeader(payloadStr, ":authority");
-        if (authority != null) return authority;
-        return dstIp;
-    }
-    
-    private static String extractPseudoHeader(String s, String headerName) {
-        if (s == null) return null;
-        // look for lines like ":method: GET" or ":method GET" or ":method" then next token
-        int idx = s.indexOf(headerName);
-        if (idx == -1) return null;
-        int lineEnd = s.indexOf('\n', idx);
-        int lineStart = s.lastIndexOf('\n', idx);
-        if (lineStart == -1) lineStart = 0; else lineStart += 1;
-        String line = (lineEnd == -1) ? s.substring(lineStart) : s.substring(lineStart, lineEnd);
-        // strip headerName
-        String rest = line.substring(Math.min(line.length(), line.indexOf(headerName) + headerName.length())).trim();
-        // remove leading ':' or ':' plus separator
-        if (rest.startsWith(":")) rest = rest.substring(1).trim();
-        if (rest.isEmpty()) {
-            // maybe value follows on next token
-            String[] toks = line.split("\\s+", 3);
-            if (toks.length >= 2) return toks[1].trim();
-            return null;
-        }
-        // if rest like ":value" or "value"
-        return rest.replaceFirst("^:\\s*", "").trim();
     }
-
+    
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+    
     private static boolean isHttpsPort(int port) {
         return port == 443 || port == 8443;
     }
@@ -342,7 +516,7 @@ public class CapturedEvent {
     @Override
     public String toString() {
         return String.format("CapturedEvent[uuid=%s, type=%s, %s -> %s, process=%s(%d), len=%d]",
-                uuid, eventType.getDescription(), getSource(), getDestination(), processName, pid, length);
+                uuid, getEventType().getDescription(), getSource(), getDestination(), processName, pid, length);
     }
 }
 
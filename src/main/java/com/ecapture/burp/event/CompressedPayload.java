@@ -0,0 +1,67 @@
+package com.ecapture.burp.event;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Payload kept as deflated bytes on the heap. Inflated on demand through the
+ * {@link PayloadCompressor}, which caches recently used bodies.
+ */
+final class CompressedPayload extends Payload {
+    
+    private final PayloadCompressor compressor;
+    private final byte[] deflated;
+    private final int length;
+    // Guarded by the pair store
+    private boolean released;
+    
+    CompressedPayload(PayloadCompressor compressor, byte[] deflated, int length) {
+        this.compressor = compressor;
+        this.deflated = deflated;
+        this.length = length;
+    }
+    
+    byte[] deflated() {
+        return deflated;
+    }
+    
+    @Override
+    public int size() {
+        return length;
+    }
+    
+    @Override
+    public ByteString bytes() {
+        return compressor.inflate(this);
+    }
+    
+    @Override
+    public ByteString head(int maxBytes) {
+        return maxBytes >= length ? bytes() : compressor.inflateHead(this, maxBytes);
+    }
+    
+    @Override
+    public int copyTo(byte[] target, int offset, int count) {
+        return compressor.inflateInto(this, target, offset, Math.min(count, length));
+    }
+    
+    @Override
+    public boolean isOffHeap() {
+        return false;
+    }
+    
+    @Override
+    public int memorySize() {
+        return deflated.length;
+    }
+    
+    /**
+     * Called once when the pair store evicts the event holding this payload.
+     */
+    @Override
+    void release(PayloadArena arena) {
+        if (!released) {
+            released = true;
+            compressor.released(this);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.ecapture.burp.event;
+
+/**
+ * Identity of one captured socket, parsed once from an eCapture UUID.
+ * <p>
+ * UUID format: {@code sock:PID_TID_PNAME_FD_DIR_SRCIP:SPORT-DSTIP:DPORT_N}. The process name may
+ * itself contain '_', so the fields after it are located from the end of the string.
+ * <p>
+ * Two keys are equal when they belong to the same source, pid, fd and address pair. The thread
+ * id and the direction are kept for display but are not part of the identity: requests and
+ * responses travel in opposite directions, and a pooled socket may be used by several threads.
+ * The address pair is compared without regard to its order for the same reason.
+ */
+public final class ConnectionKey {
+    
+    private final String source;
+    private final long pid;
+    private final long tid;
+    private final String processName;
+    private final long fd;
+    private final int direction;
+    private final String localAddress;
+    private final int localPort;
+    private final String remoteAddress;
+    private final int remotePort;
+    // Set when the UUID did not have the expected layout; the raw UUID is then the identity
+    private final String rawUuid;
+    private final int hash;
+    
+    private ConnectionKey(String source, long pid, long tid, String processName, long fd, int direction,
+                          String srcAddress, int srcPort, String dstAddress, int dstPort, String rawUuid) {
+        this.source = source;
+        this.pid = pid;
+        this.tid = tid;
+        this.processName = processName;
+        this.fd = fd;
+        this.direction = direction;
+        
+        // Normalize the endpoint order so both directions produce the same key
+        boolean swap = compareEndpoints(srcAddress, srcPort, dstAddress, dstPort) > 0;
+        this.localAddress = swap ? dstAddress : srcAddress;
+        this.localPort = swap ? dstPort : srcPort;
+        this.remoteAddress = swap ? srcAddress : dstAddress;
+        this.remotePort = swap ? srcPort : dstPort;
+        this.rawUuid = rawUuid;
+        
+        int h = source.hashCode();
+        if (rawUuid != null) {
+            h = 31 * h + rawUuid.hashCode();
+        } else {
+            h = 31 * h + Long.hashCode(pid);
+            h = 31 * h + Long.hashCode(fd);
+            h = 31 * h + localAddress.hashCode();
+            h = 31 * h + localPort;
+            h = 31 * h + remoteAddress.hashCode();
+            h = 31 * h + remotePort;
+        }
+        this.hash = h;
+    }
+    
+    /**
+     * Parse an eCapture UUID without regex or intermediate arrays.
+     * UUIDs that do not follow the expected layout yield a key on the raw UUID.
+     */
+    public static ConnectionKey parse(String source, String uuid) {
+        String src = source != null ? source : "";
+        if (uuid == null || uuid.isEmpty()) {
+            return raw(src, "unknown");
+        }
+        
+        // Leading "sock:" (or any scheme) before the pid
+        int pos = uuid.indexOf(':') + 1;
+        int pidEnd = uuid.indexOf('_', pos);
+        if (pidEnd < 0) {
+            return raw(src, uuid);
+        }
+        int tidEnd = uuid.indexOf('_', pidEnd + 1);
+        
+        // From the end: _N, _TUPLE, _DIR, _FD
+        int lastSep = uuid.lastIndexOf('_');
+        int tupleSep = lastSep > 0 ? uuid.lastIndexOf('_', lastSep - 1) : -1;
+        int dirSep = tupleSep > 0 ? uuid.lastIndexOf('_', tupleSep - 1) : -1;
+        int fdSep = dirSep > 0 ? uuid.lastIndexOf('_', dirSep - 1) : -1;
+        if (tidEnd < 0 || fdSep <= tidEnd) {
+            return raw(src, uuid);
+        }
+        
+        long pid = parseNumber(uuid, pos, pidEnd);
+        long tid = parseNumber(uuid, pidEnd + 1, tidEnd);
+        long fd = parseNumber(uuid, fdSep + 1, dirSep);
+        long direction = parseNumber(uuid, dirSep + 1, tupleSep);
+        if (pid < 0 || tid < 0 || fd < 0 || direction < 0) {
+            return raw(src, uuid);
+        }
+        
+        // SRCIP:SPORT-DSTIP:DPORT (ports follow the last ':' of each side, so IPv6 works)
+        int dash = uuid.indexOf('-', tupleSep + 1);
+        if (dash < 0 || dash > lastSep) {
+            return raw(src, uuid);
+        }
+        int srcColon = uuid.lastIndexOf(':', dash - 1);
+        int dstColon = uuid.lastIndexOf(':', lastSep - 1);
+        if (srcColon <= tupleSep || dstColon <= dash) {
+            return raw(src, uuid);
+        }
+        long srcPort = parseNumber(uuid, srcColon + 1, dash);
+        long dstPort = parseNumber(uuid, dstColon + 1, lastSep);
+        if (srcPort < 0 || dstPort < 0) {
+            return raw(src, uuid);
+        }
+        
+        return new ConnectionKey(src, pid, tid, uuid.substring(tidEnd + 1, fdSep), fd, (int) direction,
+                uuid.substring(tupleSep + 1, srcColon), (int) srcPort,
+                uuid.substring(dash + 1, dstColon), (int) dstPort, null);
+    }
+    
+    private static ConnectionKey raw(String source, String uuid) {
+        return new ConnectionKey(source, 0, 0, "", 0, 0, "", 0, "", 0, uuid);
+    }
+    
+    /**
+     * Parse a non-negative decimal number from uuid[start, end), or -1 if it is not one.
+     */
+    private static long parseNumber(String s, int start, int end) {
+        if (start >= end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+    
+    private static int compareEndpoints(String addressA, int portA, String addressB, int portB) {
+        int c = addressA.compareTo(addressB);
+        return c != 0 ? c : Integer.compare(portA, portB);
+    }
+    
+    public String getSource() {
+        return source;
+    }
+    
+    public long getPid() {
+        return pid;
+    }
+    
+    public long getTid() {
+        return tid;
+    }
+    
+    public String getProcessName() {
+        return processName;
+    }
+    
+    public long getFd() {
+        return fd;
+    }
+    
+    public int getDirection() {
+        return direction;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConnectionKey)) {
+            return false;
+        }
+        ConnectionKey other = (ConnectionKey) o;
+        if (hash != other.hash || !source.equals(other.source)) {
+            return false;
+        }
+        if (rawUuid != null || other.rawUuid != null) {
+            return rawUuid != null && rawUuid.equals(other.rawUuid);
+        }
+        return pid == other.pid
+                && fd == other.fd
+                && localPort == other.localPort
+                && remotePort == other.remotePort
+                && localAddress.equals(other.localAddress)
+                && remoteAddress.equals(other.remoteAddress);
+    }
+    
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+    
+    @Override
+    public String toString() {
+        if (rawUuid != null) {
+            return source + "|" + rawUuid;
+        }
+        return source + "|" + pid + "_" + processName + "_" + fd + "_"
+                + localAddress + ":" + localPort + "-" + remoteAddress + ":" + remotePort;
+    }
+}
@@ -0,0 +1,66 @@
+package com.ecapture.burp.event;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Payload made of its own head in the arena and a body shared through the {@link BodyStore}.
+ */
+final class DedupPayload extends Payload {
+    
+    private final BodyStore store;
+    private final Payload head;
+    private final BodyStore.SharedBody body;
+    
+    DedupPayload(BodyStore store, Payload head, BodyStore.SharedBody body) {
+        this.store = store;
+        this.head = head;
+        this.body = body;
+    }
+    
+    @Override
+    public int size() {
+        return head.size() + body.payload.size();
+    }
+    
+    @Override
+    public ByteString bytes() {
+        return head.bytes().concat(body.payload.bytes());
+    }
+    
+    @Override
+    public ByteString head(int maxBytes) {
+        int headSize = head.size();
+        if (maxBytes <= headSize) {
+            return head.head(maxBytes);
+        }
+        return head.bytes().concat(body.payload.head(maxBytes - headSize));
+    }
+    
+    @Override
+    public int copyTo(byte[] target, int offset, int count) {
+        int copied = head.copyTo(target, offset, Math.min(count, head.size()));
+        if (copied < count && copied == head.size()) {
+            copied += body.payload.copyTo(target, offset + copied, count - copied);
+        }
+        return copied;
+    }
+    
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+    
+    /**
+     * Only the head; the shared body is counted once by the body store.
+     */
+    @Override
+    public int memorySize() {
+        return head.memorySize();
+    }
+    
+    @Override
+    void release(PayloadArena arena) {
+        arena.release(head);
+        store.release(body);
+    }
+}
@@ -0,0 +1,307 @@
+package com.ecapture.burp.event;
+
+import burp.api.montoya.logging.Logging;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers {@link BusEvent}s to subscribers off the publishing thread.
+ * <p>
+ * Every subscriber has its own bounded queue and delivery thread, so a slow or throwing
+ * subscriber only delays itself. Publishing is a type check and a queue insert per subscriber.
+ * <p>
+ * Two delivery modes:
+ * <ul>
+ *   <li>{@link DeliveryMode#LOSSLESS}: every event is delivered in order. When the queue is full
+ *       the publisher waits, so a subscriber that cannot keep up slows its publisher down rather
+ *       than losing events. Not for subscribers of capture events: ingestion must never wait.</li>
+ *   <li>{@link DeliveryMode#LATEST}: an event replaces a queued one with the same conflation key
+ *       (the same pair, or the previous heartbeat), and when the queue is full the oldest event is
+ *       dropped. The publisher never waits. For views that only show current state.</li>
+ * </ul>
+ */
+public class EventBus {
+    
+    public enum DeliveryMode {
+        LOSSLESS,
+        LATEST
+    }
+    
+    public static final int DEFAULT_CAPACITY = 4096;
+    
+    private final Logging logging;
+    private final List<Subscription<?>> subscriptions = new CopyOnWriteArrayList<>();
+    
+    public EventBus(Logging logging) {
+        this.logging = logging;
+    }
+    
+    /**
+     * Subscribe to events of a type (and its subtypes, e.g. {@link BusEvent.PairEvent} for all pair events).
+     * The handler runs on the subscription's own thread.
+     */
+    public <T extends BusEvent> Subscription<T> subscribe(String name, Class<T> type, DeliveryMode mode,
+                                                         int capacity, Consumer<? super T> handler) {
+        Subscription<T> subscription = new Subscription<>(name, type, mode, capacity, handler);
+        subscriptions.add(subscription);
+        subscription.worker.start();
+        return subscription;
+    }
+    
+    public void publish(BusEvent event) {
+        for (Subscription<?> subscription : subscriptions) {
+            if (subscription.type.isInstance(event)) {
+                subscription.offer(event);
+            }
+        }
+    }
+    
+    /**
+     * Publish events in order, taking each subscription's lock once for all of them.
+     */
+    public void publishAll(List<? extends BusEvent> events) {
+        for (Subscription<?> subscription : subscriptions) {
+            subscription.offerAll(events);
+        }
+    }
+    
+    /**
+     * Whether anyone listens for this type; lets publishers skip building events nobody reads.
+     */
+    public boolean hasSubscribers(Class<? extends BusEvent> type) {
+        for (Subscription<?> subscription : subscriptions) {
+            if (subscription.type.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public List<Subscription<?>> getSubscriptions() {
+        return new ArrayList<>(subscriptions);
+    }
+    
+    /**
+     * Stop all delivery threads; queued events are discarded.
+     */
+    public void shutdown() {
+        for (Subscription<?> subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+    
+    /**
+     * One subscriber: its queue, delivery thread and metrics. Queue state is guarded by the subscription.
+     */
+    public final class Subscription<T extends BusEvent> {
+        private final String name;
+        private final Class<T> type;
+        private final DeliveryMode mode;
+        private final int capacity;
+        private final Consumer<? super T> handler;
+        private final Thread worker;
+        
+        // LOSSLESS queue, or LATEST events by conflation key in arrival order
+        private final ArrayDeque<BusEvent> queue = new ArrayDeque<>();
+        private final LinkedHashMap<Object, BusEvent> latest = new LinkedHashMap<>();
+        private boolean closed;
+        
+        // Metrics, written under the lock, read without it
+        private volatile long published;
+        private volatile long delivered;
+        private volatile long dropped;
+        private volatile long conflated;
+        private volatile long publisherWaits;
+        private volatile long failures;
+        private volatile int highWaterMark;
+        
+        private Subscription(String name, Class<T> type, DeliveryMode mode, int capacity, Consumer<? super T> handler) {
+            this.name = name;
+            this.type = type;
+            this.mode = mode;
+            this.capacity = Math.max(1, capacity);
+            this.handler = handler;
+            this.worker = new Thread(this::run, "eCapture-Bus-" + name);
+            worker.setDaemon(true);
+        }
+        
+        private synchronized void offer(BusEvent event) {
+            if (enqueue(event)) {
+                notifyAll();
+            }
+        }
+        
+        private synchronized void offerAll(List<? extends BusEvent> events) {
+            boolean queued = false;
+            for (BusEvent event : events) {
+                if (type.isInstance(event) && enqueue(event)) {
+                    queued = true;
+                }
+            }
+            if (queued) {
+                notifyAll();
+            }
+        }
+        
+        /**
+         * Queue one event while holding the lock; false if it was not queued.
+         */
+        private boolean enqueue(BusEvent event) {
+            if (closed) {
+                return false;
+            }
+            published++;
+            if (mode == DeliveryMode.LOSSLESS) {
+                if (queue.size() >= capacity) {
+                    publisherWaits++;
+                    while (queue.size() >= capacity && !closed) {
+                        notifyAll(); // The worker may not have been told about this batch yet
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            dropped++;
+                            return false;
+                        }
+                    }
+                    if (closed) {
+                        return false;
+                    }
+                }
+                queue.addLast(event);
+            } else {
+                Object key = event.conflationKey();
+                if (latest.remove(key) != null) {
+                    conflated++;
+                } else if (latest.size() >= capacity) {
+                    Iterator<BusEvent> oldest = latest.values().iterator();
+                    oldest.next();
+                    oldest.remove();
+                    dropped++;
+                }
+                latest.put(key, event);
+            }
+            highWaterMark = Math.max(highWaterMark, getLag());
+            return true;
+        }
+        
+        /**
+         * Take everything queued, waiting until there is something. Returns null once closed.
+         */
+        private synchronized List<BusEvent> takeAll() throws InterruptedException {
+            while (queue.isEmpty() && latest.isEmpty() && !closed) {
+                wait();
+            }
+            if (closed) {
+                return null;
+            }
+            List<BusEvent> batch;
+            if (mode == DeliveryMode.LOSSLESS) {
+                batch = new ArrayList<>(queue);
+                queue.clear();
+            } else {
+                batch = new ArrayList<>(latest.values());
+                latest.clear();
+            }
+            notifyAll(); // Publishers waiting for space
+            return batch;
+        }
+        
+        private void run() {
+            try {
+                List<BusEvent> batch;
+                while ((batch = takeAll()) != null) {
+                    for (BusEvent event : batch) {
+                        try {
+                            handler.accept(type.cast(event));
+                        } catch (Exception e) {
+                            failures++;
+                            logging.logToError("Error in " + name + " subscriber: " + e.getMessage());
+                        }
+                    }
+                    synchronized (this) {
+                        delivered += batch.size();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * Stop delivery; publishers waiting for space are released.
+         */
+        public void close() {
+            subscriptions.remove(this);
+            synchronized (this) {
+                closed = true;
+                queue.clear();
+                latest.clear();
+                notifyAll();
+            }
+            worker.interrupt();
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public DeliveryMode getMode() {
+            return mode;
+        }
+        
+        public int getCapacity() {
+            return capacity;
+        }
+        
+        /**
+         * Events queued and not yet handed to the subscriber.
+         */
+        public synchronized int getLag() {
+            return mode == DeliveryMode.LOSSLESS ? queue.size() : latest.size();
+        }
+        
+        public int getHighWaterMark() {
+            return highWaterMark;
+        }
+        
+        public long getPublished() {
+            return published;
+        }
+        
+        public long getDelivered() {
+            return delivered;
+        }
+        
+        /**
+         * Events lost: pushed out of a full latest-only queue, or abandoned by an interrupted publisher.
+         */
+        public long getDropped() {
+            return dropped;
+        }
+        
+        /**
+         * Latest-only events replaced by a newer one with the same key before delivery.
+         */
+        public long getConflated() {
+            return conflated;
+        }
+        
+        /**
+         * Times a publisher had to wait for space in a full lossless queue.
+         */
+        public long getPublisherWaits() {
+            return publisherWaits;
+        }
+        
+        public long getFailures() {
+            return failures;
+        }
+    }
+}
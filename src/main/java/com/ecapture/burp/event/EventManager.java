@@ -1,109 +1,306 @@
 package com.ecapture.burp.event;
 
 import burp.api.montoya.MontoyaApi;
-import burp.api.montoya.http.HttpService;
-import burp.api.montoya.http.message.HttpRequestResponse;
-import burp.api.montoya.http.message.requests.HttpRequest;
-import burp.api.montoya.http.message.responses.HttpResponse;
 import burp.api.montoya.logging.Logging;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.function.Consumer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Manages captured events, matches request-response pairs,
  * and sends matched pairs to Burp Proxy History.
+ * <p>
+ * Events may be processed from several ingestion threads at once. Matching state is
+ * guarded by lock stripes chosen by connection, so events of one connection are matched
+ * one at a time while different connections are matched in parallel.
+ * <p>
+ * Unanswered requests and idle connections are expired by a timing wheel per stripe,
+ * advanced by a scheduler tick, so expiry never scans all connections. The same tick
+ * applies the age limit of the pair store.
  */
 public class EventManager {
     
-    private final MontoyaApi api;
     private final Logging logging;
     
-    // Store all matched pairs for display
-    private final List<MatchedHttpPair> matchedPairs;
+    // Store all matched pairs for display, bounded by the retention limits
+    private final PairStore pairStore;
+    // Optional background compression of completed pairs
+    private final PayloadCompressor compressor;
+    // Montoya messages built from pairs, shared by the editors, Repeater and the Site Map
+    private final MontoyaMessages messages;
+    // Completed pairs for Burp's Site Map, sent from the sink's own thread
+    private final SiteMapSink siteMapSink;
     
-    // Pending requests/responses waiting to be matched (by UUID)
-    private final Map<String, MatchedHttpPair> pendingPairs;
+    // Runtime logs from eCapture; replaced when resized
+    private volatile LogRing runtimeLogs;
+    // Next log line to publish, only used by the delivery task
+    private long logCursor;
     
-    // Runtime logs from eCapture
-    private final List<String> runtimeLogs;
+    // Pair, log and heartbeat events for the UI, the session store and other subscribers
+    private final EventBus eventBus;
     
-    // Event listeners
-    private final List<Consumer<MatchedHttpPair>> pairListeners;
-    private final List<Consumer<String>> logListeners;
+    // Lock stripes for per-connection matching state, each with its own timeouts
+    private static final int STRIPES = 64;
+    private final Stripe[] stripes;
     
-    // Stats
-    private long totalEventsReceived;
-    private long totalPairsMatched;
-    private long lastHeartbeatTime;
-    private long heartbeatCount;
+    // Expiry tick
+    private static final long EXPIRY_TICK_MS = 1000;
+    // Log lines are published in batches at this interval
+    private static final long LOG_DELIVERY_MS = 200;
+    private final ScheduledExecutorService expiryScheduler;
+    
+    // Stats (updated concurrently by the ingestion threads)
+    private final LongAdder totalEventsReceived = new LongAdder();
+    private final LongAdder totalPairsMatched = new LongAdder();
+    private final LongAdder pendingRequests = new LongAdder();
+    private final LongAdder expiredRequests = new LongAdder();
+    private final LongAdder releasedConnections = new LongAdder();
+    private final LongAdder leakedConnections = new LongAdder();
+    private final LongAdder retainedEventBytes = new LongAdder();
+    private final LongAdder retainedEvents = new LongAdder();
+    // Heartbeats are processed on the ingestion priority lane and read by the UI timer
+    private volatile long lastHeartbeatTime;
+    private volatile long heartbeatCount;
     
     // Timeout for matching (5 minutes)
     private static final long MATCH_TIMEOUT_MS = 5 * 60 * 1000;
+    // Connection state is released after this long without events
+    private static final long IDLE_TIMEOUT_MS = MATCH_TIMEOUT_MS;
     
     public EventManager(MontoyaApi api) {
-        this.api = api;
         this.logging = api.logging();
-        this.matchedPairs = new CopyOnWriteArrayList<>();
-        this.pendingPairs = new ConcurrentHashMap<>();
-        this.runtimeLogs = new CopyOnWriteArrayList<>();
-        this.pairListeners = new CopyOnWriteArrayList<>();
-        this.logListeners = new CopyOnWriteArrayList<>();
-        this.totalEventsReceived = 0;
-        this.totalPairsMatched = 0;
+        this.pairStore = new PairStore(new PayloadArena());
+        this.compressor = new PayloadCompressor(pairStore, logging);
+        this.runtimeLogs = new LogRing(LogRing.DEFAULT_CAPACITY);
+        this.eventBus = new EventBus(logging);
+        this.messages = new MontoyaMessages();
+        this.siteMapSink = new SiteMapSink(api, eventBus, messages);
+        long now = System.currentTimeMillis();
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(now);
+        }
         this.lastHeartbeatTime = 0;
         this.heartbeatCount = 0;
+        
+        this.expiryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "eCapture-Expiry");
+            t.setDaemon(true);
+            return t;
+        });
+        expiryScheduler.scheduleAtFixedRate(this::expireTimeouts, EXPIRY_TICK_MS, EXPIRY_TICK_MS, TimeUnit.MILLISECONDS);
+        expiryScheduler.scheduleWithFixedDelay(this::deliverLogs, LOG_DELIVERY_MS, LOG_DELIVERY_MS, TimeUnit.MILLISECONDS);
     }
     
-    // Per-connection queues for request/response pairing
-    // Key: connection UUID prefix (e.g., "sock:12345_67890_processname")
-    // Value: list of pending requests waiting for responses
-    private final Map<String, java.util.LinkedList<MatchedHttpPair>> pendingRequestsByConnection = new ConcurrentHashMap<>();
-    
     /**
-     * Extract connection ID from eCapture UUID.
-     * UUID format: sock:pid_tid_processname_x_y_ip-ip_z
-     * We extract: sock:pid_tid_processname (the first 4 parts joined by _)
+     * Lock stripe; its timing wheels are only touched while holding it.
      */
-    private String extractConnectionId(String uuid) {
-        if (uuid == null || uuid.isEmpty()) {
-            return "unknown";
-        }
+    private static final class Stripe {
+        TimingWheel<MatchedHttpPair> requestTimeouts;
+        TimingWheel<ConnectionState> idleTimeouts;
         
-        // Format: sock:27570_27907_httpdns3_0_1_0.0.0.0:0-0.0.0.0:0_0
-        // We want: sock:27570_27907_httpdns3 (ignore direction indicator _0_1_ or _0_0_)
+        Stripe(long now) {
+            reset(now);
+        }
         
-        // Find the prefix before the direction indicators
-        // Pattern: sock:PID_TID_NAME_X_Y_... where X_Y is direction (0_0 or 0_1 etc)
-        String[] parts = uuid.split("_");
-        if (parts.length >= 4) {
-            // Take first 3 parts: sock:PID, TID, NAME
-            StringBuilder connId = new StringBuilder();
-            connId.append(parts[0]); // sock:PID
-            connId.append("_").append(parts[1]); // TID
-            connId.append("_").append(parts[2]); // NAME
-            return connId.toString();
+        void reset(long now) {
+            requestTimeouts = new TimingWheel<>(EXPIRY_TICK_MS, now);
+            idleTimeouts = new TimingWheel<>(EXPIRY_TICK_MS, now);
         }
+    }
+    
+    /**
+     * Pairing state of one connection, guarded by its stripe.
+     */
+    private static final class ConnectionState {
+        final ConnectionKey id;
+        // Unanswered requests of this connection in arrival order. Completed pairs leave
+        // immediately; timed-out ones are dropped from the head when the next response arrives.
+        final ArrayDeque<MatchedHttpPair> unmatched = new ArrayDeque<>(4);
+        long lastActivity;
+        TimingWheel.Timeout<ConnectionState> idleTimeout;
         
-        // Fallback: use the whole UUID
-        return uuid;
+        ConnectionState(ConnectionKey id) {
+            this.id = id;
+        }
+    }
+    
+    // Per-connection pairing state
+    private final Map<ConnectionKey, ConnectionState> connections = new ConcurrentHashMap<>();
+    
+    // Parsed keys by source and raw UUID, so each UUID is parsed once.
+    // Cleared when it grows past the limit; a miss only costs a parse.
+    private static final int MAX_INTERNED_KEYS = 65536;
+    private final Map<String, Map<String, ConnectionKey>> internedKeys = new ConcurrentHashMap<>();
+    
+    // Makes pair ids unique even for requests in the same millisecond
+    private final AtomicLong pairSequence = new AtomicLong();
+    
+    /**
+     * Get the connection key of an event, reusing the instance parsed for an earlier event of the same UUID.
+     */
+    private ConnectionKey internKey(CapturedEvent event) {
+        String uuid = event.getUuid() != null ? event.getUuid() : "";
+        Map<String, ConnectionKey> keys = internedKeys.computeIfAbsent(event.getSourceName(),
+                source -> new ConcurrentHashMap<>());
+        ConnectionKey key = keys.get(uuid);
+        if (key == null) {
+            if (keys.size() >= MAX_INTERNED_KEYS) {
+                keys.clear();
+            }
+            key = ConnectionKey.parse(event.getSourceName(), uuid);
+            ConnectionKey existing = keys.putIfAbsent(uuid, key);
+            if (existing != null) {
+                key = existing;
+            }
+        }
+        return key;
     }
     
     /**
      * Process a captured event from eCapture.
-     * Requests and responses are paired by connection (UUID prefix) in order.
+     * Requests and responses are paired by connection (pid, fd and address pair from the UUID) in order.
+     * Safe to call from several threads as long as each connection is fed by one of them.
+     */
+    public void processEvent(CapturedEvent event) {
+        matchEvent(event);
+    }
+    
+    /**
+     * Process the events of one batch in a single pass: each stripe is locked once for all of
+     * its events, taken in arrival order, and the pairs they create or complete are stored and
+     * then published together.
      */
-    public synchronized void processEvent(CapturedEvent event) {
-        totalEventsReceived++;
+    public void processEvents(List<CapturedEvent> events) {
+        int count = events.size();
+        totalEventsReceived.add(count);
         
-        String uuid = event.getUuid();
+        // Counting sort by stripe; stable, so the events of a connection keep their order
+        ConnectionKey[] keys = new ConnectionKey[count];
+        int[] stripeOf = new int[count];
+        int[] starts = new int[STRIPES + 1];
+        for (int i = 0; i < count; i++) {
+            keys[i] = internKey(events.get(i));
+            stripeOf[i] = stripeIndex(keys[i]);
+            starts[stripeOf[i] + 1]++;
+        }
+        for (int s = 0; s < STRIPES; s++) {
+            starts[s + 1] += starts[s];
+        }
+        int[] order = new int[count];
+        int[] next = starts.clone();
+        for (int i = 0; i < count; i++) {
+            order[next[stripeOf[i]]++] = i;
+        }
         
-        // Extract connection ID from UUID
-        String connectionId = extractConnectionId(uuid);
+        List<BusEvent.PairEvent> changes = new ArrayList<>(count);
+        List<CapturedEvent> retained = new ArrayList<>(count);
+        for (int s = 0; s < STRIPES; s++) {
+            if (starts[s] == starts[s + 1]) {
+                continue;
+            }
+            Stripe stripe = stripes[s];
+            synchronized (stripe) {
+                for (int k = starts[s]; k < starts[s + 1]; k++) {
+                    CapturedEvent event = events.get(order[k]);
+                    BusEvent.PairEvent changed = processEventLocked(stripe, event, keys[order[k]]);
+                    if (changed != null) {
+                        changes.add(changed);
+                        retained.add(event);
+                    }
+                }
+            }
+        }
+        
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (BusEvent.PairEvent changed : changes) {
+            store(changed);
+        }
+        eventBus.publishAll(changes);
+        for (int i = 0; i < changes.size(); i++) {
+            retain(changes.get(i), retained.get(i));
+        }
+    }
+    
+    private void matchEvent(CapturedEvent event) {
+        totalEventsReceived.increment();
+        
+        // Connection identity from the UUID (scoped by source, pids are only unique per host)
+        ConnectionKey key = internKey(event);
+        
+        Stripe stripe = stripeFor(key);
+        BusEvent.PairEvent changed;
+        synchronized (stripe) {
+            changed = processEventLocked(stripe, event, key);
+        }
+        
+        // Stored and announced once the stripe is released: moving payloads and writing the index
+        // only lock the pair, and a full subscriber queue never holds up other connections
+        if (changed != null) {
+            store(changed);
+            eventBus.publish(changed);
+            retain(changed, event);
+        }
+    }
+    
+    private void store(BusEvent.PairEvent changed) {
+        if (changed instanceof BusEvent.PairCreated) {
+            pairStore.append(changed.getPair());
+        } else {
+            pairStore.responseAdded(changed.getPair());
+        }
+    }
+    
+    /**
+     * Hand a published pair to the compressor once complete, and count the event kept in it.
+     */
+    private void retain(BusEvent.PairEvent changed, CapturedEvent event) {
+        if (changed instanceof BusEvent.PairCompleted) {
+            compressor.submit(changed.getPair());
+        }
+        // Only events kept in a pair; measured once stored, with the head and URL cached
+        retainedEventBytes.add(event.getRetainedBytes());
+        retainedEvents.increment();
+    }
+    
+    private Stripe stripeFor(ConnectionKey key) {
+        return stripes[stripeIndex(key)];
+    }
+    
+    private static int stripeIndex(ConnectionKey key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+    
+    /**
+     * Record activity on a connection and make sure an idle timeout is pending for it.
+     * The timeout is not moved on every event; when it fires it re-arms itself if needed.
+     */
+    private void touch(Stripe stripe, ConnectionState state, long now) {
+        state.lastActivity = now;
+        if (state.idleTimeout == null) {
+            state.idleTimeout = stripe.idleTimeouts.schedule(state, now + IDLE_TIMEOUT_MS);
+        }
+    }
+    
+    /**
+     * Match one event while holding its connection's stripe lock.
+     * Returns the event for the pair it created or completed, if any; the caller stores and publishes the pair.
+     */
+    private BusEvent.PairEvent processEventLocked(Stripe stripe, CapturedEvent event, ConnectionKey key) {
+        long now = System.currentTimeMillis();
         
         // Log event details for debugging
         if (event.isRequest()) {
@@ -115,33 +312,32 @@ public class EventManager {
             // Accept GET and POST (case-insensitive)
             String upperMethod = method.toUpperCase();
             if (!upperMethod.equals("GET") && !upperMethod.equals("POST")) {
-                return; // Skip non-GET/POST
+                return null; // Skip non-GET/POST
             }
             
             // Skip requests with invalid/missing data
             if (url.equals("-") || url.isEmpty()) {
-                return; // Skip requests without URL
+                return null; // Skip requests without URL
             }
             if (host.equals("-") || host.isEmpty() || host.equals("0.0.0.0")) {
-                return; // Skip requests without valid host
+                return null; // Skip requests without valid host
             }
             
             // Create a new pair for this request
-            String pairId = connectionId + "_req_" + System.currentTimeMillis();
+            String pairId = key + "_req_" + pairSequence.incrementAndGet();
             MatchedHttpPair pair = new MatchedHttpPair(pairId);
             pair.setRequest(event);
             
-            // Add to pending requests for this connection
-            pendingRequestsByConnection
-                    .computeIfAbsent(connectionId, k -> new java.util.LinkedList<>())
-                    .add(pair);
-            
-            // Add to display list
-            matchedPairs.add(pair);
-            totalPairsMatched++;
+            // Add to pending requests for this connection, expiring if no response arrives
+            ConnectionState state = connections.computeIfAbsent(key, ConnectionState::new);
+            touch(stripe, state, now);
+            state.unmatched.addLast(pair);
+            pair.expiry = stripe.requestTimeouts.schedule(pair, now + MATCH_TIMEOUT_MS);
+            pendingRequests.increment();
+            totalPairsMatched.increment();
             
-            // Notify UI
-            notifyPairListeners(pair);
+            // Stored and shown by the caller
+            return new BusEvent.PairCreated(pair);
             
         } else if (event.isResponse()) {
             // Filter: only keep valid HTTP responses (must have numeric status code)
@@ -149,152 +345,119 @@ public class EventManager {
             
             // Skip responses without valid status codes
             if (statusCode.equals("-") || statusCode.isEmpty()) {
-                return;
+                return null;
             }
             
             // Check if status code looks valid (should be numeric, like "200", "404")
             try {
                 int code = Integer.parseInt(statusCode.trim());
                 if (code < 100 || code > 599) {
-                    return; // Invalid HTTP status code range
+                    return null; // Invalid HTTP status code range
                 }
             } catch (NumberFormatException e) {
-                return; // Not a numeric status code
+                return null; // Not a numeric status code
             }
             
             // Try to find a pending request to pair with
-            java.util.LinkedList<MatchedHttpPair> pendingRequests = pendingRequestsByConnection.get(connectionId);
+            ConnectionState state = connections.get(key);
             
-            if (pendingRequests != null && !pendingRequests.isEmpty()) {
-                // Find first request without a response
-                MatchedHttpPair pair = null;
-                for (MatchedHttpPair p : pendingRequests) {
-                    if (!p.hasResponse()) {
-                        pair = p;
-                        break;
-                    }
+            if (state != null) {
+                touch(stripe, state, now);
+                
+                // Oldest request still waiting for a response
+                MatchedHttpPair pair = state.unmatched.pollFirst();
+                while (pair != null && pair.isTimedOut()) {
+                    pair = state.unmatched.pollFirst();
                 }
                 
                 if (pair != null) {
                     // Pair this response with the request
                     pair.setResponse(event);
+                    stripe.requestTimeouts.cancel(pair.expiry);
+                    pair.expiry = null;
+                    pendingRequests.decrement();
                     
                     // Response paired successfully
                     
-                    // Notify UI to update
-                    notifyPairListeners(pair);
-                    
-                    // Try to send complete pair to Site Map
-                    sendToSiteMapSafe(pair);
+                    // Notify UI to update; the Site Map gets it through its bus subscription
+                    return new BusEvent.PairCompleted(pair);
                 } else {
-                    // All requests already have responses, create standalone response
-                    createStandaloneResponse(connectionId, event);
+                    // Every request already has its response, create standalone response
+                    createStandaloneResponse(key, event);
                 }
             } else {
                 // No pending requests for this connection, create standalone response
-                createStandaloneResponse(connectionId, event);
+                createStandaloneResponse(key, event);
             }
         }
         // Unknown types are silently ignored (binary/unparseable data)
-        
-        // Cleanup old connections periodically
-        cleanupOldConnections();
+        return null;
     }
     
     /**
      * Create a standalone response entry (no matching request).
      * Note: We skip standalone responses since they're not useful without requests.
      */
-    private void createStandaloneResponse(String connectionId, CapturedEvent event) {
+    private void createStandaloneResponse(ConnectionKey key, CapturedEvent event) {
         // Skip standalone responses - they're not useful without matching requests
     }
     
     /**
-     * Cleanup old connection queues to prevent memory leaks.
+     * Scheduler tick: expire unanswered requests and release idle connections.
      */
-    private void cleanupOldConnections() {
-        // Remove connections with all completed pairs (older than 5 minutes)
-        long now = System.currentTimeMillis();
-        pendingRequestsByConnection.entrySet().removeIf(entry -> {
-            java.util.LinkedList<MatchedHttpPair> pairs = entry.getValue();
-            if (pairs.isEmpty()) return true;
-            // Remove if oldest pair is older than 5 minutes and all are complete
-            MatchedHttpPair oldest = pairs.peekFirst();
-            return oldest != null && 
-                   (now - oldest.getCreatedAt() > 5 * 60 * 1000) && 
-                   pairs.stream().allMatch(MatchedHttpPair::isComplete);
-        });
-    }
-    
-    /**
-     * Handle a completed request-response pair.
-     */
-    private void completePair(MatchedHttpPair pair) {
-        totalPairsMatched++;
-        
-        // Move from pending to completed
-        pendingPairs.remove(pair.getUuid());
-        matchedPairs.add(pair);
-        
-        // Send to Burp Site Map
-        sendToSiteMapSafe(pair);
-        
-        pair.setSentToProxy(true);
-        
-        // Pair matched
-    }
-    
-    /**
-     * Safely send matched pair to Burp Site Map (Target tab).
-     * Note: Montoya API doesn't support adding to Proxy History directly.
-     */
-    private void sendToSiteMapSafe(MatchedHttpPair pair) {
+    private void expireTimeouts() {
         try {
-            CapturedEvent request = pair.getRequest();
-            CapturedEvent response = pair.getResponse();
-            
-            if (request == null || request.getPayload() == null) {
-                return;
-            }
-            
-            // Get host from the pair (parsed from Host header)
-            String host = pair.getHost();
-            
-            // Skip if host is invalid
-            if (host == null || host.isEmpty() || host.equals("0.0.0.0") || host.equals("-")) {
-                return;
-            }
-            
-            // Get port - default to 443 for HTTPS hosts
-            int port = pair.getPort();
-            if (port <= 0) {
-                port = 443;
-            }
-            boolean useHttps = (port == 443 || port == 8443);
-            
-            // Create HttpService
-            HttpService httpService = HttpService.httpService(host, port, useHttps);
-            
-            // Parse and create HTTP request
-            HttpRequest httpRequest = HttpRequest.httpRequest(httpService, new String(request.getPayload()));
-            
-            // Create response if available
-            HttpResponse httpResponse = null;
-            if (response != null && response.getPayload() != null) {
-                httpResponse = HttpResponse.httpResponse(new String(response.getPayload()));
+            long now = System.currentTimeMillis();
+            List<MatchedHttpPair> expired = new ArrayList<>();
+            for (Stripe stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.requestTimeouts.advance(now, pair -> expireRequest(pair, expired));
+                    stripe.idleTimeouts.advance(now, state -> releaseIfIdle(stripe, state, now, expired));
+                }
             }
+            pairStore.evictExpired(now);
             
-            // Add to site map (only if we have both request and response)
-            if (httpResponse != null) {
-                HttpRequestResponse requestResponse = HttpRequestResponse.httpRequestResponse(
-                        httpRequest, httpResponse);
-                api.siteMap().add(requestResponse);
-                // Added to Site Map
+            // Let the UI show them as timed out
+            for (MatchedHttpPair pair : expired) {
+                pairStore.timedOut(pair);
+                eventBus.publish(new BusEvent.PairExpired(pair));
+                compressor.submit(pair);
             }
-            
         } catch (Exception e) {
-            // Silently ignore errors - Site Map is optional
-            logging.logToError("Site Map error (ignored): " + e.getMessage());
+            logging.logToError("Error expiring pending requests: " + e.getMessage());
+        }
+    }
+    
+    private void expireRequest(MatchedHttpPair pair, List<MatchedHttpPair> expired) {
+        pair.expiry = null;
+        pair.setTimedOut(true);
+        pendingRequests.decrement();
+        expiredRequests.increment();
+        expired.add(pair);
+    }
+    
+    private void releaseIfIdle(Stripe stripe, ConnectionState state, long now, List<MatchedHttpPair> expired) {
+        state.idleTimeout = null;
+        if (now - state.lastActivity < IDLE_TIMEOUT_MS) {
+            // Active since the timeout was armed
+            state.idleTimeout = stripe.idleTimeouts.schedule(state, state.lastActivity + IDLE_TIMEOUT_MS);
+            return;
+        }
+        
+        connections.remove(state.id, state);
+        releasedConnections.increment();
+        
+        // Queues still holding unanswered requests were never released before
+        boolean leaked = false;
+        for (MatchedHttpPair pair : state.unmatched) {
+            if (pair.expiry != null) {
+                stripe.requestTimeouts.cancel(pair.expiry);
+                expireRequest(pair, expired);
+            }
+            leaked = true;
+        }
+        if (leaked) {
+            leakedConnections.increment();
         }
     }
     
@@ -304,114 +467,158 @@ public class EventManager {
     public void processHeartbeat(long timestamp, long count, String message) {
         this.lastHeartbeatTime = System.currentTimeMillis();
         this.heartbeatCount = count;
+        eventBus.publish(new BusEvent.Heartbeat(timestamp, count, message));
     }
     
     /**
      * Process runtime log from eCapture.
      */
     public void processRuntimeLog(String logMessage) {
-        runtimeLogs.add(logMessage);
-        
-        // Keep only last 1000 logs
-        while (runtimeLogs.size() > 1000) {
-            runtimeLogs.remove(0);
-        }
-        
-        // Notify listeners
-        notifyLogListeners(logMessage);
+        // Overwrites the oldest line when full; subscribers get it with the next batch
+        runtimeLogs.append(logMessage);
     }
     
     /**
-     * Clean up old pending pairs that haven't been matched.
+     * Delivery tick: publish the lines appended since the last tick as one batch.
      */
-    private void cleanupOldPairs() {
-        long now = System.currentTimeMillis();
-        List<String> toRemove = new ArrayList<>();
-        
-        for (Map.Entry<String, MatchedHttpPair> entry : pendingPairs.entrySet()) {
-            MatchedHttpPair pair = entry.getValue();
-            if (now - pair.getCreatedAt() > MATCH_TIMEOUT_MS) {
-                toRemove.add(entry.getKey());
-                
-                // Add incomplete pair to display list anyway
-                if (!matchedPairs.contains(pair)) {
-                    matchedPairs.add(pair);
-                }
+    private void deliverLogs() {
+        try {
+            LogRing ring = runtimeLogs;
+            if (!eventBus.hasSubscribers(BusEvent.LogLines.class)) {
+                logCursor = ring.getEndSequence();
+                return;
             }
-        }
-        
-        for (String uuid : toRemove) {
-            pendingPairs.remove(uuid);
+            List<String> batch = new ArrayList<>();
+            logCursor = ring.drainTo(logCursor, batch, ring.capacity());
+            if (!batch.isEmpty()) {
+                eventBus.publish(new BusEvent.LogLines(batch));
+            }
+        } catch (Exception e) {
+            logging.logToError("Error delivering runtime logs: " + e.getMessage());
         }
     }
     
     /**
-     * Add listener for new/updated pairs.
+     * Bus carrying pair, log and heartbeat events. Subscribers are called on their own threads.
      */
-    public void addPairListener(Consumer<MatchedHttpPair> listener) {
-        pairListeners.add(listener);
+    public EventBus getEventBus() {
+        return eventBus;
     }
     
     /**
-     * Add listener for runtime logs.
+     * Get all retained pairs (for display), oldest first. The list is a read-only
+     * snapshot view; it is not copied and does not change as new pairs arrive.
      */
-    public void addLogListener(Consumer<String> listener) {
-        logListeners.add(listener);
+    public List<MatchedHttpPair> getMatchedPairs() {
+        return pairStore.snapshot();
     }
     
-    private void notifyPairListeners(MatchedHttpPair pair) {
-        for (Consumer<MatchedHttpPair> listener : pairListeners) {
-            try {
-                listener.accept(pair);
-            } catch (Exception e) {
-                logging.logToError("Error in pair listener: " + e.getMessage());
-                e.printStackTrace();
+    /**
+     * Add pairs loaded from a saved session. They are stored and displayed like captured
+     * pairs but take no part in matching, and no events are published.
+     * <p>
+     * Pairs still held in memory (reopening the same session, or pairs captured while it was
+     * open) are skipped. Returns the number of pairs added.
+     */
+    public int restorePairs(List<MatchedHttpPair> pairs) {
+        Set<String> present = new HashSet<>();
+        for (MatchedHttpPair pair : pairStore.snapshot()) {
+            present.add(restoreKey(pair));
+        }
+        int added = 0;
+        for (MatchedHttpPair pair : pairs) {
+            if (!present.contains(restoreKey(pair))) {
+                pairStore.append(pair);
+                added++;
             }
         }
+        return added;
     }
     
-    private void notifyLogListeners(String log) {
-        for (Consumer<String> listener : logListeners) {
-            try {
-                listener.accept(log);
-            } catch (Exception e) {
-                logging.logToError("Error in log listener: " + e.getMessage());
-            }
-        }
+    /**
+     * Pair uuid and request timestamp: uuids come from a per-run counter, so they can repeat
+     * across Burp restarts.
+     */
+    private static String restoreKey(MatchedHttpPair pair) {
+        CapturedEvent request = pair.getRequest();
+        return pair.getUuid() + '@' + (request != null ? request.getTimestamp() : 0);
     }
     
     /**
-     * Get all matched pairs (for display).
+     * Store holding the retained pairs, for indexed access and retention settings.
      */
-    public List<MatchedHttpPair> getMatchedPairs() {
-        return new ArrayList<>(matchedPairs);
+    public PairStore getPairStore() {
+        return pairStore;
+    }
+    
+    public MontoyaMessages getMessages() {
+        return messages;
+    }
+    
+    public SiteMapSink getSiteMapSink() {
+        return siteMapSink;
+    }
+    
+    public PayloadCompressor getCompressor() {
+        return compressor;
+    }
+    
+    /**
+     * Ring holding the most recent runtime logs; read it in place rather than copying it.
+     */
+    public LogRing getRuntimeLogs() {
+        return runtimeLogs;
     }
     
     /**
-     * Get runtime logs.
+     * Keep at least this many runtime log lines (rounded up to a power of two). The newest lines are kept.
      */
-    public List<String> getRuntimeLogs() {
-        return new ArrayList<>(runtimeLogs);
+    public void setRuntimeLogCapacity(int capacity) {
+        runtimeLogs = new LogRing(capacity, runtimeLogs);
     }
     
     /**
      * Clear all data.
      */
     public void clear() {
-        matchedPairs.clear();
-        pendingPairs.clear();
+        long now = System.currentTimeMillis();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                connections.keySet().removeIf(key -> stripeFor(key) == stripe);
+                stripe.reset(now);
+            }
+        }
+        internedKeys.clear();
+        pairStore.clear();
+        compressor.clear();
+        messages.clear();
         runtimeLogs.clear();
-        totalEventsReceived = 0;
-        totalPairsMatched = 0;
+        totalEventsReceived.reset();
+        totalPairsMatched.reset();
+        pendingRequests.reset();
+        expiredRequests.reset();
+        releasedConnections.reset();
+        leakedConnections.reset();
+        retainedEventBytes.reset();
+        retainedEvents.reset();
+    }
+    
+    /**
+     * Stop the expiry and log delivery ticks, the compression worker and event delivery.
+     */
+    public void shutdown() {
+        expiryScheduler.shutdownNow();
+        compressor.shutdown();
+        eventBus.shutdown();
     }
     
     // Getters for stats
     public long getTotalEventsReceived() {
-        return totalEventsReceived;
+        return totalEventsReceived.sum();
     }
     
     public long getTotalPairsMatched() {
-        return totalPairsMatched;
+        return totalPairsMatched.sum();
     }
     
     public long getLastHeartbeatTime() {
@@ -423,7 +630,37 @@ public class EventManager {
     }
     
     public int getPendingPairsCount() {
-        return pendingPairs.size();
+        return (int) pendingRequests.sum();
+    }
+    
+    /**
+     * Requests that got no response within the match timeout.
+     */
+    public long getExpiredRequestsCount() {
+        return expiredRequests.sum();
+    }
+    
+    /**
+     * Idle connections whose pairing state was released.
+     */
+    public long getReleasedConnectionsCount() {
+        return releasedConnections.sum();
+    }
+    
+    /**
+     * Released connections that still held unanswered requests (previously never freed).
+     */
+    public long getLeakedConnectionsCount() {
+        return leakedConnections.sum();
+    }
+    
+    /**
+     * Average heap retained per event kept in a pair, excluding payload bytes and pooled strings,
+     * or -1 before the first one.
+     */
+    public long getRetainedBytesPerEvent() {
+        long events = retainedEvents.sum();
+        return events == 0 ? -1 : retainedEventBytes.sum() / events;
     }
 }
 
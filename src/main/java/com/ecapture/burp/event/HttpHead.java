@@ -0,0 +1,346 @@
+package com.ecapture.burp.event;
+
+import com.google.protobuf.ByteString;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request/status line and the headers we care about, parsed once from the start of a payload.
+ * <p>
+ * The parser works on the payload bytes and stops at the end of the header block
+ * (or after {@link #MAX_HEAD_BYTES}), so a large body is never looked at or turned into a String.
+ * Understands HTTP/1.x messages as well as the text forms eCapture prints for HTTP/2 headers
+ * ({@code :method: GET}, {@code :method GET} and {@code header field ":method" = "GET"}).
+ */
+public final class HttpHead {
+    
+    static final int MAX_HEAD_BYTES = 64 * 1024;
+    
+    private static final String[] KNOWN_METHODS = {
+            "GET", "POST", "PUT", "DELETE", "HEAD", "OPTIONS", "PATCH", "CONNECT", "TRACE"
+    };
+    private static final byte[] HTTP_PREFIX = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER_FIELD_PREFIX = "header field \"".getBytes(StandardCharsets.US_ASCII);
+    
+    // Request line or :method / :path
+    private String method;
+    private String target;
+    // Status line or :status
+    private String status;
+    // Host header or :authority
+    private String host;
+    private String authority;
+    private String scheme;
+    private String path;
+    // Offset of the first body byte, or -1 if the end of the header block was not seen
+    private int bodyOffset = -1;
+    
+    private HttpHead() {
+    }
+    
+    /**
+     * Head restored from stored metadata, without the payload. Any value may be null.
+     */
+    public static HttpHead of(String method, String target, String host, String status) {
+        HttpHead head = new HttpHead();
+        head.method = method;
+        head.target = target;
+        head.host = host;
+        head.status = status;
+        return head;
+    }
+    
+    /**
+     * Parse the head of a payload. Never throws; fields that cannot be found stay null.
+     */
+    public static HttpHead parse(ByteString payload) {
+        HttpHead head = new HttpHead();
+        int limit = Math.min(payload.size(), MAX_HEAD_BYTES);
+        boolean firstLine = true;
+        boolean http1 = false;
+        int lineStart = 0;
+        
+        while (lineStart < limit) {
+            int lineEnd = indexOf(payload, (byte) '\n', lineStart, limit);
+            int next = lineEnd < 0 ? limit : lineEnd + 1;
+            if (lineEnd < 0) {
+                lineEnd = limit;
+            }
+            if (lineEnd > lineStart && payload.byteAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            
+            if (lineEnd == lineStart) {
+                // A blank line ends an HTTP/1.x head; HTTP/2 text dumps separate frames with them
+                if (http1) {
+                    head.bodyOffset = next;
+                    break;
+                }
+            } else if (firstLine && (head.parseRequestLine(payload, lineStart, lineEnd)
+                    || head.parseStatusLine(payload, lineStart, lineEnd))) {
+                http1 = true;
+            } else {
+                head.parseHeaderLine(payload, lineStart, lineEnd);
+            }
+            firstLine = false;
+            lineStart = next;
+        }
+        return head;
+    }
+    
+    /**
+     * "METHOD SP target [SP version]" with an upper case method token.
+     */
+    private boolean parseRequestLine(ByteString payload, int start, int end) {
+        int space = indexOf(payload, (byte) ' ', start, end);
+        if (space <= start || space - start >= 12) {
+            return false;
+        }
+        for (int i = start; i < space; i++) {
+            byte b = payload.byteAt(i);
+            if (b < 'A' || b > 'Z') {
+                return false;
+            }
+        }
+        method = methodString(payload, start, space);
+        int targetEnd = indexOf(payload, (byte) ' ', space + 1, end);
+        if (targetEnd < 0) {
+            targetEnd = end;
+        }
+        if (targetEnd > space + 1) {
+            target = string(payload, space + 1, targetEnd);
+        }
+        return true;
+    }
+    
+    /**
+     * "HTTP/x.y SP status [SP reason]".
+     */
+    private boolean parseStatusLine(ByteString payload, int start, int end) {
+        if (!startsWith(payload, start, end, HTTP_PREFIX)) {
+            return false;
+        }
+        int space = indexOf(payload, (byte) ' ', start, end);
+        if (space > start) {
+            int statusStart = skipSpaces(payload, space + 1, end);
+            int statusEnd = indexOf(payload, (byte) ' ', statusStart, end);
+            if (statusEnd < 0) {
+                statusEnd = Math.min(end, statusStart + 3);
+            }
+            if (statusEnd > statusStart) {
+                status = pooled(payload, statusStart, statusEnd);
+            }
+        }
+        return true;
+    }
+    
+    private void parseHeaderLine(ByteString payload, int start, int end) {
+        int nameStart;
+        int nameEnd;
+        int valueStart;
+        int valueEnd = end;
+        
+        if (startsWith(payload, start, end, HEADER_FIELD_PREFIX)) {
+            // header field ":method" = "GET"
+            nameStart = start + HEADER_FIELD_PREFIX.length;
+            nameEnd = indexOf(payload, (byte) '"', nameStart, end);
+            if (nameEnd < 0) {
+                return;
+            }
+            int eq = indexOf(payload, (byte) '=', nameEnd, end);
+            if (eq < 0) {
+                return;
+            }
+            valueStart = skipSpaces(payload, eq + 1, end);
+            if (valueStart < end && payload.byteAt(valueStart) == '"') {
+                valueStart++;
+                if (valueEnd > valueStart && payload.byteAt(valueEnd - 1) == '"') {
+                    valueEnd--;
+                }
+            }
+        } else if (payload.byteAt(start) == ':') {
+            // :method: GET or :method GET
+            nameStart = start;
+            nameEnd = start + 1;
+            while (nameEnd < end) {
+                byte b = payload.byteAt(nameEnd);
+                if (b == ':' || b == ' ' || b == '\t') {
+                    break;
+                }
+                nameEnd++;
+            }
+            valueStart = nameEnd;
+            if (valueStart < end && payload.byteAt(valueStart) == ':') {
+                valueStart++;
+            }
+        } else {
+            // Name: value
+            nameStart = start;
+            nameEnd = indexOf(payload, (byte) ':', start, end);
+            if (nameEnd <= start) {
+                return;
+            }
+            valueStart = nameEnd + 1;
+        }
+        
+        valueStart = skipSpaces(payload, valueStart, valueEnd);
+        while (valueEnd > valueStart && isSpace(payload.byteAt(valueEnd - 1))) {
+            valueEnd--;
+        }
+        if (valueEnd <= valueStart) {
+            return;
+        }
+        
+        // The first occurrence of a header wins
+        if (host == null && nameEquals(payload, nameStart, nameEnd, "host")) {
+            host = pooled(payload, valueStart, valueEnd);
+        } else if (method == null && nameEquals(payload, nameStart, nameEnd, ":method")) {
+            method = methodString(payload, valueStart, valueEnd);
+        } else if (path == null && nameEquals(payload, nameStart, nameEnd, ":path")) {
+            path = string(payload, valueStart, valueEnd);
+        } else if (authority == null && nameEquals(payload, nameStart, nameEnd, ":authority")) {
+            authority = pooled(payload, valueStart, valueEnd);
+        } else if (scheme == null && nameEquals(payload, nameStart, nameEnd, ":scheme")) {
+            scheme = pooled(payload, valueStart, valueEnd);
+        } else if (status == null && nameEquals(payload, nameStart, nameEnd, ":status")) {
+            status = pooled(payload, valueStart, valueEnd);
+        }
+    }
+    
+    /**
+     * HTTP method from the request line or :method, or null.
+     */
+    public String getMethod() {
+        return method;
+    }
+    
+    /**
+     * Request target from the request line, or null for HTTP/2.
+     */
+    public String getTarget() {
+        return target;
+    }
+    
+    public String getPath() {
+        return path;
+    }
+    
+    public String getScheme() {
+        return scheme;
+    }
+    
+    public String getAuthority() {
+        return authority;
+    }
+    
+    /**
+     * Status code from the status line or :status, or null.
+     */
+    public String getStatus() {
+        return status;
+    }
+    
+    /**
+     * Status code as a number, or 0 if there is none or it is not a number of 1 to 3 digits.
+     */
+    public int getStatusCode() {
+        String value = status;
+        if (value == null || value.isEmpty() || value.length() > 3) {
+            return 0;
+        }
+        int code = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            code = code * 10 + (c - '0');
+        }
+        return code;
+    }
+    
+    /**
+     * Host header, falling back to :authority, or null.
+     */
+    public String getHost() {
+        return host != null ? host : authority;
+    }
+    
+    /**
+     * Offset of the body within the payload, or -1 if the header block did not end.
+     */
+    public int getBodyOffset() {
+        return bodyOffset;
+    }
+    
+    private static String methodString(ByteString payload, int start, int end) {
+        // Avoid allocating for the common methods
+        for (String known : KNOWN_METHODS) {
+            if (known.length() == end - start && regionEquals(payload, start, known, false)) {
+                return known;
+            }
+        }
+        return string(payload, start, end);
+    }
+    
+    private static String string(ByteString payload, int start, int end) {
+        return payload.substring(start, end).toString(StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Values that repeat across events (hosts, status codes) are shared through the event pool.
+     */
+    private static String pooled(ByteString payload, int start, int end) {
+        return CapturedEvent.internValue(string(payload, start, end));
+    }
+    
+    private static boolean nameEquals(ByteString payload, int start, int end, String name) {
+        return end - start == name.length() && regionEquals(payload, start, name, true);
+    }
+    
+    private static boolean regionEquals(ByteString payload, int start, String value, boolean ignoreCase) {
+        for (int i = 0; i < value.length(); i++) {
+            int b = payload.byteAt(start + i);
+            char c = value.charAt(i);
+            if (ignoreCase && b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != c) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean startsWith(ByteString payload, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (payload.byteAt(start + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int indexOf(ByteString payload, byte value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (payload.byteAt(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    private static int skipSpaces(ByteString payload, int start, int end) {
+        while (start < end && isSpace(payload.byteAt(start))) {
+            start++;
+        }
+        return start;
+    }
+    
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+}
@@ -0,0 +1,132 @@
+package com.ecapture.burp.event;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-capacity, lock-free ring of log lines. Writers claim a sequence number and
+ * overwrite the oldest slot; nothing is ever copied or shifted.
+ * <p>
+ * Every slot remembers the sequence it was written for, so readers can tell a line
+ * that was overwritten (or is still being written) from the one they asked for.
+ */
+public final class LogRing {
+    
+    public static final int DEFAULT_CAPACITY = 1024;
+    
+    private static final class Entry {
+        final long sequence;
+        final String line;
+        
+        Entry(long sequence, String line) {
+            this.sequence = sequence;
+            this.line = line;
+        }
+    }
+    
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // Lines before this were dropped by clear()
+    private volatile long base;
+    
+    public LogRing(int requestedCapacity) {
+        int capacity = 1;
+        while (capacity < requestedCapacity) {
+            capacity <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+    
+    /**
+     * New ring of the given capacity holding the newest lines of another one, with the same sequence numbers.
+     */
+    public LogRing(int requestedCapacity, LogRing previous) {
+        this(requestedCapacity);
+        long end = previous.getEndSequence();
+        long first = Math.max(previous.getFirstSequence(), end - capacity());
+        for (long sequence = first; sequence < end; sequence++) {
+            String line = previous.get(sequence);
+            if (line != null) {
+                slots.set((int) (sequence & mask), new Entry(sequence, line));
+            }
+        }
+        base = first;
+        tail.set(end);
+    }
+    
+    /**
+     * Append a line, overwriting the oldest one when full. Returns its sequence number.
+     */
+    public long append(String line) {
+        long sequence = tail.getAndIncrement();
+        slots.set((int) (sequence & mask), new Entry(sequence, line));
+        return sequence;
+    }
+    
+    /**
+     * The line with this sequence number, or null if it was overwritten or is not written yet.
+     */
+    public String get(long sequence) {
+        if (sequence < base) {
+            return null;
+        }
+        Entry entry = slots.get((int) (sequence & mask));
+        return entry != null && entry.sequence == sequence ? entry.line : null;
+    }
+    
+    /**
+     * Copy lines from the cursor on into out, up to the end of the ring or maxLines, and return
+     * the new cursor. Stops before a line that is still being written, so it is not missed;
+     * lines overwritten before they were read are skipped.
+     */
+    public long drainTo(long cursor, List<String> out, int maxLines) {
+        long end = tail.get();
+        long sequence = Math.max(cursor, getFirstSequence());
+        int added = 0;
+        while (sequence < end && added < maxLines) {
+            Entry entry = slots.get((int) (sequence & mask));
+            if (entry == null || entry.sequence < sequence) {
+                break; // Claimed but not written yet
+            }
+            if (entry.sequence == sequence) {
+                out.add(entry.line);
+                added++;
+            }
+            sequence++;
+        }
+        return sequence;
+    }
+    
+    /**
+     * Sequence number the next line will get.
+     */
+    public long getEndSequence() {
+        return tail.get();
+    }
+    
+    /**
+     * Sequence number of the oldest line still held.
+     */
+    public long getFirstSequence() {
+        return Math.max(base, tail.get() - capacity());
+    }
+    
+    public int size() {
+        long end = tail.get();
+        return (int) (end - Math.max(base, end - capacity()));
+    }
+    
+    public int capacity() {
+        return mask + 1;
+    }
+    
+    /**
+     * Drop all lines; sequence numbers keep counting up.
+     */
+    public void clear() {
+        base = tail.get();
+    }
+}
@@ -10,6 +10,16 @@ public class MatchedHttpPair {
     private CapturedEvent response;
     private final long createdAt;
     private boolean sentToProxy;
+    private volatile boolean timedOut;
+    
+    // Pending expiry while the request waits for a response, guarded by the EventManager stripe
+    TimingWheel.Timeout<MatchedHttpPair> expiry;
+    
+    // Position in the PairStore, the payload bytes it accounted for, and whether the store has
+    // evicted the pair; written by the store with the pair locked
+    volatile long sequence = -1;
+    long storedBytes;
+    boolean evicted;
     
     public MatchedHttpPair(String uuid) {
         this.uuid = uuid;
@@ -21,6 +31,13 @@ public class MatchedHttpPair {
         return uuid;
     }
     
+    /**
+     * Sequence number in the pair store, or -1 if the pair was never stored.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+    
     public CapturedEvent getRequest() {
         return request;
     }
@@ -61,6 +78,17 @@ public class MatchedHttpPair {
         this.sentToProxy = sentToProxy;
     }
     
+    /**
+     * True if no response arrived within the match timeout.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+    
+    public void setTimedOut(boolean timedOut) {
+        this.timedOut = timedOut;
+    }
+    
     /**
      * Get display timestamp (from request if available, otherwise response)
      */
@@ -126,6 +154,18 @@ public class MatchedHttpPair {
         return response != null ? response.getLength() : 0;
     }
     
+    /**
+     * Get the eCapture source this pair was captured from
+     */
+    public String getSourceName() {
+        if (request != null) {
+            return request.getSourceName();
+        } else if (response != null) {
+            return response.getSourceName();
+        }
+        return "-";
+    }
+    
     /**
      * Get process info
      */
@@ -192,8 +232,8 @@ public class MatchedHttpPair {
 
     @Override
     public String toString() {
-        return String.format("MatchedHttpPair[uuid=%s, method=%s, url=%s, status=%s, complete=%s]",
-                uuid, getMethod(), getUrl(), getStatusCode(), isComplete());
+        return String.format("MatchedHttpPair[uuid=%s, method=%s, url=%s, status=%s, complete=%s, timedOut=%s]",
+                uuid, getMethod(), getUrl(), getStatusCode(), isComplete(), timedOut);
     }
 }
 
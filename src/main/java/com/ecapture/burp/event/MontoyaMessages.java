@@ -0,0 +1,181 @@
+package com.ecapture.burp.event;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Builds Montoya messages from captured pairs for the editors, Repeater and the Site Map.
+ * <p>
+ * Payload bytes are handed to Montoya as a {@link ByteArray} unchanged, with no String round
+ * trip, so binary and non-UTF-8 content arrives intact. Built messages are cached per pair for
+ * the most recently used pairs; the cache holds the pair weakly and the messages softly, so it
+ * never keeps an evicted pair or a large body alive on its own.
+ */
+public class MontoyaMessages {
+    
+    private static final int CACHE_SIZE = 256;
+    
+    /**
+     * Messages built for one pair; the response is null if the pair had none yet.
+     */
+    private static final class Messages {
+        final HttpRequest request;
+        final HttpResponse response;
+        
+        Messages(HttpRequest request, HttpResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+    }
+    
+    private static final class Entry {
+        final WeakReference<MatchedHttpPair> pair;
+        final SoftReference<Messages> messages;
+        
+        Entry(MatchedHttpPair pair, Messages messages) {
+            this.pair = new WeakReference<>(pair);
+            this.messages = new SoftReference<>(messages);
+        }
+    }
+    
+    // By pair sequence number, least recently used first; guarded by itself
+    private final Map<Long, Entry> cache = new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    
+    /**
+     * Request of the pair with its HTTP service, or null if it has no request payload.
+     * Pairs without a usable host get a request without a service.
+     */
+    public HttpRequest request(MatchedHttpPair pair) {
+        Messages messages = messages(pair);
+        return messages != null ? messages.request : null;
+    }
+    
+    /**
+     * Response of the pair, or null if it has none yet.
+     */
+    public HttpResponse response(MatchedHttpPair pair) {
+        Messages messages = messages(pair);
+        return messages != null ? messages.response : null;
+    }
+    
+    /**
+     * Request and response of a complete pair, or null if it has no response.
+     */
+    public HttpRequestResponse requestResponse(MatchedHttpPair pair) {
+        Messages messages = messages(pair);
+        return messages != null && messages.response != null
+                ? HttpRequestResponse.httpRequestResponse(messages.request, messages.response)
+                : null;
+    }
+    
+    /**
+     * Whether the request or the response of the pair is larger than maxBytes.
+     */
+    public static boolean exceeds(MatchedHttpPair pair, int maxBytes) {
+        return size(pair.getRequest()) > maxBytes || size(pair.getResponse()) > maxBytes;
+    }
+    
+    /**
+     * Request cut to its first maxBytes, for previews of large pairs. Not cached.
+     */
+    public HttpRequest requestPreview(MatchedHttpPair pair, int maxBytes) {
+        CapturedEvent request = pair.getRequest();
+        if (request == null || request.getStoredPayload() == null) {
+            return null;
+        }
+        ByteArray head = ByteArray.byteArray(request.copyPayload(maxBytes));
+        HttpService service = service(pair);
+        return service != null ? HttpRequest.httpRequest(service, head) : HttpRequest.httpRequest(head);
+    }
+    
+    /**
+     * Response cut to its first maxBytes, for previews of large pairs. Not cached.
+     */
+    public HttpResponse responsePreview(MatchedHttpPair pair, int maxBytes) {
+        CapturedEvent response = pair.getResponse();
+        if (response == null || response.getStoredPayload() == null) {
+            return null;
+        }
+        return HttpResponse.httpResponse(ByteArray.byteArray(response.copyPayload(maxBytes)));
+    }
+    
+    private static int size(CapturedEvent event) {
+        return event != null && event.getStoredPayload() != null ? event.getStoredPayload().size() : 0;
+    }
+    
+    /**
+     * HTTP service of the pair, or null if its host is missing or invalid.
+     * Ports 443 and 8443 are taken as HTTPS; an unknown port as 443.
+     */
+    public static HttpService service(MatchedHttpPair pair) {
+        String host = pair.getHost();
+        if (host == null || host.isEmpty() || host.equals("0.0.0.0") || host.equals("-")) {
+            return null;
+        }
+        int port = pair.getPort();
+        if (port <= 0) {
+            port = 443;
+        }
+        return HttpService.httpService(host, port, port == 443 || port == 8443);
+    }
+    
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+    
+    /**
+     * Cached messages of the pair, built if missing, collected, or built before the response arrived.
+     */
+    private Messages messages(MatchedHttpPair pair) {
+        long sequence = pair.getSequence();
+        boolean hasResponse = pair.getResponse() != null && pair.getResponse().getStoredPayload() != null;
+        synchronized (cache) {
+            Entry entry = cache.get(sequence);
+            Messages messages = entry != null && entry.pair.get() == pair ? entry.messages.get() : null;
+            if (messages != null && (messages.response != null || !hasResponse)) {
+                return messages;
+            }
+        }
+        
+        // Built outside the lock; two threads racing on one pair just build it twice
+        Messages messages = build(pair, hasResponse);
+        if (messages != null && sequence >= 0) {
+            synchronized (cache) {
+                cache.put(sequence, new Entry(pair, messages));
+            }
+        }
+        return messages;
+    }
+    
+    private static Messages build(MatchedHttpPair pair, boolean hasResponse) {
+        CapturedEvent request = pair.getRequest();
+        if (request == null || request.getStoredPayload() == null) {
+            return null;
+        }
+        // Copied once, from the arena, inflater or session file straight into the array Montoya gets
+        ByteArray requestBytes = ByteArray.byteArray(request.getPayload());
+        HttpService service = service(pair);
+        HttpRequest httpRequest = service != null
+                ? HttpRequest.httpRequest(service, requestBytes)
+                : HttpRequest.httpRequest(requestBytes);
+        HttpResponse httpResponse = hasResponse
+                ? HttpResponse.httpResponse(ByteArray.byteArray(pair.getResponse().getPayload()))
+                : null;
+        return new Messages(httpRequest, httpResponse);
+    }
+}
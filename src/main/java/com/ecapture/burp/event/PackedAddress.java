@@ -0,0 +1,185 @@
+package com.ecapture.burp.event;
+
+/**
+ * IPv4/IPv6 addresses held as two longs (the 128-bit IPv6 form, IPv4 as ::ffff:a.b.c.d)
+ * instead of one String per event, and formatted back to text only when displayed.
+ */
+final class PackedAddress {
+    
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+    
+    private PackedAddress() {
+    }
+    
+    /**
+     * Parse an address literal into out[0] (high 64 bits) and out[1] (low 64 bits).
+     * Returns false for anything that is not a plain IPv4 or IPv6 literal.
+     */
+    static boolean parse(String text, long[] out) {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        if (text.indexOf(':') < 0) {
+            long v4 = parseIpv4(text, 0, text.length());
+            if (v4 < 0) {
+                return false;
+            }
+            out[0] = 0;
+            out[1] = IPV4_MAPPED_PREFIX | v4;
+            return true;
+        }
+        
+        int[] groups = new int[8];
+        int gap = text.indexOf("::");
+        if (gap < 0) {
+            if (parseGroups(text, 0, text.length(), groups, 0) != 8) {
+                return false;
+            }
+        } else {
+            int head = parseGroups(text, 0, gap, groups, 0);
+            int[] tail = new int[8];
+            int tailCount = parseGroups(text, gap + 2, text.length(), tail, 0);
+            if (head < 0 || tailCount < 0 || head + tailCount > 7) {
+                return false;
+            }
+            System.arraycopy(tail, 0, groups, 8 - tailCount, tailCount);
+        }
+        
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 4; i++) {
+            high = (high << 16) | groups[i];
+            low = (low << 16) | groups[i + 4];
+        }
+        out[0] = high;
+        out[1] = low;
+        return true;
+    }
+    
+    /**
+     * Format an address in its shortest text form (dotted quad for IPv4, RFC 5952 for IPv6).
+     */
+    static String format(long high, long low) {
+        if (high == 0 && (low >>> 32) == 0xFFFF) {
+            return ((low >>> 24) & 0xFF) + "." + ((low >>> 16) & 0xFF) + "." + ((low >>> 8) & 0xFF) + "." + (low & 0xFF);
+        }
+        
+        int[] groups = new int[8];
+        for (int i = 0; i < 4; i++) {
+            groups[i] = (int) ((high >>> (48 - 16 * i)) & 0xFFFF);
+            groups[i + 4] = (int) ((low >>> (48 - 16 * i)) & 0xFFFF);
+        }
+        
+        // Longest run of two or more zero groups is written as "::"
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < 8 && groups[end] == 0) {
+                end++;
+            }
+            if (end - i > bestLength) {
+                bestStart = i;
+                bestLength = end - i;
+            }
+            i = end;
+        }
+        
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(groups[i]));
+        }
+        return sb.toString();
+    }
+    
+    /**
+     * Parse "a.b.c.d" in text[start, end) to an unsigned 32-bit value, or -1.
+     */
+    private static long parseIpv4(String text, int start, int end) {
+        long value = 0;
+        int octets = 0;
+        int pos = start;
+        while (pos <= end) {
+            int dot = text.indexOf('.', pos);
+            if (dot < 0 || dot > end) {
+                dot = end;
+            }
+            if (dot == pos || dot - pos > 3 || octets == 4) {
+                return -1;
+            }
+            int octet = 0;
+            for (int i = pos; i < dot; i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                octet = octet * 10 + (c - '0');
+            }
+            if (octet > 255) {
+                return -1;
+            }
+            value = (value << 8) | octet;
+            octets++;
+            pos = dot + 1;
+        }
+        return octets == 4 ? value : -1;
+    }
+    
+    /**
+     * Parse colon-separated hex groups in text[start, end) into dst; the last group may be
+     * an embedded IPv4 address. Returns the number of groups, or -1 if malformed.
+     */
+    private static int parseGroups(String text, int start, int end, int[] dst, int offset) {
+        if (start == end) {
+            return 0;
+        }
+        int count = 0;
+        int pos = start;
+        while (true) {
+            int colon = text.indexOf(':', pos);
+            if (colon < 0 || colon > end) {
+                colon = end;
+            }
+            if (colon == end) {
+                int dot = text.indexOf('.', pos);
+                if (dot >= 0 && dot < end) {
+                    long v4 = parseIpv4(text, pos, end);
+                    if (v4 < 0 || offset + count + 2 > dst.length) {
+                        return -1;
+                    }
+                    dst[offset + count++] = (int) (v4 >>> 16);
+                    dst[offset + count++] = (int) (v4 & 0xFFFF);
+                    return count;
+                }
+            }
+            if (colon == pos || colon - pos > 4 || offset + count >= dst.length) {
+                return -1;
+            }
+            int group = 0;
+            for (int i = pos; i < colon; i++) {
+                int digit = Character.digit(text.charAt(i), 16);
+                if (digit < 0) {
+                    return -1;
+                }
+                group = (group << 4) | digit;
+            }
+            dst[offset + count++] = group;
+            if (colon == end) {
+                return count;
+            }
+            pos = colon + 1;
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package com.ecapture.burp.event;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Columnar side index of the stored pairs, addressed by pair store sequence number.
+ * <p>
+ * Holds the metadata the table, filters, statistics and exporters need in primitive arrays
+ * (timestamp, status, lengths, port, protocol, state) plus dictionary ids for hosts, methods,
+ * processes and sources, so scanning a million rows touches neither pair objects nor payloads.
+ * Rows are written by the pair store when a pair is appended, completed or timed out, and
+ * dropped together with the evicted pairs.
+ * <p>
+ * Rows are written concurrently by the threads storing pairs; only adding or dropping a segment
+ * takes the index lock. Reads are lock-free and see the rows the pair store has published. A row
+ * read while it is being updated may mix old and new column values until the next read.
+ */
+public class PairIndex {
+    
+    private static final int SEGMENT_BITS = 12;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    
+    public static final int STATE_PENDING = 0;
+    public static final int STATE_COMPLETE = 1;
+    public static final int STATE_TIMED_OUT = 2;
+    
+    // Same names as MatchedHttpPair.getProtocol()
+    private static final String[] PROTOCOLS = {"Unknown", "HTTP/1.x", "HTTP/2", "HTTPS"};
+    
+    /**
+     * Columns of SEGMENT_SIZE consecutive rows.
+     */
+    private static final class Segment {
+        final long[] timestamps = new long[SEGMENT_SIZE];
+        final int[] statuses = new int[SEGMENT_SIZE];
+        final int[] requestLengths = new int[SEGMENT_SIZE];
+        final int[] responseLengths = new int[SEGMENT_SIZE];
+        final char[] ports = new char[SEGMENT_SIZE];
+        final byte[] protocols = new byte[SEGMENT_SIZE];
+        final byte[] states = new byte[SEGMENT_SIZE];
+        final int[] hostIds = new int[SEGMENT_SIZE];
+        final int[] methodIds = new int[SEGMENT_SIZE];
+        final int[] processIds = new int[SEGMENT_SIZE];
+        final int[] sourceIds = new int[SEGMENT_SIZE];
+        // URLs are nearly unique per row, so they are kept as references rather than ids
+        final String[] urls = new String[SEGMENT_SIZE];
+    }
+    
+    // Segments are added to a directory with release stores and read with acquire loads
+    private static final VarHandle SEGMENTS = MethodHandles.arrayElementVarHandle(Segment[].class);
+    
+    /**
+     * Segment table, replaced when it grows or drops leading segments (see PairStore).
+     */
+    private static final class Directory {
+        final long baseSegment;
+        final Segment[] segments;
+        
+        Directory(long baseSegment, int capacity) {
+            this.baseSegment = baseSegment;
+            this.segments = new Segment[capacity];
+        }
+    }
+    
+    // Replaced under the index lock
+    private volatile Directory directory = new Directory(0, 16);
+    private volatile long firstSequence;
+    private final AtomicLong endSequence = new AtomicLong();
+    
+    private final StringIds hosts = new StringIds();
+    private final StringIds methods = new StringIds();
+    private final ProcessIds processes = new ProcessIds();
+    private final StringIds sources = new StringIds();
+    
+    PairIndex() {
+    }
+    
+    /**
+     * Write or rewrite the row of a stored pair from its current state. Readers see a new row
+     * once the pair store publishes it.
+     */
+    void set(long sequence, MatchedHttpPair pair) {
+        Segment segment = segmentForWrite(sequence);
+        if (segment == null) {
+            return; // Evicted meanwhile
+        }
+        int row = (int) (sequence & SEGMENT_MASK);
+        CapturedEvent request = pair.getRequest();
+        CapturedEvent response = pair.getResponse();
+        
+        long timestamp = request != null ? request.getTimestamp() : 0;
+        if (timestamp <= 0 && response != null) {
+            timestamp = response.getTimestamp();
+        }
+        segment.timestamps[row] = timestamp > 0 ? timestamp : pair.getCreatedAt() / 1000;
+        segment.statuses[row] = response != null && response.isResponse() ? response.getHead().getStatusCode() : 0;
+        segment.requestLengths[row] = pair.getRequestLength();
+        segment.responseLengths[row] = pair.getResponseLength();
+        segment.ports[row] = (char) pair.getPort();
+        segment.protocols[row] = protocolCode(pair.getProtocol());
+        segment.hostIds[row] = hosts.id(pair.getHost());
+        segment.methodIds[row] = methods.id(pair.getMethod());
+        CapturedEvent owner = request != null ? request : response;
+        segment.processIds[row] = owner != null ? processes.id(owner.getProcessName(), owner.getPid()) : processes.none();
+        segment.sourceIds[row] = sources.id(pair.getSourceName());
+        segment.urls[row] = pair.getUrl();
+        segment.states[row] = (byte) (pair.isComplete() ? STATE_COMPLETE
+                : pair.isTimedOut() ? STATE_TIMED_OUT : STATE_PENDING);
+    }
+    
+    /**
+     * Make the rows before end visible to readers; called by the pair store as it publishes pairs.
+     */
+    void publish(long end) {
+        // Publishers may call this out of order; the end only moves forward
+        endSequence.accumulateAndGet(end, Math::max);
+    }
+    
+    /**
+     * Segment for a row, added if missing; null if the row was already evicted.
+     */
+    private Segment segmentForWrite(long sequence) {
+        Directory dir = directory;
+        long slot = (sequence >>> SEGMENT_BITS) - dir.baseSegment;
+        if (slot >= 0 && slot < dir.segments.length) {
+            Segment segment = (Segment) SEGMENTS.getAcquire(dir.segments, (int) slot);
+            if (segment != null) {
+                return segment;
+            }
+        }
+        synchronized (this) {
+            dir = directory;
+            slot = (sequence >>> SEGMENT_BITS) - dir.baseSegment;
+            if (slot < 0) {
+                return null;
+            }
+            if (slot >= dir.segments.length) {
+                dir = copyDirectory(dir, dir.baseSegment, (int) Math.max(dir.segments.length * 2L, slot + 1));
+                directory = dir;
+            }
+            Segment segment = dir.segments[(int) slot];
+            if (segment == null) {
+                segment = new Segment();
+                SEGMENTS.setRelease(dir.segments, (int) slot, segment);
+            }
+            return segment;
+        }
+    }
+    
+    /**
+     * Drop the rows before the given sequence number.
+     */
+    synchronized void evictBefore(long first) {
+        firstSequence = first;
+        Directory dir = directory;
+        long firstSegment = first >>> SEGMENT_BITS;
+        if (firstSegment > dir.baseSegment) {
+            directory = copyDirectory(dir, firstSegment, dir.segments.length);
+        }
+    }
+    
+    /**
+     * Drop every row; the next row written has the given sequence number. Called by the pair
+     * store while no row is being written.
+     */
+    synchronized void clear(long end) {
+        directory = new Directory(end >>> SEGMENT_BITS, 16);
+        firstSequence = end;
+        endSequence.set(end);
+        hosts.clear();
+        methods.clear();
+        processes.clear();
+        sources.clear();
+    }
+    
+    private static Directory copyDirectory(Directory dir, long newBase, int capacity) {
+        Directory copy = new Directory(newBase, capacity);
+        int offset = (int) (newBase - dir.baseSegment);
+        if (offset < dir.segments.length) {
+            System.arraycopy(dir.segments, offset, copy.segments, 0, Math.min(dir.segments.length - offset, capacity));
+        }
+        return copy;
+    }
+    
+    private static byte protocolCode(String protocol) {
+        for (int i = 1; i < PROTOCOLS.length; i++) {
+            if (PROTOCOLS[i].equals(protocol)) {
+                return (byte) i;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Segment holding the row, or null if the row was evicted or not written yet.
+     */
+    private Segment segment(long sequence) {
+        // Read the end first, as in PairStore.get()
+        if (sequence >= endSequence.get() || sequence < firstSequence) {
+            return null;
+        }
+        Directory dir = directory;
+        long slot = (sequence >>> SEGMENT_BITS) - dir.baseSegment;
+        return slot >= 0 && slot < dir.segments.length ? (Segment) SEGMENTS.getAcquire(dir.segments, (int) slot) : null;
+    }
+    
+    private static int row(long sequence) {
+        return (int) (sequence & SEGMENT_MASK);
+    }
+    
+    private static String orDash(String value) {
+        return value != null ? value : "-";
+    }
+    
+    public boolean contains(long sequence) {
+        return segment(sequence) != null;
+    }
+    
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+    
+    public long getEndSequence() {
+        return endSequence.get();
+    }
+    
+    /**
+     * Capture time in epoch seconds.
+     */
+    public long getTimestamp(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? segment.timestamps[row(sequence)] : 0;
+    }
+    
+    /**
+     * Numeric status code, or 0 if there is no response.
+     */
+    public int getStatus(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? segment.statuses[row(sequence)] : 0;
+    }
+    
+    public int getRequestLength(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? segment.requestLengths[row(sequence)] : 0;
+    }
+    
+    public int getResponseLength(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? segment.responseLengths[row(sequence)] : 0;
+    }
+    
+    public int getPort(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? segment.ports[row(sequence)] : 0;
+    }
+    
+    public String getProtocol(long sequence) {
+        Segment segment = segment(sequence);
+        return PROTOCOLS[segment != null ? segment.protocols[row(sequence)] : 0];
+    }
+    
+    /**
+     * One of STATE_PENDING, STATE_COMPLETE, STATE_TIMED_OUT.
+     */
+    public int getState(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? segment.states[row(sequence)] : STATE_PENDING;
+    }
+    
+    public String getHost(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? orDash(hosts.get(segment.hostIds[row(sequence)])) : "-";
+    }
+    
+    public String getMethod(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? orDash(methods.get(segment.methodIds[row(sequence)])) : "-";
+    }
+    
+    /**
+     * Process name and pid, as MatchedHttpPair.getProcessInfo().
+     */
+    public String getProcess(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? orDash(processes.get(segment.processIds[row(sequence)])) : "-";
+    }
+    
+    public String getSource(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? orDash(sources.get(segment.sourceIds[row(sequence)])) : "-";
+    }
+    
+    public String getUrl(long sequence) {
+        Segment segment = segment(sequence);
+        return segment != null ? orDash(segment.urls[row(sequence)]) : "-";
+    }
+    
+    /**
+     * Distinct hosts seen since the last clear, including those of evicted pairs.
+     */
+    public int getDistinctHosts() {
+        return hosts.size();
+    }
+    
+    /**
+     * Count the stored pairs by status class: index 0 is no response, 1 to 5 are 1xx to 5xx.
+     * Scans the status column only.
+     */
+    public long[] countStatusClasses() {
+        long[] counts = new long[6];
+        long end = endSequence.get();
+        Directory dir = directory;
+        long sequence = Math.max(firstSequence, dir.baseSegment << SEGMENT_BITS);
+        while (sequence < end) {
+            long slot = (sequence >>> SEGMENT_BITS) - dir.baseSegment;
+            if (slot >= dir.segments.length) {
+                break;
+            }
+            Segment segment = (Segment) SEGMENTS.getAcquire(dir.segments, (int) slot);
+            int from = row(sequence);
+            int to = (int) Math.min(SEGMENT_SIZE, from + (end - sequence));
+            if (segment != null) {
+                int[] statuses = segment.statuses;
+                for (int i = from; i < to; i++) {
+                    int statusClass = statuses[i] / 100;
+                    counts[statusClass >= 1 && statusClass <= 5 ? statusClass : 0]++;
+                }
+            }
+            sequence += to - from;
+        }
+        return counts;
+    }
+    
+    /**
+     * Case-insensitive substring filter over host, URL, method, process and source.
+     * Dictionary columns are matched once per distinct value, not once per row.
+     */
+    public TextFilter textFilter(String text) {
+        return new TextFilter(text);
+    }
+    
+    /**
+     * Reusable row matcher; not thread-safe, keep one per filter run or per UI thread.
+     */
+    public final class TextFilter {
+        private final String needle;
+        private final IdMatcher hostMatcher = new IdMatcher(hosts);
+        private final IdMatcher methodMatcher = new IdMatcher(methods);
+        private final IdMatcher processMatcher = new IdMatcher(processes.labels());
+        private final IdMatcher sourceMatcher = new IdMatcher(sources);
+        
+        private TextFilter(String needle) {
+            this.needle = needle;
+        }
+        
+        public boolean matches(long sequence) {
+            Segment segment = segment(sequence);
+            if (segment == null) {
+                return false;
+            }
+            int row = row(sequence);
+            return hostMatcher.matches(segment.hostIds[row], needle)
+                    || containsIgnoreCase(segment.urls[row], needle)
+                    || methodMatcher.matches(segment.methodIds[row], needle)
+                    || processMatcher.matches(segment.processIds[row], needle)
+                    || sourceMatcher.matches(segment.sourceIds[row], needle);
+        }
+    }
+    
+    /**
+     * Memoized match result per dictionary id: 0 = not checked yet, 1 = match, 2 = no match.
+     */
+    private static final class IdMatcher {
+        private final StringIds ids;
+        private byte[] results = new byte[64];
+        
+        IdMatcher(StringIds ids) {
+            this.ids = ids;
+        }
+        
+        boolean matches(int id, String needle) {
+            if (id >= results.length) {
+                results = Arrays.copyOf(results, Math.max(results.length * 2, id + 1));
+            }
+            if (results[id] == 0) {
+                results[id] = (byte) (containsIgnoreCase(ids.get(id), needle) ? 1 : 2);
+            }
+            return results[id] == 1;
+        }
+    }
+    
+    private static boolean containsIgnoreCase(String value, String needle) {
+        if (value == null) {
+            return false;
+        }
+        int last = value.length() - needle.length();
+        for (int i = 0; i <= last; i++) {
+            if (value.regionMatches(true, i, needle, 0, needle.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
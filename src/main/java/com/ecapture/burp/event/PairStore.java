@@ -0,0 +1,487 @@
+package com.ecapture.burp.event;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Append-only store of matched pairs, split into fixed-size segments.
+ * <p>
+ * Every pair gets a sequence number when appended. Appends are O(1) and never copy stored
+ * pairs; reads by sequence are O(1) and lock-free. {@link #snapshot()} returns a read-only
+ * view of the pairs present at that moment, which stays valid while new pairs are appended
+ * and old ones are evicted.
+ * <p>
+ * Retention is bounded by pair count, payload bytes and age. The oldest pairs are evicted
+ * first; a segment is released once all of its pairs are evicted.
+ * <p>
+ * Payloads of stored pairs are moved into a {@link PayloadArena} and released from it on eviction;
+ * identical bodies are stored once through a {@link BodyStore}.
+ * <p>
+ * Pair metadata is mirrored into a columnar {@link PairIndex} under the same sequence numbers.
+ * A {@link PayloadCompressor} may later replace them with compressed copies on the heap.
+ * <p>
+ * Appends from different threads run concurrently. Moving the payloads and writing the index row
+ * only lock the pair itself; the sequence number is claimed atomically, and a filled slot is
+ * published as soon as every slot before it is filled. Eviction runs on whichever thread finds
+ * a limit exceeded while no other thread is evicting.
+ */
+public class PairStore {
+    
+    private static final int SEGMENT_BITS = 8;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+    
+    // Retention defaults; 0 means unlimited
+    public static final int DEFAULT_MAX_PAIRS = 200_000;
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MS = 0;
+    
+    // Segments and slots are written with volatile stores, so publishing threads see each other's slots
+    private static final VarHandle SEGMENTS = MethodHandles.arrayElementVarHandle(MatchedHttpPair[][].class);
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(MatchedHttpPair[].class);
+    
+    /**
+     * Segment table. Replaced (never shrunk in place) when it grows or drops leading segments,
+     * so a snapshot holding an older directory keeps its segments reachable.
+     */
+    private static final class Directory {
+        final long baseSegment;
+        final MatchedHttpPair[][] segments;
+        
+        Directory(long baseSegment, int capacity) {
+            this.baseSegment = baseSegment;
+            this.segments = new MatchedHttpPair[capacity][];
+        }
+        
+        /**
+         * Pair of a published sequence number.
+         */
+        MatchedHttpPair get(long sequence) {
+            MatchedHttpPair[] segment = (MatchedHttpPair[]) SEGMENTS.getAcquire(segments, (int) ((sequence >>> SEGMENT_BITS) - baseSegment));
+            return (MatchedHttpPair) SLOTS.getAcquire(segment, (int) (sequence & SEGMENT_MASK));
+        }
+        
+        /**
+         * Pair in the slot, or null if it is not filled yet or outside this directory.
+         */
+        MatchedHttpPair peek(long sequence) {
+            long slot = (sequence >>> SEGMENT_BITS) - baseSegment;
+            if (slot < 0 || slot >= segments.length) {
+                return null;
+            }
+            MatchedHttpPair[] segment = (MatchedHttpPair[]) SEGMENTS.getVolatile(segments, (int) slot);
+            return segment != null ? (MatchedHttpPair) SLOTS.getVolatile(segment, (int) (sequence & SEGMENT_MASK)) : null;
+        }
+    }
+    
+    private final PayloadArena arena;
+    private final BodyStore bodies;
+    private final PairIndex index = new PairIndex();
+    
+    // Next sequence number to hand out, and the end of the published (contiguously filled) slots
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLong endSequence = new AtomicLong();
+    // Replaced under the store lock, which is only taken to add or drop segments
+    private volatile Directory directory = new Directory(0, 16);
+    // Written by the evicting thread
+    private volatile long firstSequence;
+    private final AtomicLong payloadBytes = new AtomicLong();
+    
+    // Held shared while payloads are stored or released; clear() takes it exclusively
+    private final StampedLock clearLock = new StampedLock();
+    private final ReentrantLock evictLock = new ReentrantLock();
+    
+    private volatile int maxPairs = DEFAULT_MAX_PAIRS;
+    private volatile long maxBytes = DEFAULT_MAX_BYTES;
+    private volatile long maxAgeMs = DEFAULT_MAX_AGE_MS;
+    private volatile long evictedPairs;
+    
+    public PairStore(PayloadArena arena) {
+        this.arena = arena;
+        this.bodies = new BodyStore(arena);
+    }
+    
+    /**
+     * Append a pair, evicting the oldest pairs if a limit is exceeded. Returns its sequence number.
+     */
+    public long append(MatchedHttpPair pair) {
+        long stamp = clearLock.readLock();
+        try {
+            long sequence;
+            synchronized (pair) {
+                // Moved before claiming a sequence number, so a large payload does not hold back later pairs
+                movePayloads(pair);
+                sequence = nextSequence.getAndIncrement();
+                pair.sequence = sequence;
+                pair.storedBytes = payloadSize(pair.getRequest()) + payloadSize(pair.getResponse());
+                payloadBytes.addAndGet(pair.storedBytes);
+                index.set(sequence, pair);
+                SLOTS.setVolatile(segmentFor(sequence), (int) (sequence & SEGMENT_MASK), pair);
+            }
+            publish();
+            evictIfOverLimits(System.currentTimeMillis());
+            return sequence;
+        } finally {
+            clearLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Segment holding the slot of a claimed sequence number, added if missing.
+     */
+    private MatchedHttpPair[] segmentFor(long sequence) {
+        Directory dir = directory;
+        // Claimed sequence numbers are never below the directory base: eviction stops at the published end
+        int slot = (int) ((sequence >>> SEGMENT_BITS) - dir.baseSegment);
+        if (slot < dir.segments.length) {
+            MatchedHttpPair[] segment = (MatchedHttpPair[]) SEGMENTS.getVolatile(dir.segments, slot);
+            if (segment != null) {
+                return segment;
+            }
+        }
+        synchronized (this) {
+            dir = directory;
+            slot = (int) ((sequence >>> SEGMENT_BITS) - dir.baseSegment);
+            if (slot >= dir.segments.length) {
+                dir = copyDirectory(dir, dir.baseSegment, Math.max(dir.segments.length * 2, slot + 1));
+                directory = dir;
+            }
+            MatchedHttpPair[] segment = dir.segments[slot];
+            if (segment == null) {
+                segment = new MatchedHttpPair[SEGMENT_SIZE];
+                SEGMENTS.setVolatile(dir.segments, slot, segment);
+            }
+            return segment;
+        }
+    }
+    
+    /**
+     * Advance the published end over every filled slot. Each appender calls this after filling
+     * its slot, so a slot filled after an earlier one is published by whichever fills last.
+     */
+    private void publish() {
+        long end;
+        while ((end = endSequence.get()) < nextSequence.get() && directory.peek(end) != null) {
+            endSequence.compareAndSet(end, end + 1);
+        }
+        index.publish(endSequence.get());
+    }
+    
+    /**
+     * Account for the response payload of a stored pair.
+     */
+    public void responseAdded(MatchedHttpPair pair) {
+        long stamp = clearLock.readLock();
+        try {
+            synchronized (pair) {
+                // Not appended yet (the append moves both payloads), or evicted while waiting
+                // for the response, which then stays on the heap
+                if (!isStored(pair)) {
+                    return;
+                }
+                index.set(pair.sequence, pair);
+                movePayloads(pair);
+                updateStoredBytes(pair);
+            }
+            evictIfOverLimits(System.currentTimeMillis());
+        } finally {
+            clearLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Refresh the index row of a stored pair whose request timed out.
+     */
+    public void timedOut(MatchedHttpPair pair) {
+        long stamp = clearLock.readLock();
+        try {
+            synchronized (pair) {
+                if (isStored(pair)) {
+                    index.set(pair.sequence, pair);
+                }
+            }
+        } finally {
+            clearLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Evict pairs older than the age limit; called periodically.
+     */
+    public void evictExpired(long now) {
+        long stamp = clearLock.readLock();
+        try {
+            evictLock.lock();
+            try {
+                evictOverLimits(now);
+            } finally {
+                evictLock.unlock();
+            }
+        } finally {
+            clearLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Evict unless another thread is already evicting; that thread also sees the pairs added meanwhile.
+     */
+    private void evictIfOverLimits(long now) {
+        if (overLimits(firstSequence, endSequence.get(), now) && evictLock.tryLock()) {
+            try {
+                evictOverLimits(now);
+            } finally {
+                evictLock.unlock();
+            }
+        }
+    }
+    
+    private boolean overLimits(long first, long end, long now) {
+        if (first >= end) {
+            return false;
+        }
+        if (maxPairs > 0 && end - first > maxPairs) {
+            return true;
+        }
+        if (maxBytes > 0 && payloadBytes.get() + bodies.getUniqueBytes() > maxBytes) {
+            return true;
+        }
+        MatchedHttpPair oldest = maxAgeMs > 0 ? directory.peek(first) : null;
+        return oldest != null && now - oldest.getCreatedAt() > maxAgeMs;
+    }
+    
+    /**
+     * Called with the eviction lock held.
+     */
+    private void evictOverLimits(long now) {
+        long first = firstSequence;
+        long evicted = 0;
+        while (overLimits(first, endSequence.get(), now)) {
+            MatchedHttpPair oldest = directory.get(first);
+            synchronized (oldest) {
+                oldest.evicted = true;
+                payloadBytes.addAndGet(-oldest.storedBytes);
+                releasePayloads(oldest);
+            }
+            evicted++;
+            first++;
+        }
+        if (evicted == 0) {
+            return;
+        }
+        evictedPairs += evicted;
+        firstSequence = first;
+        index.evictBefore(first);
+        
+        // Release segments that are now entirely evicted
+        long firstSegment = first >>> SEGMENT_BITS;
+        synchronized (this) {
+            Directory dir = directory;
+            if (firstSegment > dir.baseSegment) {
+                directory = copyDirectory(dir, firstSegment, dir.segments.length);
+            }
+        }
+    }
+    
+    private static Directory copyDirectory(Directory dir, long newBase, int capacity) {
+        Directory copy = new Directory(newBase, capacity);
+        int offset = (int) (newBase - dir.baseSegment);
+        System.arraycopy(dir.segments, offset, copy.segments, 0, dir.segments.length - offset);
+        return copy;
+    }
+    
+    /**
+     * Replace the payload of a stored event, e.g. with a compressed copy. Fails if the pair was
+     * evicted or the event's payload is no longer the expected one.
+     */
+    public boolean replacePayload(MatchedHttpPair pair, CapturedEvent event, Payload expected, Payload replacement) {
+        long stamp = clearLock.readLock();
+        try {
+            synchronized (pair) {
+                if (!isStored(pair) || !event.swapPayload(expected, replacement)) {
+                    return false;
+                }
+                expected.release(arena);
+                updateStoredBytes(pair);
+                return true;
+            }
+        } finally {
+            clearLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Whether the pair was appended and is still held; called with the pair locked.
+     */
+    private boolean isStored(MatchedHttpPair pair) {
+        return pair.sequence >= firstSequence && !pair.evicted;
+    }
+    
+    private void updateStoredBytes(MatchedHttpPair pair) {
+        long total = payloadSize(pair.getRequest()) + payloadSize(pair.getResponse());
+        payloadBytes.addAndGet(total - pair.storedBytes);
+        pair.storedBytes = total;
+    }
+    
+    private void movePayloads(MatchedHttpPair pair) {
+        if (pair.getRequest() != null) {
+            pair.getRequest().movePayloadTo(bodies);
+        }
+        if (pair.getResponse() != null) {
+            pair.getResponse().movePayloadTo(bodies);
+        }
+    }
+    
+    private void releasePayloads(MatchedHttpPair pair) {
+        if (pair.getRequest() != null) {
+            pair.getRequest().releasePayload(arena);
+        }
+        if (pair.getResponse() != null) {
+            pair.getResponse().releasePayload(arena);
+        }
+    }
+    
+    private static long payloadSize(CapturedEvent event) {
+        return event != null ? event.getStoredPayload().memorySize() : 0;
+    }
+    
+    /**
+     * Get a pair by sequence number, or null if it was evicted or does not exist yet.
+     */
+    public MatchedHttpPair get(long sequence) {
+        // Read the end first: a directory read after it already covers every published sequence
+        if (sequence >= endSequence.get() || sequence < firstSequence) {
+            return null;
+        }
+        Directory dir = directory;
+        if ((sequence >>> SEGMENT_BITS) < dir.baseSegment) {
+            return null;
+        }
+        return dir.get(sequence);
+    }
+    
+    /**
+     * Read-only view of the stored pairs, oldest first, as of this call. Creating it copies nothing.
+     */
+    public List<MatchedHttpPair> snapshot() {
+        // Same read order as get(): the directory covers everything up to end and from first on
+        long end = endSequence.get();
+        Directory dir = directory;
+        long first = Math.max(firstSequence, dir.baseSegment << SEGMENT_BITS);
+        return new Snapshot(dir, first, (int) Math.max(0, end - first));
+    }
+    
+    private static final class Snapshot extends AbstractList<MatchedHttpPair> implements RandomAccess {
+        private final Directory directory;
+        private final long first;
+        private final int size;
+        
+        Snapshot(Directory directory, long first, int size) {
+            this.directory = directory;
+            this.first = first;
+            this.size = size;
+        }
+        
+        @Override
+        public MatchedHttpPair get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return directory.get(first + index);
+        }
+        
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+    
+    /**
+     * Drop every pair. Waits for appends in progress, so every claimed sequence number is published.
+     */
+    public void clear() {
+        long stamp = clearLock.writeLock();
+        try {
+            long end = endSequence.get();
+            synchronized (this) {
+                directory = new Directory(end >>> SEGMENT_BITS, 16);
+            }
+            firstSequence = end;
+            payloadBytes.set(0);
+            evictedPairs = 0;
+            bodies.clear();
+            index.clear(end);
+            arena.clear();
+        } finally {
+            clearLock.unlockWrite(stamp);
+        }
+    }
+    
+    /**
+     * Set retention limits; 0 disables a limit. Takes effect immediately.
+     */
+    public void setRetention(int maxPairs, long maxBytes, long maxAgeMs) {
+        this.maxPairs = Math.max(0, maxPairs);
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxAgeMs = Math.max(0, maxAgeMs);
+        evictExpired(System.currentTimeMillis());
+    }
+    
+    public int getMaxPairs() {
+        return maxPairs;
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+    
+    /**
+     * Sequence number of the oldest stored pair.
+     */
+    public long getFirstSequence() {
+        return firstSequence;
+    }
+    
+    /**
+     * End of the published pairs; the next appended pair gets this number or a later one.
+     */
+    public long getEndSequence() {
+        return endSequence.get();
+    }
+    
+    public int size() {
+        return (int) (endSequence.get() - firstSequence);
+    }
+    
+    /**
+     * Payload bytes held for the stored pairs, shared bodies counted once.
+     */
+    public long getPayloadBytes() {
+        return payloadBytes.get() + bodies.getUniqueBytes();
+    }
+    
+    public PayloadArena getArena() {
+        return arena;
+    }
+    
+    public PairIndex getIndex() {
+        return index;
+    }
+    
+    public BodyStore getBodyStore() {
+        return bodies;
+    }
+    
+    public long getEvictedCount() {
+        return evictedPairs;
+    }
+}
@@ -0,0 +1,110 @@
+package com.ecapture.burp.event;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Body bytes of a captured event, on the heap (plain or deflated), in a {@link PayloadArena}
+ * (possibly with a body shared through the {@link BodyStore}) or in a session file.
+ * <p>
+ * Events are decoded with a heap payload that aliases the received frame. Once an event
+ * is kept by the pair store its payload is moved off-heap, and callers get the bytes back
+ * through {@link #bytes()} only when they need them (editors, Repeater, exporters).
+ */
+public abstract class Payload {
+    
+    static final Payload EMPTY = new HeapPayload(ByteString.EMPTY);
+    
+    /**
+     * Wrap bytes already on the heap; does not copy them.
+     */
+    public static Payload of(ByteString bytes) {
+        return bytes == null || bytes.isEmpty() ? EMPTY : new HeapPayload(bytes);
+    }
+    
+    public abstract int size();
+    
+    /**
+     * The full payload. Off-heap payloads are copied to the heap on every call;
+     * a payload whose storage was reclaimed returns an empty ByteString.
+     */
+    public abstract ByteString bytes();
+    
+    /**
+     * At most the first maxBytes of the payload, for header parsing.
+     */
+    public abstract ByteString head(int maxBytes);
+    
+    /**
+     * Copy the first count bytes of the payload into target at offset, straight from where they
+     * are stored. Returns the number of bytes copied, fewer if the storage was reclaimed.
+     */
+    public int copyTo(byte[] target, int offset, int count) {
+        ByteString bytes = head(count);
+        bytes.copyTo(target, offset);
+        return bytes.size();
+    }
+    
+    /**
+     * True if the bytes are held off-heap.
+     */
+    public abstract boolean isOffHeap();
+    
+    /**
+     * Bytes this payload keeps in memory (heap or arena); 0 for payloads read from disk.
+     */
+    public int memorySize() {
+        return size();
+    }
+    
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+    
+    /**
+     * Whether the payload holds exactly these bytes. Copies the payload to the heap unless the
+     * payload can compare where it is stored.
+     */
+    public boolean contentEquals(ByteString other) {
+        return size() == other.size() && bytes().equals(other);
+    }
+    
+    /**
+     * Give back the storage of a payload the pair store no longer holds.
+     */
+    void release(PayloadArena arena) {
+        arena.release(this);
+    }
+    
+    private static final class HeapPayload extends Payload {
+        private final ByteString bytes;
+        
+        HeapPayload(ByteString bytes) {
+            this.bytes = bytes;
+        }
+        
+        @Override
+        public int size() {
+            return bytes.size();
+        }
+        
+        @Override
+        public ByteString bytes() {
+            return bytes;
+        }
+        
+        @Override
+        public ByteString head(int maxBytes) {
+            return bytes.size() <= maxBytes ? bytes : bytes.substring(0, maxBytes);
+        }
+        
+        @Override
+        public boolean contentEquals(ByteString other) {
+            return bytes.equals(other);
+        }
+        
+        @Override
+        public boolean isOffHeap() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.ecapture.burp.event;
+
+import com.google.protobuf.ByteString;
+
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Off-heap storage for the payloads of retained events, carved out of direct ByteBuffer slabs.
+ * <p>
+ * Payloads are bump-allocated into the current slab. Each slab counts its live bytes; when
+ * the pair store evicts a pair its payloads are released, and a slab whose payloads are all
+ * released is recycled as a whole (or dropped if enough free slabs are cached). Payloads
+ * larger than half a slab get a dedicated buffer that is dropped on release.
+ * <p>
+ * Readers copy bytes out without locking. Each slab has a generation that changes when it is
+ * recycled, so a reader racing with reuse returns an empty payload instead of foreign bytes.
+ */
+public class PayloadArena {
+    
+    static final int SLAB_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_FREE_SLABS = 4;
+    
+    private static final class Slab {
+        final ByteBuffer buffer;
+        final boolean dedicated;
+        // Arena epoch the slab belongs to; slabs of an earlier epoch were dropped by clear()
+        final int epoch;
+        // Guarded by the arena
+        int used;
+        long live;
+        // Read without the lock to validate copies
+        volatile int generation;
+        
+        Slab(int capacity, boolean dedicated, int epoch) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+            this.dedicated = dedicated;
+            this.epoch = epoch;
+        }
+    }
+    
+    /**
+     * Handle to one payload: slab, offset and length.
+     */
+    private static final class ArenaPayload extends Payload {
+        private final Slab slab;
+        private final int offset;
+        private final int length;
+        private final int generation;
+        // Guarded by the arena
+        private boolean released;
+        
+        ArenaPayload(Slab slab, int offset, int length, int generation) {
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+            this.generation = generation;
+        }
+        
+        @Override
+        public int size() {
+            return length;
+        }
+        
+        @Override
+        public ByteString bytes() {
+            return copy(length);
+        }
+        
+        @Override
+        public ByteString head(int maxBytes) {
+            return copy(Math.min(length, maxBytes));
+        }
+        
+        @Override
+        public int copyTo(byte[] target, int offset, int count) {
+            if (slab.generation != generation) {
+                return 0;
+            }
+            ByteBuffer view = slab.buffer.duplicate();
+            view.position(this.offset);
+            int copied = Math.min(count, length);
+            view.get(target, offset, copied);
+            // The slab may have been recycled while copying
+            VarHandle.loadLoadFence();
+            return slab.generation == generation ? copied : 0;
+        }
+        
+        private ByteString copy(int count) {
+            if (slab.generation != generation) {
+                return ByteString.EMPTY;
+            }
+            ByteBuffer view = slab.buffer.duplicate();
+            view.limit(offset + count);
+            view.position(offset);
+            ByteString copy = ByteString.copyFrom(view);
+            // The slab may have been recycled while copying (validated like StampedLock does)
+            VarHandle.loadLoadFence();
+            return slab.generation == generation ? copy : ByteString.EMPTY;
+        }
+        
+        /**
+         * Compares against the slab in place, part by part of the other bytes, without copying.
+         */
+        @Override
+        public boolean contentEquals(ByteString other) {
+            if (other.size() != length || slab.generation != generation) {
+                return false;
+            }
+            ByteBuffer view = slab.buffer.duplicate();
+            int position = offset;
+            for (ByteBuffer part : other.asReadOnlyByteBufferList()) {
+                int count = part.remaining();
+                view.limit(position + count);
+                view.position(position);
+                if (!view.equals(part)) {
+                    return false;
+                }
+                position += count;
+            }
+            // The slab may have been recycled while comparing
+            VarHandle.loadLoadFence();
+            return slab.generation == generation;
+        }
+        
+        @Override
+        public boolean isOffHeap() {
+            return true;
+        }
+    }
+    
+    private int epoch;
+    private Slab current;
+    private final ArrayDeque<Slab> freeSlabs = new ArrayDeque<>();
+    
+    // Stats, guarded by the arena
+    private int slabCount;
+    private long reservedBytes;
+    private long liveBytes;
+    private long recycledSlabs;
+    
+    /**
+     * Copy a payload into the arena. Empty and already off-heap payloads are returned as they are.
+     * Only the space is reserved under the arena lock; the bytes are copied after releasing it.
+     */
+    public Payload store(Payload payload) {
+        int length = payload.size();
+        if (length == 0 || payload.isOffHeap()) {
+            return payload;
+        }
+        
+        ArenaPayload handle = reserve(length);
+        // The reserved range counts as live, so its slab cannot be recycled while copying
+        ByteBuffer target = handle.slab.buffer.duplicate();
+        target.position(handle.offset);
+        payload.bytes().copyTo(target);
+        return handle;
+    }
+    
+    /**
+     * A handle attached to no slab, for measuring the heap an arena payload takes.
+     */
+    static Payload detachedPayload() {
+        return new ArenaPayload(null, 0, 0, 0);
+    }
+    
+    private synchronized ArenaPayload reserve(int length) {
+        Slab slab;
+        if (length > SLAB_SIZE / 2) {
+            slab = newSlab(length, true);
+        } else {
+            if (current == null || SLAB_SIZE - current.used < length) {
+                retireCurrent();
+                current = freeSlabs.isEmpty() ? newSlab(SLAB_SIZE, false) : freeSlabs.poll();
+            }
+            slab = current;
+        }
+        
+        int offset = slab.used;
+        slab.used += length;
+        slab.live += length;
+        liveBytes += length;
+        return new ArenaPayload(slab, offset, length, slab.generation);
+    }
+    
+    /**
+     * Release a payload stored in this arena; other payloads are ignored.
+     */
+    public synchronized void release(Payload payload) {
+        if (!(payload instanceof ArenaPayload)) {
+            return;
+        }
+        ArenaPayload handle = (ArenaPayload) payload;
+        Slab slab = handle.slab;
+        if (handle.released || slab.epoch != epoch || slab.generation != handle.generation) {
+            return;
+        }
+        handle.released = true;
+        slab.live -= handle.length;
+        liveBytes -= handle.length;
+        if (slab.live == 0 && slab != current) {
+            reclaim(slab);
+        }
+    }
+    
+    private Slab newSlab(int capacity, boolean dedicated) {
+        slabCount++;
+        reservedBytes += capacity;
+        return new Slab(capacity, dedicated, epoch);
+    }
+    
+    private void retireCurrent() {
+        Slab slab = current;
+        current = null;
+        if (slab != null && slab.live == 0) {
+            reclaim(slab);
+        }
+    }
+    
+    private void reclaim(Slab slab) {
+        slab.generation++;
+        slab.used = 0;
+        if (!slab.dedicated && freeSlabs.size() < MAX_FREE_SLABS) {
+            freeSlabs.push(slab);
+            recycledSlabs++;
+        } else {
+            // Direct memory is returned when the buffer is collected
+            slabCount--;
+            reservedBytes -= slab.buffer.capacity();
+        }
+    }
+    
+    /**
+     * Forget all slabs. Their memory is returned once the events holding handles are collected;
+     * until then those handles stay readable, and releasing them is a no-op.
+     */
+    public synchronized void clear() {
+        epoch++;
+        current = null;
+        freeSlabs.clear();
+        slabCount = 0;
+        reservedBytes = 0;
+        liveBytes = 0;
+    }
+    
+    // Getters for stats
+    public synchronized int getSlabCount() {
+        return slabCount;
+    }
+    
+    /**
+     * Direct memory held by the arena's slabs.
+     */
+    public synchronized long getReservedBytes() {
+        return reservedBytes;
+    }
+    
+    /**
+     * Bytes of payloads that have not been released.
+     */
+    public synchronized long getLiveBytes() {
+        return liveBytes;
+    }
+    
+    public synchronized long getRecycledSlabs() {
+        return recycledSlabs;
+    }
+}
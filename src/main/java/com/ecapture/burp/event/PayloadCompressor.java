@@ -0,0 +1,321 @@
+package com.ecapture.burp.event;
+
+import burp.api.montoya.logging.Logging;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Background compression of stored payloads.
+ * <p>
+ * Completed pairs are queued; a worker thread deflates their payloads above a size threshold
+ * and swaps them in the pair store for a {@link CompressedPayload}. Payloads that do not shrink
+ * by at least an eighth (images, content that is already gzipped) are left as they are.
+ * Bodies are inflated again when they are read, and recently inflated bodies are kept in a
+ * small LRU cache so that moving between the editors and Repeater does not inflate each time.
+ */
+public class PayloadCompressor {
+    
+    public static final int DEFAULT_MIN_SIZE = 4 * 1024;
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long CACHE_BYTES = 16L * 1024 * 1024;
+    
+    private final PairStore pairStore;
+    private final Logging logging;
+    private final BlockingQueue<MatchedHttpPair> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread worker;
+    
+    private volatile boolean enabled;
+    private volatile int minSize = DEFAULT_MIN_SIZE;
+    
+    // Inflated bodies in access order, guarded by itself
+    private final LinkedHashMap<CompressedPayload, ByteString> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+    
+    // Stats of the compressed payloads currently stored
+    private final LongAdder compressedPayloads = new LongAdder();
+    private final LongAdder originalBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder incompressiblePayloads = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    
+    public PayloadCompressor(PairStore pairStore, Logging logging) {
+        this.pairStore = pairStore;
+        this.logging = logging;
+        this.worker = new Thread(this::run, "eCapture-Compress");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+    
+    /**
+     * Queue a completed pair for compression. Best effort: if the queue is full the pair stays uncompressed.
+     */
+    public void submit(MatchedHttpPair pair) {
+        if (enabled) {
+            queue.offer(pair);
+        }
+    }
+    
+    private void run() {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            while (true) {
+                MatchedHttpPair pair = queue.take();
+                try {
+                    compress(pair, pair.getRequest(), deflater);
+                    compress(pair, pair.getResponse(), deflater);
+                } catch (Exception e) {
+                    logging.logToError("Error compressing payload: " + e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private void compress(MatchedHttpPair pair, CapturedEvent event, Deflater deflater) {
+        if (event == null) {
+            return;
+        }
+        Payload stored = event.getStoredPayload();
+        // Disk-backed payloads report no memory size and are skipped as well
+        if (stored instanceof CompressedPayload || stored.memorySize() < minSize) {
+            return;
+        }
+        ByteString bytes = stored.bytes();
+        int length = bytes.size();
+        if (length != stored.size()) {
+            return; // Evicted while reading
+        }
+        
+        // An output buffer of 7/8 of the input rejects payloads that do not compress well
+        byte[] out = new byte[length - length / 8];
+        deflater.reset();
+        deflater.setInput(bytes.asReadOnlyByteBuffer());
+        deflater.finish();
+        int written = 0;
+        while (!deflater.finished() && written < out.length) {
+            written += deflater.deflate(out, written, out.length - written);
+        }
+        if (!deflater.finished()) {
+            incompressiblePayloads.increment();
+            return;
+        }
+        
+        // Counted before the swap so that an eviction right after it never sees negative stats
+        compressedPayloads.increment();
+        originalBytes.add(length);
+        compressedBytes.add(written);
+        CompressedPayload compressed = new CompressedPayload(this, Arrays.copyOf(out, written), length);
+        if (!pairStore.replacePayload(pair, event, stored, compressed)) {
+            uncount(length, written);
+        }
+    }
+    
+    private void uncount(int length, int deflatedLength) {
+        compressedPayloads.decrement();
+        originalBytes.add(-length);
+        compressedBytes.add(-deflatedLength);
+    }
+    
+    /**
+     * Full body of a compressed payload, from the cache if it was inflated recently.
+     */
+    ByteString inflate(CompressedPayload payload) {
+        synchronized (cache) {
+            ByteString cached = cache.get(payload);
+            if (cached != null) {
+                cacheHits.increment();
+                return cached;
+            }
+        }
+        cacheMisses.increment();
+        ByteString bytes = inflate(payload, payload.size());
+        if (bytes.size() <= CACHE_BYTES / 4) {
+            synchronized (cache) {
+                if (cache.put(payload, bytes) == null) {
+                    cachedBytes += bytes.size();
+                }
+                Iterator<ByteString> eldest = cache.values().iterator();
+                while (cachedBytes > CACHE_BYTES && eldest.hasNext()) {
+                    cachedBytes -= eldest.next().size();
+                    eldest.remove();
+                }
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * First maxBytes of a compressed payload; inflates only as far as needed and is not cached.
+     */
+    ByteString inflateHead(CompressedPayload payload, int maxBytes) {
+        return inflate(payload, maxBytes);
+    }
+    
+    /**
+     * First count bytes of a compressed payload, inflated straight into target at offset, or
+     * copied from the cache. Returns the number of bytes written.
+     */
+    int inflateInto(CompressedPayload payload, byte[] target, int offset, int count) {
+        ByteString cached;
+        synchronized (cache) {
+            cached = cache.get(payload);
+        }
+        if (cached != null) {
+            cacheHits.increment();
+            int copied = Math.min(count, cached.size());
+            cached.substring(0, copied).copyTo(target, offset);
+            return copied;
+        }
+        return inflate(payload, target, offset, count);
+    }
+    
+    private ByteString inflate(CompressedPayload payload, int count) {
+        byte[] out = new byte[count];
+        int read = inflate(payload, out, 0, count);
+        return read > 0 ? UnsafeByteOperations.unsafeWrap(out, 0, read) : ByteString.EMPTY;
+    }
+    
+    private int inflate(CompressedPayload payload, byte[] out, int offset, int count) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(payload.deflated());
+            int read = 0;
+            while (read < count && !inflater.finished()) {
+                int n = inflater.inflate(out, offset + read, count - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            return read;
+        } catch (DataFormatException e) {
+            logging.logToError("Error inflating payload: " + e.getMessage());
+            return 0;
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    /**
+     * Called by a compressed payload when its event is evicted.
+     */
+    void released(CompressedPayload payload) {
+        uncount(payload.size(), payload.memorySize());
+        synchronized (cache) {
+            ByteString cached = cache.remove(payload);
+            if (cached != null) {
+                cachedBytes -= cached.size();
+            }
+        }
+    }
+    
+    /**
+     * Drop queued work, the cache and the stats; called when the pair store is cleared.
+     */
+    public void clear() {
+        queue.clear();
+        synchronized (cache) {
+            cache.clear();
+            cachedBytes = 0;
+        }
+        compressedPayloads.reset();
+        originalBytes.reset();
+        compressedBytes.reset();
+        incompressiblePayloads.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+    
+    public void shutdown() {
+        worker.interrupt();
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * Turn compression of newly completed pairs on or off. Payloads already compressed stay compressed.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            queue.clear();
+        }
+    }
+    
+    public int getMinSize() {
+        return minSize;
+    }
+    
+    /**
+     * Payloads smaller than this are not compressed.
+     */
+    public void setMinSize(int minSize) {
+        this.minSize = Math.max(1, minSize);
+    }
+    
+    // Getters for stats
+    public long getCompressedCount() {
+        return compressedPayloads.sum();
+    }
+    
+    public long getOriginalBytes() {
+        return originalBytes.sum();
+    }
+    
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+    
+    /**
+     * Memory saved by the compressed payloads currently stored.
+     */
+    public long getSavedBytes() {
+        return getOriginalBytes() - getCompressedBytes();
+    }
+    
+    /**
+     * Original size divided by compressed size, or 0 if nothing is compressed.
+     */
+    public double getRatio() {
+        long compressed = getCompressedBytes();
+        return compressed > 0 ? (double) getOriginalBytes() / compressed : 0;
+    }
+    
+    /**
+     * Payloads above the threshold that were left uncompressed because they did not shrink enough.
+     */
+    public long getIncompressibleCount() {
+        return incompressiblePayloads.sum();
+    }
+    
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+    
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+    
+    public long getCachedBytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.ecapture.burp.event;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense integer ids for processes, keyed by name and pid.
+ * <p>
+ * Looking up a known process neither builds its "name (pid)" label nor allocates: the pids of
+ * each name are kept in a sorted table that is replaced, never changed, when a pid is added.
+ * Labels are built once per process and kept in a {@link StringIds}, which resolves the ids.
+ */
+final class ProcessIds {
+    
+    /**
+     * Sorted pids of one process name and their ids.
+     */
+    private static final class Pids {
+        final long[] pids;
+        final int[] ids;
+        
+        Pids(long[] pids, int[] ids) {
+            this.pids = pids;
+            this.ids = ids;
+        }
+    }
+    
+    private static final Pids EMPTY = new Pids(new long[0], new int[0]);
+    
+    // Names are pooled by the events, so their hash codes are already computed
+    private final Map<String, Pids> byName = new ConcurrentHashMap<>();
+    private final StringIds labels = new StringIds();
+    
+    /**
+     * Id of the process, assigning the next one if it is new. A null name is kept as "-".
+     */
+    int id(String name, long pid) {
+        if (name == null) {
+            name = "-";
+        }
+        Pids known = byName.get(name);
+        if (known != null) {
+            int index = Arrays.binarySearch(known.pids, pid);
+            if (index >= 0) {
+                return known.ids[index];
+            }
+        }
+        return assign(name, pid);
+    }
+    
+    /**
+     * Id of the "-" label, for rows without a process.
+     */
+    int none() {
+        return labels.id("-");
+    }
+    
+    private synchronized int assign(String name, long pid) {
+        Pids known = byName.getOrDefault(name, EMPTY);
+        int index = Arrays.binarySearch(known.pids, pid);
+        if (index >= 0) {
+            return known.ids[index];
+        }
+        int id = labels.id(name + " (" + pid + ")");
+        int insert = -index - 1;
+        int count = known.pids.length;
+        long[] pids = new long[count + 1];
+        int[] ids = new int[count + 1];
+        System.arraycopy(known.pids, 0, pids, 0, insert);
+        System.arraycopy(known.ids, 0, ids, 0, insert);
+        pids[insert] = pid;
+        ids[insert] = id;
+        System.arraycopy(known.pids, insert, pids, insert + 1, count - insert);
+        System.arraycopy(known.ids, insert, ids, insert + 1, count - insert);
+        byName.put(name, new Pids(pids, ids));
+        return id;
+    }
+    
+    /**
+     * Label of an id, as MatchedHttpPair.getProcessInfo(), or null for an id from before the last clear().
+     */
+    String get(int id) {
+        return labels.get(id);
+    }
+    
+    /**
+     * The labels by id, for matching text against each distinct process once.
+     */
+    StringIds labels() {
+        return labels;
+    }
+    
+    synchronized void clear() {
+        byName.clear();
+        labels.clear();
+    }
+}
@@ -0,0 +1,225 @@
+package com.ecapture.burp.event;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.logging.Logging;
+import com.google.protobuf.ByteString;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends completed pairs to Burp's Site Map (Target tab) from its own event bus subscription,
+ * so converting and adding them never runs on the ingestion path.
+ * <p>
+ * Pairs already sent with the same method, host, path and status (and, optionally, the same
+ * response body) are skipped, so polling traffic does not flood the Target tree. Submissions
+ * are paced to a maximum rate; when the sink falls behind, the oldest queued pairs are dropped.
+ */
+public class SiteMapSink {
+    
+    public static final int DEFAULT_MAX_PER_SECOND = 50;
+    private static final int QUEUE_CAPACITY = 4096;
+    // Dedup keys remembered, least recently seen forgotten first
+    private static final int MAX_KEYS = 65536;
+    
+    private final MontoyaApi api;
+    private final Logging logging;
+    private final MontoyaMessages messages;
+    private final EventBus.Subscription<BusEvent.PairCompleted> subscription;
+    
+    private volatile boolean enabled = true;
+    private volatile int maxPerSecond = DEFAULT_MAX_PER_SECOND;
+    private volatile boolean hashResponses;
+    
+    // Only touched by the subscription thread, except clear()
+    private final Map<String, Boolean> seen = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_KEYS;
+        }
+    };
+    private long nextSubmitNanos;
+    
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduped = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    
+    public SiteMapSink(MontoyaApi api, EventBus bus, MontoyaMessages messages) {
+        this.api = api;
+        this.logging = api.logging();
+        this.messages = messages;
+        this.subscription = bus.subscribe("SiteMap", BusEvent.PairCompleted.class,
+                EventBus.DeliveryMode.LATEST, QUEUE_CAPACITY, event -> send(event.getPair()));
+    }
+    
+    private void send(MatchedHttpPair pair) {
+        if (!enabled) {
+            return;
+        }
+        CapturedEvent request = pair.getRequest();
+        CapturedEvent response = pair.getResponse();
+        
+        // Get host from the pair (parsed from Host header)
+        String host = pair.getHost();
+        
+        // Skip if host is invalid, or if there is nothing to show
+        if (request == null || response == null
+                || host == null || host.isEmpty() || host.equals("0.0.0.0") || host.equals("-")) {
+            skipped.increment();
+            return;
+        }
+        
+        // Get port - default to 443 for HTTPS hosts
+        int port = pair.getPort();
+        if (port <= 0) {
+            port = 443;
+        }
+        
+        String key = dedupKey(pair, host, port, response);
+        synchronized (seen) {
+            if (seen.get(key) != null) {
+                deduped.increment();
+                return;
+            }
+        }
+        
+        if (!awaitRate()) {
+            return;
+        }
+        try {
+            HttpRequestResponse requestResponse = messages.requestResponse(pair);
+            if (requestResponse == null) {
+                skipped.increment();
+                return;
+            }
+            api.siteMap().add(requestResponse);
+            // Remembered only once added, so a pair that was not sent can be sent by a later one
+            synchronized (seen) {
+                seen.put(key, Boolean.TRUE);
+            }
+            submitted.increment();
+        } catch (Exception e) {
+            // Site Map is optional; count the failure and carry on
+            failed.increment();
+            logging.logToError("Site Map error (ignored): " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Method, host, path without the query, status, and the response body hash if enabled.
+     */
+    private String dedupKey(MatchedHttpPair pair, String host, int port, CapturedEvent response) {
+        String url = pair.getUrl();
+        int query = url.indexOf('?');
+        StringBuilder key = new StringBuilder(64)
+                .append(pair.getMethod()).append(' ')
+                .append(host).append(':').append(port)
+                .append(query >= 0 ? url.substring(0, query) : url).append(' ')
+                .append(pair.getStatusCode());
+        if (hashResponses) {
+            // Hash the body only: headers such as Date differ on every response
+            ByteString bytes = response.getPayloadBytes();
+            int bodyOffset = response.getHead().getBodyOffset();
+            ByteString body = bodyOffset >= 0 && bodyOffset <= bytes.size() ? bytes.substring(bodyOffset) : bytes;
+            key.append(' ').append(body.size()).append('/').append(BodyStore.hashHex(body));
+        }
+        return key.toString();
+    }
+    
+    /**
+     * Wait for the next submission slot. Returns false if interrupted (shutdown).
+     */
+    private boolean awaitRate() {
+        int rate = maxPerSecond;
+        if (rate <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        long slot = Math.max(now, nextSubmitNanos);
+        nextSubmitNanos = slot + 1_000_000_000L / rate;
+        if (slot > now) {
+            try {
+                Thread.sleep((slot - now) / 1_000_000, (int) ((slot - now) % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public boolean isEnabled() {
+        return enabled;
+    }
+    
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    public int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+    
+    /**
+     * Maximum pairs added to the Site Map per second; 0 = unlimited.
+     */
+    public void setMaxPerSecond(int maxPerSecond) {
+        this.maxPerSecond = Math.max(0, maxPerSecond);
+    }
+    
+    public boolean isHashResponses() {
+        return hashResponses;
+    }
+    
+    /**
+     * Include a hash of the response body in the dedup key, so a changed response is sent again.
+     */
+    public void setHashResponses(boolean hashResponses) {
+        this.hashResponses = hashResponses;
+    }
+    
+    /**
+     * Forget what was sent, so the same requests are added again.
+     */
+    public void clear() {
+        synchronized (seen) {
+            seen.clear();
+        }
+    }
+    
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+    
+    public long getDedupedCount() {
+        return deduped.sum();
+    }
+    
+    /**
+     * Pairs dropped because the sink fell too far behind.
+     */
+    public long getDroppedCount() {
+        return subscription.getDropped();
+    }
+    
+    /**
+     * Pairs without a usable host or response.
+     */
+    public long getSkippedCount() {
+        return skipped.sum();
+    }
+    
+    public long getFailedCount() {
+        return failed.sum();
+    }
+    
+    /**
+     * Pairs waiting to be sent.
+     */
+    public int getQueuedCount() {
+        return subscription.getLag();
+    }
+}
@@ -0,0 +1,65 @@
+package com.ecapture.burp.event;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dense integer ids for the distinct values of a low-cardinality column (hosts, methods, processes).
+ * <p>
+ * Known values are looked up without locking; a new value takes the dictionary's own lock to get
+ * the next id. {@link #get(int)} is lock-free. The value array is filled before an id is handed
+ * out, so a reader that found an id in a column can resolve it.
+ */
+final class StringIds {
+    
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[64];
+    private volatile int size;
+    
+    /**
+     * Id of the value, assigning the next one if it is new. Null is kept as "-".
+     */
+    int id(String value) {
+        if (value == null) {
+            value = "-";
+        }
+        Integer id = ids.get(value);
+        return id != null ? id : assign(value);
+    }
+    
+    private synchronized int assign(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        int next = size;
+        String[] current = values;
+        if (next == current.length) {
+            current = Arrays.copyOf(current, next * 2);
+        }
+        current[next] = value;
+        values = current;
+        ids.put(value, next);
+        size = next + 1;
+        return next;
+    }
+    
+    /**
+     * Value of an id, or null for an id from before the last clear().
+     */
+    String get(int id) {
+        String[] current = values;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    synchronized void clear() {
+        ids.clear();
+        values = new String[64];
+        size = 0;
+    }
+}
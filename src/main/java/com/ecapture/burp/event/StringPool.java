@@ -0,0 +1,43 @@
+package com.ecapture.burp.event;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded intern pool for strings that repeat across many events (process names, hosts, UUIDs).
+ * <p>
+ * Events keep the pooled instance, so a value seen a million times is stored once.
+ * When the pool reaches its limit it is cleared and starts over; values already held by
+ * events stay valid, they are just no longer shared with new events.
+ */
+final class StringPool {
+    
+    private final int maxSize;
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+    
+    StringPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+    
+    /**
+     * Return the pooled instance equal to the value, adding the value if it is new.
+     */
+    String intern(String value) {
+        if (value == null || value.isEmpty()) {
+            return value == null ? null : "";
+        }
+        String pooled = values.get(value);
+        if (pooled != null) {
+            return pooled;
+        }
+        if (values.size() >= maxSize) {
+            values.clear();
+        }
+        pooled = values.putIfAbsent(value, value);
+        return pooled != null ? pooled : value;
+    }
+    
+    int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,166 @@
+package com.ecapture.burp.event;
+
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel for timeouts (4 levels of 64 slots).
+ * <p>
+ * Scheduling and cancelling are O(1); advancing costs O(1) per tick plus the entries that
+ * expire or cascade down a level, so nothing ever scans all outstanding timeouts.
+ * Deadlines are rounded up to whole ticks. Not thread-safe: the owner serializes access.
+ */
+final class TimingWheel<T> {
+    
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN = 1L << (WHEEL_BITS * LEVELS);
+    
+    /**
+     * Handle of a scheduled entry, used to cancel it.
+     */
+    static final class Timeout<T> {
+        final T item;
+        private final long deadlineTick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+        private int slot = -1;
+        
+        private Timeout(T item, long deadlineTick) {
+            this.item = item;
+            this.deadlineTick = deadlineTick;
+        }
+        
+        boolean isScheduled() {
+            return slot >= 0;
+        }
+    }
+    
+    private final long tickMs;
+    private final Timeout<T>[] slots;
+    private long currentTick;
+    private int size;
+    
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMs, long nowMs) {
+        this.tickMs = tickMs;
+        this.slots = (Timeout<T>[]) new Timeout[LEVELS * WHEEL_SIZE];
+        this.currentTick = nowMs / tickMs;
+    }
+    
+    /**
+     * Schedule an item to expire at the given wall clock time.
+     */
+    Timeout<T> schedule(T item, long deadlineMs) {
+        long deadlineTick = (deadlineMs + tickMs - 1) / tickMs;
+        Timeout<T> timeout = new Timeout<>(item, Math.max(deadlineTick, currentTick + 1));
+        place(timeout);
+        size++;
+        return timeout;
+    }
+    
+    /**
+     * Cancel a scheduled entry; does nothing if it already expired or was cancelled.
+     */
+    void cancel(Timeout<T> timeout) {
+        if (timeout != null && timeout.isScheduled()) {
+            unlink(timeout);
+            size--;
+        }
+    }
+    
+    /**
+     * Advance the wheel to the given time, handing every expired item to the consumer.
+     * Returns the number of expired items.
+     */
+    int advance(long nowMs, Consumer<T> onExpired) {
+        long targetTick = nowMs / tickMs;
+        int expired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            
+            int index = (int) (currentTick & WHEEL_MASK);
+            Timeout<T> timeout = slots[index];
+            slots[index] = null;
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.slot = -1;
+                if (timeout.deadlineTick > currentTick) {
+                    // Only entries clamped to the top level can come back early
+                    place(timeout);
+                } else {
+                    size--;
+                    expired++;
+                    onExpired.accept(timeout.item);
+                }
+                timeout = next;
+            }
+        }
+        return expired;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    /**
+     * When a lower level wraps, move the next slot of each higher level down.
+     */
+    private void cascade() {
+        for (int level = 1; level < LEVELS; level++) {
+            if ((currentTick & ((1L << (WHEEL_BITS * level)) - 1)) != 0) {
+                return;
+            }
+            int index = level * WHEEL_SIZE + (int) ((currentTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+            Timeout<T> timeout = slots[index];
+            slots[index] = null;
+            while (timeout != null) {
+                Timeout<T> next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                timeout.slot = -1;
+                place(timeout);
+                timeout = next;
+            }
+        }
+    }
+    
+    private void place(Timeout<T> timeout) {
+        long tick = timeout.deadlineTick;
+        long delta = tick - currentTick;
+        if (delta >= MAX_SPAN) {
+            tick = currentTick + MAX_SPAN - 1;
+            delta = MAX_SPAN - 1;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= (1L << (WHEEL_BITS * (level + 1)))) {
+            level++;
+        }
+        int index = level * WHEEL_SIZE + (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        
+        timeout.slot = index;
+        timeout.next = slots[index];
+        if (slots[index] != null) {
+            slots[index].prev = timeout;
+        }
+        slots[index] = timeout;
+    }
+    
+    private void unlink(Timeout<T> timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            slots[timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.slot = -1;
+    }
+}
@@ -1,9 +1,13 @@
 package com.ecapture.burp.export;
 
 import com.ecapture.burp.event.MatchedHttpPair;
+import com.ecapture.burp.event.PairIndex;
 
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 
 /**
@@ -11,7 +15,12 @@ import java.util.List;
  */
 public class ExcelExporter {
 
-    public static void writeXlsx(OutputStream out, List<MatchedHttpPair> pairs, List<String> columns) throws Exception {
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Metadata columns of pairs still in the index are read from it; evicted pairs (and a null index) use the pair getters.
+     */
+    public static void writeXlsx(OutputStream out, List<MatchedHttpPair> pairs, List<String> columns, PairIndex index) throws Exception {
         // We'll write CSV text and let user open it with Excel. File extension may be .csv even if caller passes .xlsx
         StringBuilder sb = new StringBuilder();
 
@@ -22,30 +31,34 @@ public class ExcelExporter {
         }
         sb.append('\n');
 
+        ZoneId zone = ZoneId.systemDefault();
         for (MatchedHttpPair pair : pairs) {
+            long seq = pair.getSequence();
+            boolean indexed = index != null && index.contains(seq);
             for (int i = 0; i < columns.size(); i++) {
                 if (i > 0) sb.append(',');
                 String col = columns.get(i);
                 String value = "";
                 switch (col) {
                     case "#": value = pair.getUuid(); break;
-                    case "Time": value = pair.getTimestamp(); break;
-                    case "Proto": value = pair.getProtocol(); break;
-                    case "Method": value = pair.getMethod(); break;
-                    case "Host": value = pair.getHost(); break;
-                    case "URL": value = pair.getUrl(); break;
-                    case "Status": value = pair.getStatusCode(); break;
-                    case "Req Len": value = Integer.toString(pair.getRequestLength()); break;
-                    case "Resp Len": value = Integer.toString(pair.getResponseLength()); break;
-                    case "Process": value = pair.getProcessInfo(); break;
-                    case "Complete": value = pair.isComplete() ? "✓" : "..."; break;
+                    case "Time": value = indexed ? TIME_FORMAT.format(Instant.ofEpochSecond(index.getTimestamp(seq)).atZone(zone)) : pair.getTimestamp(); break;
+                    case "Proto": value = indexed ? index.getProtocol(seq) : pair.getProtocol(); break;
+                    case "Method": value = indexed ? index.getMethod(seq) : pair.getMethod(); break;
+                    case "Host": value = indexed ? index.getHost(seq) : pair.getHost(); break;
+                    case "URL": value = indexed ? index.getUrl(seq) : pair.getUrl(); break;
+                    case "Status": value = indexed ? statusText(index.getStatus(seq)) : pair.getStatusCode(); break;
+                    case "Req Len": value = Integer.toString(indexed ? index.getRequestLength(seq) : pair.getRequestLength()); break;
+                    case "Resp Len": value = Integer.toString(indexed ? index.getResponseLength(seq) : pair.getResponseLength()); break;
+                    case "Process": value = indexed ? index.getProcess(seq) : pair.getProcessInfo(); break;
+                    case "Complete": value = (indexed ? index.getState(seq) == PairIndex.STATE_COMPLETE : pair.isComplete()) ? "✓" : "..."; break;
+                    case "Source": value = indexed ? index.getSource(seq) : pair.getSourceName(); break;
                     case "Request Body":
-                        if (pair.getRequest() != null && pair.getRequest().getPayload() != null)
-                            value = new String(pair.getRequest().getPayload(), StandardCharsets.UTF_8);
+                        if (pair.getRequest() != null && pair.getRequest().getStoredPayload() != null)
+                            value = pair.getRequest().getPayloadBytes().toStringUtf8();
                         break;
                     case "Response Body":
-                        if (pair.getResponse() != null && pair.getResponse().getPayload() != null)
-                            value = new String(pair.getResponse().getPayload(), StandardCharsets.UTF_8);
+                        if (pair.getResponse() != null && pair.getResponse().getStoredPayload() != null)
+                            value = pair.getResponse().getPayloadBytes().toStringUtf8();
                         break;
                     default:
                         value = "";
@@ -58,6 +71,10 @@ public class ExcelExporter {
         out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
     }
 
+    private static String statusText(int status) {
+        return status > 0 ? Integer.toString(status) : "-";
+    }
+
     private static String escape(String s) {
         if (s == null) return "";
         return s.replace("\"", "\"\"");
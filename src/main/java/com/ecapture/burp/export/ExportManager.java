@@ -1,6 +1,7 @@
 package com.ecapture.burp.export;
 
 import com.ecapture.burp.event.MatchedHttpPair;
+import com.ecapture.burp.event.PairIndex;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -20,10 +21,10 @@ public class ExportManager {
         }
     }
 
-    public void exportAsExcel(File outFile, List<MatchedHttpPair> pairs, List<String> columns) throws Exception {
+    public void exportAsExcel(File outFile, List<MatchedHttpPair> pairs, List<String> columns, PairIndex index) throws Exception {
         try (FileOutputStream fos = new FileOutputStream(outFile)) {
             // ExcelExporter writes CSV text for compatibility; if user selected .xlsx extension, file will contain CSV
-            ExcelExporter.writeXlsx(fos, pairs, columns);
+            ExcelExporter.writeXlsx(fos, pairs, columns, index);
         }
     }
 }
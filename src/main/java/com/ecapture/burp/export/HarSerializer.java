@@ -45,7 +45,7 @@ public class HarSerializer {
             sb.append("\"bodySize\":").append(pair.getRequestLength());
 
             // postData
-            if (pair.getRequest() != null && pair.getRequest().getPayload() != null) {
+            if (pair.getRequest() != null && pair.getRequest().getStoredPayload() != null) {
                 byte[] payload = pair.getRequest().getPayload();
                 boolean binary = !isMostlyText(payload);
                 sb.append(',');
@@ -74,7 +74,7 @@ public class HarSerializer {
             sb.append("\"headersSize\":-1,");
             sb.append("\"bodySize\":").append(pair.getResponseLength());
 
-            if (pair.getResponse() != null && pair.getResponse().getPayload() != null) {
+            if (pair.getResponse() != null && pair.getResponse().getStoredPayload() != null) {
                 byte[] payload = pair.getResponse().getPayload();
                 boolean binary = !isMostlyText(payload);
                 sb.append(',');
@@ -0,0 +1,362 @@
+package com.ecapture.burp.ingest;
+
+import com.ecapture.burp.proto.ECaptureProto;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.ecapture.burp.ingest.WireBytes.readVarint;
+import static com.ecapture.burp.ingest.WireBytes.skipField;
+import static com.ecapture.burp.ingest.WireBytes.varintSize;
+
+/**
+ * Pre-decode filter that inspects encoded LogEntry bytes directly on the wire.
+ * <p>
+ * Only the cheap Event header fields (pid, pname, ports, type) and the first bytes of the
+ * payload are read, with absolute buffer access and no allocation, so rejected events
+ * never become ECaptureProto or CapturedEvent objects. Non-event entries always pass.
+ * <p>
+ * Rules are written as whitespace separated terms, e.g. {@code pname=curl,wget !pid=1 port=443 type=1,3}.
+ * A term restricts events to the listed values; a term prefixed with {@code !} excludes them.
+ * Ports match either the source or the destination port. In addition, HTTP/1.x requests
+ * other than GET/POST and responses without a valid status code are dropped, mirroring
+ * what EventManager would discard after decoding anyway.
+ */
+public class CaptureFilter implements ECaptureProto.EntryFilter {
+    
+    private static final int PAYLOAD_PEEK_BYTES = 16;
+    
+    private static final byte[] GET = "GET ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] POST = "POST ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTTP = "HTTP/".getBytes(StandardCharsets.US_ASCII);
+    
+    private volatile Rules rules = Rules.EMPTY;
+    private final AtomicLong rejected = new AtomicLong();
+    
+    /**
+     * Replace the rules. Throws IllegalArgumentException if the text cannot be parsed.
+     */
+    public void setRules(String text) {
+        this.rules = Rules.parse(text);
+    }
+    
+    public String getRulesText() {
+        return rules.text;
+    }
+    
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+    
+    /**
+     * Check one encoded LogEntry occupying {@code buffer[offset, offset + length)}.
+     */
+    @Override
+    public boolean accept(ByteBuffer buffer, int offset, int length) {
+        int end = offset + length;
+        int pos = offset;
+        try {
+            while (pos < end) {
+                long tag = readVarint(buffer, pos);
+                pos += varintSize(tag);
+                if ((int) tag == 18) { // field 2: event_payload
+                    long eventLength = readVarint(buffer, pos);
+                    pos += varintSize(eventLength);
+                    boolean accepted = acceptEvent(buffer, pos, pos + (int) eventLength);
+                    if (!accepted) {
+                        rejected.incrementAndGet();
+                    }
+                    return accepted;
+                }
+                pos = skipField(buffer, pos, (int) tag);
+                if (pos < 0) {
+                    return true;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Malformed entry, let the full parser report it
+        }
+        return true;
+    }
+    
+    private boolean acceptEvent(ByteBuffer buffer, int pos, int end) {
+        Rules current = rules;
+        long pid = 0;
+        int type = 0;
+        int srcPort = 0;
+        int dstPort = 0;
+        int pnameOffset = -1;
+        int pnameLength = 0;
+        int payloadOffset = -1;
+        int payloadLength = 0;
+        
+        while (pos < end) {
+            int tag = (int) readVarint(buffer, pos);
+            pos += varintSize(tag);
+            switch (tag) {
+                case 32: // field 4: src_port
+                    srcPort = (int) readVarint(buffer, pos);
+                    pos += varintSize(readVarint(buffer, pos));
+                    break;
+                case 48: // field 6: dst_port
+                    dstPort = (int) readVarint(buffer, pos);
+                    pos += varintSize(readVarint(buffer, pos));
+                    break;
+                case 56: // field 7: pid
+                    pid = readVarint(buffer, pos);
+                    pos += varintSize(pid);
+                    break;
+                case 66: { // field 8: pname
+                    long len = readVarint(buffer, pos);
+                    pos += varintSize(len);
+                    pnameOffset = pos;
+                    pnameLength = (int) len;
+                    pos += pnameLength;
+                    break;
+                }
+                case 72: // field 9: type
+                    type = (int) readVarint(buffer, pos);
+                    pos += varintSize(type);
+                    break;
+                case 90: { // field 11: payload
+                    long len = readVarint(buffer, pos);
+                    pos += varintSize(len);
+                    payloadOffset = pos;
+                    payloadLength = (int) len;
+                    pos += payloadLength;
+                    break;
+                }
+                default:
+                    pos = skipField(buffer, pos, tag);
+                    if (pos < 0) {
+                        return true;
+                    }
+                    break;
+            }
+        }
+        
+        if (!current.pids.accepts(pid)
+                || !current.eventTypes.accepts(type)
+                || !current.acceptsPorts(srcPort, dstPort)
+                || !current.acceptsProcessName(buffer, pnameOffset, pnameLength)) {
+            return false;
+        }
+        return acceptPayload(buffer, type, payloadOffset, payloadLength);
+    }
+    
+    /**
+     * Drop events whose first payload bytes show EventManager would discard them.
+     * Only certain cases are rejected; anything ambiguous (lower case methods, type 0 auto-detect) passes.
+     */
+    private static boolean acceptPayload(ByteBuffer buffer, int type, int offset, int length) {
+        if (offset < 0 || length == 0) {
+            return false;
+        }
+        int peek = Math.min(length, PAYLOAD_PEEK_BYTES);
+        
+        if (type == 1 || type == 2) {
+            if (isRequestLine(buffer, offset, peek)) {
+                return startsWith(buffer, offset, peek, GET) || startsWith(buffer, offset, peek, POST);
+            }
+            return true;
+        }
+        
+        if ((type == 3 || type == 4) && startsWith(buffer, offset, peek, HTTP)) {
+            // "HTTP/1.1 200" - status code follows the first space
+            int space = indexOf(buffer, offset, peek, (byte) ' ');
+            if (space < 0 || space + 3 >= offset + peek) {
+                return true;
+            }
+            int status = 0;
+            for (int i = space + 1; i < space + 4; i++) {
+                byte b = buffer.get(i);
+                if (b < '0' || b > '9') {
+                    return false;
+                }
+                status = status * 10 + (b - '0');
+            }
+            return status >= 100 && status <= 599;
+        }
+        return true;
+    }
+    
+    /**
+     * An HTTP/1.x request line starts with an upper case token followed by a space.
+     */
+    private static boolean isRequestLine(ByteBuffer buffer, int offset, int peek) {
+        for (int i = 0; i < peek; i++) {
+            byte b = buffer.get(offset + i);
+            if (b == ' ') {
+                return i > 0;
+            }
+            if (b < 'A' || b > 'Z') {
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    private static boolean startsWith(ByteBuffer buffer, int offset, int length, byte[] prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buffer.get(offset + i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static int indexOf(ByteBuffer buffer, int offset, int length, byte value) {
+        for (int i = offset; i < offset + length; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Immutable, pre-parsed rule set.
+     */
+    private static final class Rules {
+        static final Rules EMPTY = new Rules("");
+        
+        final String text;
+        final NumberRule pids = new NumberRule();
+        final NumberRule ports = new NumberRule();
+        final NumberRule eventTypes = new NumberRule();
+        final List<byte[]> includeNames = new ArrayList<>();
+        final List<byte[]> excludeNames = new ArrayList<>();
+        
+        private Rules(String text) {
+            this.text = text;
+        }
+        
+        static Rules parse(String text) {
+            String trimmed = text == null ? "" : text.trim();
+            Rules rules = new Rules(trimmed);
+            if (trimmed.isEmpty()) {
+                return rules;
+            }
+            for (String term : trimmed.split("[\\s;]+")) {
+                boolean exclude = term.startsWith("!");
+                String body = exclude ? term.substring(1) : term;
+                int eq = body.indexOf('=');
+                if (eq <= 0 || eq == body.length() - 1) {
+                    throw new IllegalArgumentException("Invalid filter term: " + term);
+                }
+                String key = body.substring(0, eq).toLowerCase();
+                String[] values = body.substring(eq + 1).split(",");
+                switch (key) {
+                    case "pname":
+                    case "process":
+                        for (String value : values) {
+                            (exclude ? rules.excludeNames : rules.includeNames).add(value.getBytes(StandardCharsets.UTF_8));
+                        }
+                        break;
+                    case "pid":
+                        rules.pids.add(values, exclude);
+                        break;
+                    case "port":
+                        rules.ports.add(values, exclude);
+                        break;
+                    case "type":
+                        rules.eventTypes.add(values, exclude);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown filter key: " + key);
+                }
+            }
+            return rules;
+        }
+        
+        boolean acceptsPorts(int srcPort, int dstPort) {
+            if (ports.isExcluded(srcPort) || ports.isExcluded(dstPort)) {
+                return false;
+            }
+            return !ports.hasIncludes() || ports.isIncluded(srcPort) || ports.isIncluded(dstPort);
+        }
+        
+        boolean acceptsProcessName(ByteBuffer buffer, int offset, int length) {
+            if (includeNames.isEmpty() && excludeNames.isEmpty()) {
+                return true;
+            }
+            for (byte[] name : excludeNames) {
+                if (regionEquals(buffer, offset, length, name)) {
+                    return false;
+                }
+            }
+            if (includeNames.isEmpty()) {
+                return true;
+            }
+            for (byte[] name : includeNames) {
+                if (regionEquals(buffer, offset, length, name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private static boolean regionEquals(ByteBuffer buffer, int offset, int length, byte[] value) {
+            if (offset < 0 || length != value.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (buffer.get(offset + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    /**
+     * Include/exclude lists of numeric values, kept sorted for binary search.
+     */
+    private static final class NumberRule {
+        private long[] includes = new long[0];
+        private long[] excludes = new long[0];
+        
+        void add(String[] values, boolean exclude) {
+            long[] parsed = new long[values.length];
+            for (int i = 0; i < values.length; i++) {
+                try {
+                    parsed[i] = Long.parseLong(values[i].trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a number: " + values[i]);
+                }
+            }
+            long[] target = exclude ? excludes : includes;
+            long[] merged = Arrays.copyOf(target, target.length + parsed.length);
+            System.arraycopy(parsed, 0, merged, target.length, parsed.length);
+            Arrays.sort(merged);
+            if (exclude) {
+                excludes = merged;
+            } else {
+                includes = merged;
+            }
+        }
+        
+        boolean hasIncludes() {
+            return includes.length > 0;
+        }
+        
+        boolean isIncluded(long value) {
+            return Arrays.binarySearch(includes, value) >= 0;
+        }
+        
+        boolean isExcluded(long value) {
+            return Arrays.binarySearch(excludes, value) >= 0;
+        }
+        
+        boolean accepts(long value) {
+            return !isExcluded(value) && (!hasIncludes() || isIncluded(value));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.ecapture.burp.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import static com.ecapture.burp.ingest.WireBytes.readVarint;
+import static com.ecapture.burp.ingest.WireBytes.skipField;
+import static com.ecapture.burp.ingest.WireBytes.varintSize;
+
+/**
+ * Computes a routing hash for a single-event frame from its encoded bytes, so events of
+ * one connection always reach the same pipeline lane (and are matched in order) while
+ * different connections are spread across lanes.
+ * <p>
+ * The hash covers the pid and the socket fd taken from the eCapture UUID
+ * ({@code sock:PID_TID_PNAME_FD_DIR_TUPLE_N}); the direction differs between the request
+ * and the response of one connection, so it must not be part of the hash.
+ * <p>
+ * Batch frames mix connections, so they are split into their entries first and each entry is
+ * routed on its own; the entries bound for one lane still travel together.
+ */
+final class ConnectionRouting {
+    
+    static final int NO_ROUTE = -1;
+    
+    private ConnectionRouting() {
+    }
+    
+    /**
+     * Routing hash of an encoded LogEntry holding an event, or NO_ROUTE for anything else.
+     */
+    static int hash(ByteBuffer frame) {
+        int pos = frame.position();
+        int end = frame.limit();
+        try {
+            while (pos < end) {
+                int tag = (int) readVarint(frame, pos);
+                pos += varintSize(tag);
+                if (tag == 18) { // field 2: event_payload
+                    long length = readVarint(frame, pos);
+                    pos += varintSize(length);
+                    return hashEvent(frame, pos, pos + (int) length);
+                }
+                pos = skipField(frame, pos, tag);
+                if (pos < 0) {
+                    return NO_ROUTE;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Malformed, the decoder will report it
+        }
+        return NO_ROUTE;
+    }
+    
+    /**
+     * Hand each entry of an encoded LogEntryBatch to the consumer, as a slice of the frame
+     * (nothing is copied). Returns the limit of the frame, or the position of the first
+     * malformed field; the entries before it have been handed over.
+     */
+    static int splitBatch(ByteBuffer frame, Consumer<ByteBuffer> entries) {
+        int pos = frame.position();
+        int end = frame.limit();
+        int fieldStart = pos;
+        try {
+            while (pos < end) {
+                fieldStart = pos;
+                int tag = (int) readVarint(frame, pos);
+                pos += varintSize(tag);
+                if (tag == 10) { // field 1: entries
+                    long length = readVarint(frame, pos);
+                    pos += varintSize(length);
+                    if (length > end - pos) {
+                        return fieldStart;
+                    }
+                    ByteBuffer entry = frame.duplicate();
+                    entry.limit(pos + (int) length);
+                    entry.position(pos);
+                    entries.accept(entry);
+                    pos += (int) length;
+                } else {
+                    pos = skipField(frame, pos, tag);
+                    if (pos < 0 || pos > end) {
+                        return fieldStart;
+                    }
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return fieldStart;
+        }
+        return end;
+    }
+    
+    private static int hashEvent(ByteBuffer frame, int pos, int end) {
+        long pid = 0;
+        int uuidOffset = -1;
+        int uuidLength = 0;
+        while (pos < end) {
+            int tag = (int) readVarint(frame, pos);
+            pos += varintSize(tag);
+            if (tag == 18) { // field 2: uuid
+                long length = readVarint(frame, pos);
+                pos += varintSize(length);
+                uuidOffset = pos;
+                uuidLength = (int) length;
+                pos += uuidLength;
+            } else if (tag == 56) { // field 7: pid
+                pid = readVarint(frame, pos);
+                pos += varintSize(pid);
+            } else {
+                pos = skipField(frame, pos, tag);
+                if (pos < 0) {
+                    break;
+                }
+            }
+        }
+        
+        int hash = Long.hashCode(pid);
+        if (uuidOffset >= 0) {
+            hash = 31 * hash + fdHash(frame, uuidOffset, uuidOffset + uuidLength);
+        }
+        return hash & Integer.MAX_VALUE;
+    }
+    
+    /**
+     * Hash of the fd token, the fourth '_' separated token from the end of the UUID.
+     * Counting from the end keeps process names containing '_' intact.
+     */
+    private static int fdHash(ByteBuffer frame, int start, int end) {
+        int separators = 0;
+        int tokenEnd = end;
+        for (int i = end - 1; i >= start; i--) {
+            if (frame.get(i) != '_') {
+                continue;
+            }
+            separators++;
+            if (separators == 3) {
+                tokenEnd = i;
+            } else if (separators == 4) {
+                int hash = 0;
+                for (int j = i + 1; j < tokenEnd; j++) {
+                    hash = 31 * hash + frame.get(j);
+                }
+                return hash;
+            }
+        }
+        return 0;
+    }
+}
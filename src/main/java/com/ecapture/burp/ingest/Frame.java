@@ -0,0 +1,29 @@
+package com.ecapture.burp.ingest;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A received binary frame tagged with the source it came from, or the entries of a
+ * batch frame that go to one lane, decoded and matched there as one batch.
+ */
+final class Frame {
+    
+    final IngestSource source;
+    // Null for a batch group
+    final ByteBuffer data;
+    // Encoded LogEntry slices of a batch frame, null for a single frame
+    final List<ByteBuffer> entries;
+    
+    Frame(IngestSource source, ByteBuffer data) {
+        this.source = source;
+        this.data = data;
+        this.entries = null;
+    }
+    
+    Frame(IngestSource source, List<ByteBuffer> entries) {
+        this.source = source;
+        this.data = null;
+        this.entries = entries;
+    }
+}
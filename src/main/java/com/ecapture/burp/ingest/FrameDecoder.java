@@ -0,0 +1,206 @@
+package com.ecapture.burp.ingest;
+
+import burp.api.montoya.logging.Logging;
+import com.ecapture.burp.event.CapturedEvent;
+import com.ecapture.burp.event.EventManager;
+import com.ecapture.burp.proto.ECaptureProto;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes binary eCapture frames and hands the results to the EventManager.
+ * The frame buffer is decoded in place: the WebSocket client copies every message into
+ * a buffer of its own, so the event payload can alias it instead of being copied again.
+ */
+public class FrameDecoder {
+    
+    private final Logging logging;
+    private final EventManager eventManager;
+    private final CaptureFilter filter = new CaptureFilter();
+    
+    // Decode allocation accounting (heap bytes allocated while turning a frame into a CapturedEvent)
+    private static final com.sun.management.ThreadMXBean THREAD_MX = initThreadMXBean();
+    private final AtomicLong decodedEvents = new AtomicLong();
+    private final AtomicLong decodeAllocatedBytes = new AtomicLong();
+    
+    public FrameDecoder(Logging logging, EventManager eventManager) {
+        this.logging = logging;
+        this.eventManager = eventManager;
+    }
+    
+    /**
+     * Handle binary protobuf message from eCapture.
+     * A frame holds either a single LogEntry or a LogEntryBatch; the events of a batch
+     * are handed to the EventManager together.
+     */
+    public void decode(IngestSource source, ByteBuffer bytes) {
+        try {
+            if (ECaptureProto.LogEntryBatch.isBatch(bytes)) {
+                List<ByteBuffer> entries = new ArrayList<>();
+                int stop = ConnectionRouting.splitBatch(bytes, entries::add);
+                if (stop < bytes.limit()) {
+                    logging.logToError("Malformed batch frame from " + source.getName() + ": dropped "
+                            + (bytes.limit() - stop) + " bytes at offset " + (stop - bytes.position()));
+                }
+                decodeBatch(source, entries);
+                return;
+            }
+            
+            long allocBefore = currentThreadAllocatedBytes();
+            
+            // Events rejected on the raw bytes are never parsed
+            if (!filter.accept(bytes, bytes.position(), bytes.remaining())) {
+                return;
+            }
+            
+            ECaptureProto.LogEntry logEntry = ECaptureProto.LogEntry.parseFrom(bytes);
+            CapturedEvent capturedEvent = handle(source, logEntry);
+            if (capturedEvent != null) {
+                recordDecodeAllocation(allocBefore, 1);
+                eventManager.processEvent(capturedEvent);
+            }
+            
+        } catch (InvalidProtocolBufferException e) {
+            logging.logToError("Failed to parse protobuf message: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Decode the entries of a batch frame, each an encoded LogEntry sliced from the frame,
+     * and hand their events to the EventManager in one call.
+     */
+    void decodeBatch(IngestSource source, List<ByteBuffer> entries) {
+        long allocBefore = currentThreadAllocatedBytes();
+        List<CapturedEvent> events = new ArrayList<>(entries.size());
+        for (ByteBuffer entry : entries) {
+            if (!filter.accept(entry, entry.position(), entry.remaining())) {
+                continue;
+            }
+            try {
+                CapturedEvent capturedEvent = handle(source, ECaptureProto.LogEntry.parseFrom(entry));
+                if (capturedEvent != null) {
+                    events.add(capturedEvent);
+                }
+            } catch (InvalidProtocolBufferException e) {
+                logging.logToError("Failed to parse protobuf message: " + e.getMessage());
+            }
+        }
+        
+        if (!events.isEmpty()) {
+            recordDecodeAllocation(allocBefore, events.size());
+            eventManager.processEvents(events);
+        }
+    }
+    
+    /**
+     * Handle a heartbeat or log entry; an event entry is returned for the caller to process.
+     */
+    private CapturedEvent handle(IngestSource source, ECaptureProto.LogEntry logEntry) {
+        switch (logEntry.getLogType()) {
+            case LOG_TYPE_HEARTBEAT:
+                handleHeartbeat(logEntry.getHeartbeatPayload());
+                return null;
+                
+            case LOG_TYPE_PROCESS_LOG:
+                handleProcessLog(logEntry.getRunLog());
+                return null;
+                
+            case LOG_TYPE_EVENT:
+                CapturedEvent capturedEvent = toCapturedEvent(source, logEntry.getEventPayload());
+                if (capturedEvent != null) {
+                    source.recordEvent();
+                }
+                return capturedEvent;
+                
+            default:
+                logging.logToOutput("Unknown log type: " + logEntry.getLogType());
+                return null;
+        }
+    }
+    
+    private void handleHeartbeat(ECaptureProto.Heartbeat heartbeat) {
+        if (heartbeat != null) {
+            eventManager.processHeartbeat(
+                    heartbeat.getTimestamp(),
+                    heartbeat.getCount(),
+                    heartbeat.getMessage()
+            );
+        }
+    }
+    
+    private void handleProcessLog(String log) {
+        if (log != null && !log.isEmpty()) {
+            eventManager.processRuntimeLog(log);
+        }
+    }
+    
+    private CapturedEvent toCapturedEvent(IngestSource source, ECaptureProto.Event event) {
+        if (event == null) {
+            return null;
+        }
+        
+        return new CapturedEvent(
+                source.getName(),
+                event.getTimestamp(),
+                event.getUuid(),
+                event.getSrcIp(),
+                event.getSrcPort(),
+                event.getDstIp(),
+                event.getDstPort(),
+                event.getPid(),
+                event.getPname(),
+                event.getType(),
+                event.getLength(),
+                event.getPayload()
+        );
+    }
+    
+    /**
+     * Filter applied to the encoded entries before they are parsed.
+     */
+    public CaptureFilter getFilter() {
+        return filter;
+    }
+    
+    private static com.sun.management.ThreadMXBean initThreadMXBean() {
+        try {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                    return sunBean;
+                }
+            }
+        } catch (Throwable t) {
+            // Allocation accounting is optional
+        }
+        return null;
+    }
+    
+    private static long currentThreadAllocatedBytes() {
+        return THREAD_MX != null ? THREAD_MX.getCurrentThreadAllocatedBytes() : -1;
+    }
+    
+    private void recordDecodeAllocation(long allocBefore, int events) {
+        decodedEvents.addAndGet(events);
+        if (allocBefore >= 0) {
+            decodeAllocatedBytes.addAndGet(currentThreadAllocatedBytes() - allocBefore);
+        }
+    }
+    
+    /**
+     * Average heap bytes allocated to decode one event (frame to CapturedEvent), or -1 if unknown.
+     */
+    public long getDecodeBytesPerEvent() {
+        long events = decodedEvents.get();
+        if (THREAD_MX == null || events == 0) {
+            return -1;
+        }
+        return decodeAllocatedBytes.get() / events;
+    }
+}
@@ -0,0 +1,280 @@
+package com.ecapture.burp.ingest;
+
+import burp.api.montoya.logging.Logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Tees received frames into append-only capture files for offline analysis and replay.
+ * <p>
+ * The socket thread only timestamps the frame and offers it to a ring; a dedicated
+ * writer thread appends it through a buffered FileChannel. If the writer falls behind
+ * the frame is dropped from the recording (never from the live pipeline).
+ * Files are rotated once they reach the configured size.
+ * <p>
+ * File layout: an 8 byte magic and the recording start time (epoch millis), followed by
+ * records of one kind byte each:
+ * <pre>
+ *   SOURCE: kind=1, short sourceId, short nameLength, name (UTF-8)
+ *   FRAME:  kind=0, short sourceId, long nanosSinceStart, int length, frame bytes
+ * </pre>
+ * Source records are repeated in every file, so each file can be replayed on its own.
+ */
+public class FrameRecorder {
+    
+    public static final String FILE_EXTENSION = ".ecap";
+    public static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+    
+    static final byte[] MAGIC = "ECAPREC1".getBytes(StandardCharsets.US_ASCII);
+    static final int HEADER_SIZE = MAGIC.length + 8;
+    static final byte KIND_FRAME = 0;
+    static final byte KIND_SOURCE = 1;
+    static final int FRAME_HEADER_SIZE = 1 + 2 + 8 + 4;
+    
+    private static final int RING_CAPACITY = 16384;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    
+    private final Logging logging;
+    private final BoundedRingBuffer<RecordedFrame> ring = new BoundedRingBuffer<>(RING_CAPACITY);
+    
+    private volatile boolean recording;
+    private Thread writer;
+    
+    // Stats
+    private final AtomicLong recordedFrames = new AtomicLong();
+    private final AtomicLong recordedBytes = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private volatile Path currentFile;
+    private volatile long startNanos;
+    
+    public FrameRecorder(Logging logging) {
+        this.logging = logging;
+    }
+    
+    /**
+     * Start recording into new files in the given directory.
+     */
+    public synchronized void start(Path directory, long maxFileBytes) throws IOException {
+        if (recording) {
+            return;
+        }
+        awaitWriter();
+        Files.createDirectories(directory);
+        
+        startNanos = System.nanoTime();
+        Writer task = new Writer(directory, maxFileBytes, System.currentTimeMillis());
+        task.rotate();
+        
+        recording = true;
+        writer = new Thread(task, "eCapture-Recorder");
+        writer.setDaemon(true);
+        writer.start();
+        logging.logToOutput("Recording frames to " + directory);
+    }
+    
+    /**
+     * Stop recording. Frames already queued are still written before the file is closed.
+     */
+    public synchronized void stop() {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        LockSupport.unpark(writer);
+        logging.logToOutput(String.format("Recording stopped: %d frames, %d bytes, %d dropped",
+                recordedFrames.get(), recordedBytes.get(), droppedFrames.get()));
+    }
+    
+    private void awaitWriter() {
+        Thread previous = writer;
+        if (previous != null) {
+            try {
+                previous.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Tee a received frame. Called from the WebSocket listeners; does not block.
+     */
+    public void record(IngestSource source, ByteBuffer data) {
+        if (!recording) {
+            return;
+        }
+        // The frame buffer is never modified after it is received, so it is shared with the decoder
+        if (!ring.offer(new RecordedFrame(source, data.duplicate(), System.nanoTime()))) {
+            droppedFrames.incrementAndGet();
+        }
+    }
+    
+    public boolean isRecording() {
+        return recording;
+    }
+    
+    // Getters for stats
+    public long getRecordedFrames() {
+        return recordedFrames.get();
+    }
+    
+    public long getRecordedBytes() {
+        return recordedBytes.get();
+    }
+    
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+    
+    public Path getCurrentFile() {
+        return currentFile;
+    }
+    
+    private static final class RecordedFrame {
+        final IngestSource source;
+        final ByteBuffer data;
+        final long nanos;
+        
+        RecordedFrame(IngestSource source, ByteBuffer data, long nanos) {
+            this.source = source;
+            this.data = data;
+            this.nanos = nanos;
+        }
+    }
+    
+    /**
+     * Writer thread state: the open file, its source table and the staging buffer.
+     */
+    private final class Writer implements Runnable {
+        private final Path directory;
+        private final long maxFileBytes;
+        private final long startEpochMillis;
+        private final String filePrefix;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final Map<IngestSource, Integer> sourceIds = new HashMap<>();
+        private FileChannel channel;
+        private long fileSize;
+        private int fileIndex;
+        
+        Writer(Path directory, long maxFileBytes, long startEpochMillis) {
+            this.directory = directory;
+            this.maxFileBytes = maxFileBytes;
+            this.startEpochMillis = startEpochMillis;
+            this.filePrefix = "ecapture-" + LocalDateTime.now().format(FILE_TIME_FORMAT) + "-";
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    RecordedFrame frame = ring.poll();
+                    if (frame == null) {
+                        if (!recording) {
+                            break;
+                        }
+                        flush();
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                        continue;
+                    }
+                    write(frame);
+                }
+                flush();
+            } catch (IOException e) {
+                recording = false;
+                logging.logToError("Recording failed: " + e.getMessage());
+            } finally {
+                close();
+            }
+        }
+        
+        private void write(RecordedFrame frame) throws IOException {
+            int length = frame.data.remaining();
+            if (fileSize > HEADER_SIZE && fileSize + FRAME_HEADER_SIZE + length > maxFileBytes) {
+                rotate();
+            }
+            
+            Integer id = sourceIds.get(frame.source);
+            if (id == null) {
+                id = sourceIds.size();
+                sourceIds.put(frame.source, id);
+                byte[] name = frame.source.getName().getBytes(StandardCharsets.UTF_8);
+                ensureSpace(1 + 2 + 2 + name.length);
+                buffer.put(KIND_SOURCE).putShort(id.shortValue()).putShort((short) name.length).put(name);
+                fileSize += 1 + 2 + 2 + name.length;
+            }
+            
+            ensureSpace(FRAME_HEADER_SIZE);
+            buffer.put(KIND_FRAME)
+                    .putShort(id.shortValue())
+                    .putLong(frame.nanos - startNanos)
+                    .putInt(length);
+            if (length > buffer.remaining()) {
+                // Large frames bypass the staging buffer
+                flush();
+                writeFully(frame.data);
+            } else {
+                buffer.put(frame.data);
+            }
+            fileSize += FRAME_HEADER_SIZE + length;
+            recordedFrames.incrementAndGet();
+            recordedBytes.addAndGet(length);
+        }
+        
+        void rotate() throws IOException {
+            flush();
+            close();
+            Path path = directory.resolve(String.format("%s%03d%s", filePrefix, fileIndex++, FILE_EXTENSION));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            sourceIds.clear();
+            buffer.put(MAGIC).putLong(startEpochMillis);
+            fileSize = HEADER_SIZE;
+            currentFile = path;
+        }
+        
+        private void ensureSpace(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+        
+        private void flush() throws IOException {
+            if (buffer.position() == 0 || channel == null) {
+                return;
+            }
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+        
+        private void writeFully(ByteBuffer src) throws IOException {
+            while (src.hasRemaining()) {
+                channel.write(src);
+            }
+        }
+        
+        private void close() {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    logging.logToError("Failed to close recording: " + e.getMessage());
+                }
+                channel = null;
+            }
+        }
+    }
+}
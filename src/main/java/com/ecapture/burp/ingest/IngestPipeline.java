@@ -0,0 +1,374 @@
+package com.ecapture.burp.ingest;
+
+import burp.api.montoya.logging.Logging;
+import com.ecapture.burp.proto.ECaptureProto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pipeline stage between the WebSocket listeners and the FrameDecoder.
+ * <p>
+ * Frames are queued in bounded lock-free rings and decoded by dedicated workers,
+ * so a slow listener or Site Map call no longer stalls the sockets. Heartbeats and
+ * process logs travel through a separate small priority lane with its own worker,
+ * so liveness is reported even while an event backlog is being drained.
+ * <p>
+ * There is a fixed number of event lanes regardless of how many sources are connected.
+ * Events are routed by connection (pid and socket fd), which keeps the events of a connection
+ * in arrival order (request/response pairing relies on this) while different connections,
+ * even of one source, are decoded and matched in parallel. Batch frames mix connections, so
+ * they are split into their entries (slices, not copies) and the entries of each lane are queued
+ * together, to be decoded and matched there as one batch. Only frames without a connection stay
+ * on the lane their source is pinned to.
+ */
+public class IngestPipeline {
+    
+    public static final int DEFAULT_CAPACITY = 8192;
+    public static final int DEFAULT_LANES = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int PRIORITY_CAPACITY = 1024;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final long BLOCK_PARK_NANOS = 50_000L;
+    
+    private final Logging logging;
+    private final FrameDecoder decoder;
+    
+    private final Lane[] eventLanes;
+    private final Lane priorityLane;
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private volatile boolean running = true;
+    
+    // Registered sources, lanes are assigned round-robin
+    private final List<IngestSource> sources = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextLane = new AtomicInteger();
+    
+    // Stats
+    private final AtomicLong droppedFrames = new AtomicLong();
+    private final AtomicLong spilledFrames = new AtomicLong();
+    private final AtomicInteger highWaterMark = new AtomicInteger();
+    
+    public IngestPipeline(Logging logging, FrameDecoder decoder) {
+        this(logging, decoder, DEFAULT_CAPACITY, DEFAULT_LANES);
+    }
+    
+    public IngestPipeline(Logging logging, FrameDecoder decoder, int capacity, int lanes) {
+        this.logging = logging;
+        this.decoder = decoder;
+        this.eventLanes = new Lane[lanes];
+        int laneCapacity = Math.max(64, capacity / lanes);
+        for (int i = 0; i < lanes; i++) {
+            eventLanes[i] = new Lane("eCapture-Ingest-" + i, laneCapacity, true);
+        }
+        this.priorityLane = new Lane("eCapture-Priority", PRIORITY_CAPACITY, false);
+    }
+    
+    /**
+     * Register a new source of frames and pin it to a lane.
+     */
+    public IngestSource registerSource(String name) {
+        int lane = Math.floorMod(nextLane.getAndIncrement(), eventLanes.length);
+        IngestSource source = new IngestSource(name, lane);
+        sources.add(source);
+        return source;
+    }
+    
+    public void unregisterSource(IngestSource source) {
+        sources.remove(source);
+    }
+    
+    public List<IngestSource> getSources() {
+        return List.copyOf(sources);
+    }
+    
+    /**
+     * Queue a received frame. Called from the WebSocket listeners.
+     * Depending on the overflow policy this may block until the worker catches up.
+     */
+    public void submit(IngestSource source, ByteBuffer data) {
+        if (!running) {
+            return;
+        }
+        
+        source.recordFrame(data.remaining());
+        if (ECaptureProto.LogEntryBatch.isBatch(data)) {
+            submitBatch(source, data);
+        } else if (!offerPriority(source, data)) {
+            enqueue(eventLanes[laneOf(source, data)], new Frame(source, data));
+        }
+        updateHighWaterMark();
+    }
+    
+    /**
+     * Split a batch frame and queue the events of each lane as one group. A malformed tail
+     * is reported and dropped; the entries before it are kept.
+     */
+    @SuppressWarnings("unchecked")
+    private void submitBatch(IngestSource source, ByteBuffer data) {
+        List<ByteBuffer>[] groups = new List[eventLanes.length];
+        int stop = ConnectionRouting.splitBatch(data, entry -> {
+            if (!offerPriority(source, entry)) {
+                int lane = laneOf(source, entry);
+                if (groups[lane] == null) {
+                    groups[lane] = new ArrayList<>();
+                }
+                groups[lane].add(entry);
+            }
+        });
+        if (stop < data.limit()) {
+            logging.logToError("Malformed batch frame from " + source.getName() + ": dropped "
+                    + (data.limit() - stop) + " bytes at offset " + (stop - data.position()));
+        }
+        for (int lane = 0; lane < groups.length; lane++) {
+            if (groups[lane] != null) {
+                enqueue(eventLanes[lane], new Frame(source, groups[lane]));
+            }
+        }
+    }
+    
+    /**
+     * Queue a heartbeat or log entry on the priority lane; false for anything else.
+     */
+    private boolean offerPriority(IngestSource source, ByteBuffer entry) {
+        ECaptureProto.LogType type = ECaptureProto.LogEntry.peekLogType(entry);
+        if (type != ECaptureProto.LogType.LOG_TYPE_HEARTBEAT && type != ECaptureProto.LogType.LOG_TYPE_PROCESS_LOG) {
+            return false;
+        }
+        // Liveness must never wait behind events; drop the oldest if this lane ever fills
+        Frame frame = new Frame(source, entry);
+        while (!priorityLane.ring.offer(frame)) {
+            if (priorityLane.ring.poll() != null) {
+                droppedFrames.incrementAndGet();
+            }
+        }
+        priorityLane.signal();
+        return true;
+    }
+    
+    /**
+     * Event lane of an entry: its connection's lane, or the source's lane if it has no connection.
+     */
+    private int laneOf(IngestSource source, ByteBuffer entry) {
+        int route = ConnectionRouting.hash(entry);
+        return route != ConnectionRouting.NO_ROUTE ? route % eventLanes.length : source.getLane();
+    }
+    
+    private void enqueue(Lane lane, Frame frame) {
+        lane.enqueue(frame);
+        lane.signal();
+    }
+    
+    private void updateHighWaterMark() {
+        int depth = getDepth();
+        int hwm = highWaterMark.get();
+        while (depth > hwm && !highWaterMark.compareAndSet(hwm, depth)) {
+            hwm = highWaterMark.get();
+        }
+    }
+    
+    /**
+     * Stop the workers and release the spill files. Queued frames are discarded.
+     */
+    public void shutdown() {
+        running = false;
+        for (Lane lane : eventLanes) {
+            lane.stop();
+        }
+        priorityLane.stop();
+    }
+    
+    public void setOverflowPolicy(OverflowPolicy policy) {
+        this.overflowPolicy = policy;
+    }
+    
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+    
+    public FrameDecoder getDecoder() {
+        return decoder;
+    }
+    
+    // Getters for stats
+    public int getDepth() {
+        int depth = 0;
+        for (Lane lane : eventLanes) {
+            depth += lane.depth();
+        }
+        return depth;
+    }
+    
+    public int getCapacity() {
+        int capacity = 0;
+        for (Lane lane : eventLanes) {
+            capacity += lane.ring.capacity();
+        }
+        return capacity;
+    }
+    
+    public int getLaneCount() {
+        return eventLanes.length;
+    }
+    
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+    
+    public long getSpilledFrames() {
+        return spilledFrames.get();
+    }
+    
+    public int getHighWaterMark() {
+        return highWaterMark.get();
+    }
+    
+    /**
+     * A ring drained by one dedicated worker thread.
+     */
+    private final class Lane implements Runnable {
+        private final BoundedRingBuffer<Frame> ring;
+        private final boolean spillable;
+        private final Thread worker;
+        private volatile boolean parked;
+        
+        // Spill file is created lazily the first time SPILL_TO_DISK overflows
+        private volatile SpillFile spillFile;
+        
+        Lane(String name, int capacity, boolean spillable) {
+            this.ring = new BoundedRingBuffer<>(capacity);
+            this.spillable = spillable;
+            this.worker = new Thread(this, name);
+            this.worker.setDaemon(true);
+            this.worker.start();
+        }
+        
+        void enqueue(Frame frame) {
+            SpillFile spill = spillFile;
+            if (spill != null && spill.getPendingFrames() > 0) {
+                // Keep FIFO order: once spilling, everything goes to disk until the worker catches up
+                spill(frame);
+                return;
+            }
+            
+            if (ring.offer(frame)) {
+                return;
+            }
+            
+            switch (overflowPolicy) {
+                case BLOCK:
+                    while (!ring.offer(frame)) {
+                        if (!running) {
+                            droppedFrames.incrementAndGet();
+                            return;
+                        }
+                        signal();
+                        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                    }
+                    break;
+                
+                case DROP_OLDEST:
+                    while (!ring.offer(frame)) {
+                        if (ring.poll() != null) {
+                            droppedFrames.incrementAndGet();
+                        }
+                    }
+                    break;
+                
+                case DROP_NEWEST:
+                    droppedFrames.incrementAndGet();
+                    break;
+                
+                case SPILL_TO_DISK:
+                    spill(frame);
+                    break;
+            }
+        }
+        
+        private void spill(Frame frame) {
+            try {
+                SpillFile spill = spillFile;
+                if (spill == null) {
+                    synchronized (this) {
+                        if (spillFile == null) {
+                            spillFile = new SpillFile();
+                            logging.logToOutput("Ingestion queue full, spilling frames to " + spillFile.getPath());
+                        }
+                        spill = spillFile;
+                    }
+                }
+                spill.append(frame);
+                spilledFrames.incrementAndGet();
+            } catch (IOException e) {
+                droppedFrames.incrementAndGet();
+                logging.logToError("Failed to spill frame to disk: " + e.getMessage());
+            }
+        }
+        
+        private Frame pollSpill() {
+            SpillFile spill = spillFile;
+            if (!spillable || spill == null) {
+                return null;
+            }
+            try {
+                return spill.poll();
+            } catch (IOException e) {
+                logging.logToError("Failed to read spilled frame: " + e.getMessage());
+                return null;
+            }
+        }
+        
+        int depth() {
+            SpillFile spill = spillFile;
+            return ring.size() + (spill != null ? spill.getPendingFrames() : 0);
+        }
+        
+        void signal() {
+            if (parked) {
+                LockSupport.unpark(worker);
+            }
+        }
+        
+        void stop() {
+            LockSupport.unpark(worker);
+            worker.interrupt();
+            SpillFile spill = spillFile;
+            if (spill != null) {
+                spill.close();
+            }
+        }
+        
+        @Override
+        public void run() {
+            while (running) {
+                Frame frame = ring.poll();
+                if (frame == null) {
+                    frame = pollSpill();
+                }
+                if (frame == null) {
+                    parked = true;
+                    // Re-check after publishing the flag so a concurrent signal is not lost
+                    if (ring.size() == 0) {
+                        LockSupport.parkNanos(IngestPipeline.this, IDLE_PARK_NANOS);
+                    }
+                    parked = false;
+                    continue;
+                }
+                
+                try {
+                    if (frame.entries != null) {
+                        decoder.decodeBatch(frame.source, frame.entries);
+                    } else {
+                        decoder.decode(frame.source, frame.data);
+                    }
+                } catch (Exception e) {
+                    logging.logToError("Error decoding frame: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.ecapture.burp.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One origin of eCapture frames (a WebSocket endpoint) and its throughput counters.
+ * Batch frames of a source are decoded on the pipeline lane it is pinned to; single events
+ * are routed by connection instead.
+ */
+public class IngestSource {
+    
+    private final String name;
+    private final int lane;
+    
+    // Stats
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong eventsDecoded = new AtomicLong();
+    private volatile long lastFrameTime;
+    
+    IngestSource(String name, int lane) {
+        this.name = name;
+        this.lane = lane;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    int getLane() {
+        return lane;
+    }
+    
+    void recordFrame(int bytes) {
+        framesReceived.incrementAndGet();
+        bytesReceived.addAndGet(bytes);
+        lastFrameTime = System.currentTimeMillis();
+    }
+    
+    void recordEvent() {
+        eventsDecoded.incrementAndGet();
+    }
+    
+    // Getters for stats
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+    
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+    
+    public long getEventsDecoded() {
+        return eventsDecoded.get();
+    }
+    
+    public long getLastFrameTime() {
+        return lastFrameTime;
+    }
+    
+    @Override
+    public String toString() {
+        return name;
+    }
+}
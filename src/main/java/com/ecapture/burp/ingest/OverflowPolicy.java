@@ -0,0 +1,26 @@
+package com.ecapture.burp.ingest;
+
+/**
+ * What the ingestion queue does with a new frame when it is full.
+ */
+public enum OverflowPolicy {
+    BLOCK("Block"),
+    DROP_OLDEST("Drop oldest"),
+    DROP_NEWEST("Drop newest"),
+    SPILL_TO_DISK("Spill to disk");
+    
+    private final String displayName;
+    
+    OverflowPolicy(String displayName) {
+        this.displayName = displayName;
+    }
+    
+    public String getDisplayName() {
+        return displayName;
+    }
+    
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,225 @@
+package com.ecapture.burp.ingest;
+
+import burp.api.montoya.logging.Logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds frames recorded by {@link FrameRecorder} back through the IngestPipeline,
+ * so they are decoded and matched exactly like live traffic.
+ * <p>
+ * Files are memory-mapped and frames are submitted as slices of the mapping without copying.
+ * Replay runs either at the recorded pace or as fast as the pipeline accepts frames;
+ * in the latter case the reported events/s is the throughput of the whole plugin.
+ */
+public class ReplaySource {
+    
+    private static final String SOURCE_PREFIX = "replay:";
+    private static final long DRAIN_POLL_NANOS = 10_000_000L;
+    
+    private final Logging logging;
+    private final IngestPipeline pipeline;
+    private final List<Path> files;
+    private final boolean originalTiming;
+    private final Thread thread;
+    
+    // Replayed sources by recorded name, registered with the pipeline on first use
+    private final Map<String, IngestSource> sources = new ConcurrentHashMap<>();
+    private volatile boolean running;
+    private volatile Runnable completionListener;
+    
+    // Stats
+    private final AtomicLong framesReplayed = new AtomicLong();
+    private volatile long startNanos;
+    private volatile long endNanos;
+    
+    public ReplaySource(Logging logging, IngestPipeline pipeline, List<Path> files, boolean originalTiming) {
+        this.logging = logging;
+        this.pipeline = pipeline;
+        this.files = new ArrayList<>(files);
+        this.originalTiming = originalTiming;
+        this.thread = new Thread(this::run, "eCapture-Replay");
+        this.thread.setDaemon(true);
+    }
+    
+    public void start() {
+        running = true;
+        thread.start();
+    }
+    
+    /**
+     * Stop submitting frames. Frames already queued are still decoded.
+     */
+    public void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+    
+    /**
+     * Set a callback invoked on the replay thread when the replay has finished or failed.
+     */
+    public void setCompletionListener(Runnable listener) {
+        this.completionListener = listener;
+    }
+    
+    private void run() {
+        startNanos = System.nanoTime();
+        try {
+            long firstFrameNanos = Long.MIN_VALUE;
+            for (Path file : files) {
+                if (!running) {
+                    break;
+                }
+                firstFrameNanos = replayFile(file, firstFrameNanos);
+            }
+            awaitDrained();
+            endNanos = System.nanoTime();
+            logging.logToOutput(String.format("Replay finished: %d frames, %d events in %.2f s (%.0f events/s)",
+                    framesReplayed.get(), getEventsReplayed(), getElapsedNanos() / 1e9, getEventsPerSecond()));
+        } catch (IOException e) {
+            endNanos = System.nanoTime();
+            logging.logToError("Replay failed: " + e.getMessage());
+        } finally {
+            running = false;
+            for (IngestSource source : sources.values()) {
+                pipeline.unregisterSource(source);
+            }
+            Runnable listener = completionListener;
+            if (listener != null) {
+                listener.run();
+            }
+        }
+    }
+    
+    /**
+     * Replay one file and return the timestamp of the first frame of the whole replay.
+     */
+    private long replayFile(Path file, long firstFrameNanos) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Capture file too large to map: " + file);
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        
+        ByteBuffer data = mapped.duplicate();
+        for (byte b : FrameRecorder.MAGIC) {
+            if (!data.hasRemaining() || data.get() != b) {
+                throw new IOException("Not an eCapture recording: " + file);
+            }
+        }
+        data.getLong(); // recording start time (epoch millis)
+        
+        Map<Integer, IngestSource> fileSources = new HashMap<>();
+        while (running && data.remaining() > 0) {
+            byte kind = data.get();
+            if (kind == FrameRecorder.KIND_SOURCE) {
+                // Id and name length are written as unsigned shorts
+                int nameLength = data.remaining() >= 4 ? Short.toUnsignedInt(data.getShort(data.position() + 2)) : -1;
+                if (nameLength < 0 || data.remaining() < 4 + nameLength) {
+                    logging.logToOutput("Recording " + file.getFileName() + " ends with an incomplete record");
+                    break;
+                }
+                int id = Short.toUnsignedInt(data.getShort());
+                data.getShort();
+                byte[] name = new byte[nameLength];
+                data.get(name);
+                fileSources.put(id, sourceFor(new String(name, StandardCharsets.UTF_8)));
+                continue;
+            }
+            if (kind != FrameRecorder.KIND_FRAME || data.remaining() < FrameRecorder.FRAME_HEADER_SIZE - 1) {
+                // A recording cut off mid-write ends with a partial record
+                logging.logToOutput("Recording " + file.getFileName() + " ends with an incomplete record");
+                break;
+            }
+            
+            IngestSource source = fileSources.get(Short.toUnsignedInt(data.getShort()));
+            long frameNanos = data.getLong();
+            int length = data.getInt();
+            if (source == null || length < 0 || length > data.remaining()) {
+                logging.logToOutput("Recording " + file.getFileName() + " ends with an incomplete record");
+                break;
+            }
+            
+            if (firstFrameNanos == Long.MIN_VALUE) {
+                firstFrameNanos = frameNanos;
+            }
+            if (originalTiming) {
+                waitUntil(startNanos + (frameNanos - firstFrameNanos));
+            }
+            
+            ByteBuffer frame = data.slice();
+            frame.limit(length);
+            data.position(data.position() + length);
+            pipeline.submit(source, frame);
+            framesReplayed.incrementAndGet();
+        }
+        return firstFrameNanos;
+    }
+    
+    private IngestSource sourceFor(String recordedName) {
+        return sources.computeIfAbsent(recordedName, name -> pipeline.registerSource(SOURCE_PREFIX + name));
+    }
+    
+    private void waitUntil(long deadline) {
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+    }
+    
+    /**
+     * Wait until the pipeline has decoded everything submitted, so events/s covers the full pipeline.
+     */
+    private void awaitDrained() {
+        while (running && pipeline.getDepth() > 0) {
+            LockSupport.parkNanos(this, DRAIN_POLL_NANOS);
+        }
+    }
+    
+    public boolean isRunning() {
+        return running;
+    }
+    
+    // Getters for stats
+    public long getFramesReplayed() {
+        return framesReplayed.get();
+    }
+    
+    public long getEventsReplayed() {
+        long events = 0;
+        for (IngestSource source : sources.values()) {
+            events += source.getEventsDecoded();
+        }
+        return events;
+    }
+    
+    private long getElapsedNanos() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        return Math.max(1, end - startNanos);
+    }
+    
+    /**
+     * Events decoded per second since the replay started (until it finished).
+     */
+    public double getEventsPerSecond() {
+        if (startNanos == 0) {
+            return 0;
+        }
+        return getEventsReplayed() * 1e9 / getElapsedNanos();
+    }
+}
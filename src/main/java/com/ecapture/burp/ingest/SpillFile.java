@@ -0,0 +1,121 @@
+package com.ecapture.burp.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Temporary overflow file for frames that do not fit in the ingestion queue.
+ * Frames are stored length-prefixed and read back in FIFO order; the file is
+ * truncated whenever the reader catches up with the writer. The file only lives
+ * as long as the pipeline, so frame sources are kept in memory alongside it.
+ * A batch group is stored as a LogEntryBatch of its entries and read back as one frame.
+ */
+final class SpillFile {
+    
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+    private final ArrayDeque<IngestSource> pendingSources = new ArrayDeque<>();
+    private long readPosition;
+    private long writePosition;
+    
+    SpillFile() throws IOException {
+        this.path = Files.createTempFile("ecapture-spill-", ".bin");
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+    
+    synchronized void append(Frame frame) throws IOException {
+        ByteBuffer data = frame.entries != null ? encodeBatch(frame.entries) : frame.data.duplicate();
+        lengthBuffer.clear();
+        lengthBuffer.putInt(data.remaining()).flip();
+        writePosition += writeFully(lengthBuffer, writePosition);
+        writePosition += writeFully(data, writePosition);
+        pendingSources.addLast(frame.source);
+    }
+    
+    /**
+     * Read the oldest spilled frame, or return null if nothing is pending.
+     */
+    synchronized Frame poll() throws IOException {
+        if (pendingSources.isEmpty()) {
+            return null;
+        }
+        lengthBuffer.clear();
+        readFully(lengthBuffer, readPosition);
+        int length = lengthBuffer.flip().getInt();
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        readFully(frame, readPosition + 4);
+        frame.flip();
+        readPosition += 4 + length;
+        IngestSource source = pendingSources.pollFirst();
+        
+        if (pendingSources.isEmpty()) {
+            channel.truncate(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+        return new Frame(source, frame);
+    }
+    
+    private static ByteBuffer encodeBatch(List<ByteBuffer> entries) {
+        int size = 0;
+        for (ByteBuffer entry : entries) {
+            size += 1 + WireBytes.varintSize(entry.remaining()) + entry.remaining();
+        }
+        ByteBuffer batch = ByteBuffer.allocate(size);
+        for (ByteBuffer entry : entries) {
+            batch.put((byte) 0x0A); // field 1: entries
+            for (int length = entry.remaining(); ; length >>>= 7) {
+                if ((length & ~0x7F) == 0) {
+                    batch.put((byte) length);
+                    break;
+                }
+                batch.put((byte) ((length & 0x7F) | 0x80));
+            }
+            batch.put(entry.duplicate());
+        }
+        return batch.flip();
+    }
+    
+    synchronized int getPendingFrames() {
+        return pendingSources.size();
+    }
+    
+    synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore, the file is deleted on close anyway
+        }
+    }
+    
+    Path getPath() {
+        return path;
+    }
+    
+    private int writeFully(ByteBuffer src, long position) throws IOException {
+        int written = 0;
+        while (src.hasRemaining()) {
+            written += channel.write(src, position + written);
+        }
+        return written;
+    }
+    
+    private void readFully(ByteBuffer dst, long position) throws IOException {
+        int read = 0;
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position + read);
+            if (n < 0) {
+                throw new IOException("Unexpected end of spill file " + path);
+            }
+            read += n;
+        }
+    }
+}
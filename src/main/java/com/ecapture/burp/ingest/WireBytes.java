@@ -0,0 +1,55 @@
+package com.ecapture.burp.ingest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Protobuf wire format helpers for scanning encoded messages in place,
+ * using absolute reads so the buffer position is never touched.
+ * Malformed input surfaces as IndexOutOfBoundsException.
+ */
+final class WireBytes {
+    
+    private WireBytes() {
+    }
+    
+    static long readVarint(ByteBuffer buffer, int pos) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get(pos++);
+            result |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IndexOutOfBoundsException("Malformed varint");
+    }
+    
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7fL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    /**
+     * Skip the value of a field, returning the new position or -1 for unknown wire types.
+     */
+    static int skipField(ByteBuffer buffer, int pos, int tag) {
+        switch (tag & 7) {
+            case 0:
+                return pos + varintSize(readVarint(buffer, pos));
+            case 1:
+                return pos + 8;
+            case 2: {
+                long len = readVarint(buffer, pos);
+                return pos + varintSize(len) + (int) len;
+            }
+            case 5:
+                return pos + 4;
+            default:
+                return -1;
+        }
+    }
+}
@@ -2,13 +2,22 @@ package com.ecapture.burp.proto;
 
 import com.google.protobuf.ByteString;
 import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.UnsafeByteOperations;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Manual implementation of eCapture protobuf messages.
  * This is a simplified implementation that parses the protobuf wire format directly.
+ * Nested messages are parsed in place (push/pop limit) rather than copied out first,
+ * and the ByteBuffer entry point aliases the frame so payloads are never copied.
+ * Encoding (builders, toByteArray) is only needed by local tooling such as the stand-in server.
  */
 public final class ECaptureProto {
 
@@ -127,6 +136,58 @@ public final class ECaptureProto {
             return event;
         }
 
+        public int getSerializedSize() {
+            int size = 0;
+            if (timestamp != 0) size += CodedOutputStream.computeInt64Size(1, timestamp);
+            if (!uuid.isEmpty()) size += CodedOutputStream.computeStringSize(2, uuid);
+            if (!srcIp.isEmpty()) size += CodedOutputStream.computeStringSize(3, srcIp);
+            if (srcPort != 0) size += CodedOutputStream.computeUInt32Size(4, srcPort);
+            if (!dstIp.isEmpty()) size += CodedOutputStream.computeStringSize(5, dstIp);
+            if (dstPort != 0) size += CodedOutputStream.computeUInt32Size(6, dstPort);
+            if (pid != 0) size += CodedOutputStream.computeInt64Size(7, pid);
+            if (!pname.isEmpty()) size += CodedOutputStream.computeStringSize(8, pname);
+            if (type != 0) size += CodedOutputStream.computeUInt32Size(9, type);
+            if (length != 0) size += CodedOutputStream.computeUInt32Size(10, length);
+            if (!payload.isEmpty()) size += CodedOutputStream.computeBytesSize(11, payload);
+            return size;
+        }
+
+        public void writeTo(CodedOutputStream output) throws IOException {
+            if (timestamp != 0) output.writeInt64(1, timestamp);
+            if (!uuid.isEmpty()) output.writeString(2, uuid);
+            if (!srcIp.isEmpty()) output.writeString(3, srcIp);
+            if (srcPort != 0) output.writeUInt32(4, srcPort);
+            if (!dstIp.isEmpty()) output.writeString(5, dstIp);
+            if (dstPort != 0) output.writeUInt32(6, dstPort);
+            if (pid != 0) output.writeInt64(7, pid);
+            if (!pname.isEmpty()) output.writeString(8, pname);
+            if (type != 0) output.writeUInt32(9, type);
+            if (length != 0) output.writeUInt32(10, length);
+            if (!payload.isEmpty()) output.writeBytes(11, payload);
+        }
+
+        public static Builder newBuilder() {
+            return new Builder();
+        }
+
+        public static final class Builder {
+            private final Event event = new Event();
+
+            public Builder setTimestamp(long value) { event.timestamp = value; return this; }
+            public Builder setUuid(String value) { event.uuid = value; return this; }
+            public Builder setSrcIp(String value) { event.srcIp = value; return this; }
+            public Builder setSrcPort(int value) { event.srcPort = value; return this; }
+            public Builder setDstIp(String value) { event.dstIp = value; return this; }
+            public Builder setDstPort(int value) { event.dstPort = value; return this; }
+            public Builder setPid(long value) { event.pid = value; return this; }
+            public Builder setPname(String value) { event.pname = value; return this; }
+            public Builder setType(int value) { event.type = value; return this; }
+            public Builder setLength(int value) { event.length = value; return this; }
+            public Builder setPayload(ByteString value) { event.payload = value; return this; }
+
+            public Event build() { return event; }
+        }
+
         @Override
         public String toString() {
             return String.format("Event{timestamp=%d, uuid='%s', src=%s:%d, dst=%s:%d, pid=%d, pname='%s', type=%d, len=%d}",
@@ -178,6 +239,28 @@ public final class ECaptureProto {
             return hb;
         }
 
+        public int getSerializedSize() {
+            int size = 0;
+            if (timestamp != 0) size += CodedOutputStream.computeInt64Size(1, timestamp);
+            if (count != 0) size += CodedOutputStream.computeInt64Size(2, count);
+            if (!message.isEmpty()) size += CodedOutputStream.computeStringSize(3, message);
+            return size;
+        }
+
+        public void writeTo(CodedOutputStream output) throws IOException {
+            if (timestamp != 0) output.writeInt64(1, timestamp);
+            if (count != 0) output.writeInt64(2, count);
+            if (!message.isEmpty()) output.writeString(3, message);
+        }
+
+        public static Heartbeat of(long timestamp, long count, String message) {
+            Heartbeat hb = new Heartbeat();
+            hb.timestamp = timestamp;
+            hb.count = count;
+            hb.message = message != null ? message : "";
+            return hb;
+        }
+
         @Override
         public String toString() {
             return String.format("Heartbeat{timestamp=%d, count=%d, message='%s'}",
@@ -207,45 +290,297 @@ public final class ECaptureProto {
 
         public static LogEntry parseFrom(byte[] data) throws InvalidProtocolBufferException {
             try {
-                CodedInputStream input = CodedInputStream.newInstance(data);
-                LogEntry entry = new LogEntry();
-                
+                return parseFrom(CodedInputStream.newInstance(data));
+            } catch (InvalidProtocolBufferException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new InvalidProtocolBufferException(e);
+            }
+        }
+
+        /**
+         * Parse directly from a received frame without copying it.
+         * Byte fields (the event payload) alias the buffer, so the caller must not
+         * reuse or modify it afterwards.
+         */
+        public static LogEntry parseFrom(ByteBuffer data) throws InvalidProtocolBufferException {
+            try {
+                CodedInputStream input = aliasingInput(data);
+                return parseFrom(input);
+            } catch (InvalidProtocolBufferException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new InvalidProtocolBufferException(e);
+            }
+        }
+
+        /**
+         * Determine the log type of an encoded LogEntry from its first field only,
+         * without consuming the buffer. Proto3 omits a zero log_type, so the oneof
+         * field tag is used when log_type is absent.
+         */
+        public static LogType peekLogType(ByteBuffer data) {
+            ByteBuffer buf = data.duplicate();
+            int tag = readVarint(buf);
+            switch (tag) {
+                case 8:
+                    return LogType.forNumber(readVarint(buf));
+                case 18:
+                    return LogType.LOG_TYPE_EVENT;
+                case 26:
+                    return LogType.LOG_TYPE_HEARTBEAT;
+                case 34:
+                    return LogType.LOG_TYPE_PROCESS_LOG;
+                default:
+                    return LogType.UNRECOGNIZED;
+            }
+        }
+
+        public static LogEntry parseFrom(CodedInputStream input) throws IOException {
+            LogEntry entry = new LogEntry();
+            while (!input.isAtEnd()) {
+                int tag = input.readTag();
+                switch (tag) {
+                    case 0:
+                        return entry;
+                    case 8: // field 1: log_type (enum)
+                        entry.logType = LogType.forNumber(input.readEnum());
+                        break;
+                    case 18: { // field 2: event_payload (message)
+                        int oldLimit = input.pushLimit(input.readRawVarint32());
+                        entry.eventPayload = Event.parseFrom(input);
+                        input.popLimit(oldLimit);
+                        break;
+                    }
+                    case 26: { // field 3: heartbeat_payload (message)
+                        int oldLimit = input.pushLimit(input.readRawVarint32());
+                        entry.heartbeatPayload = Heartbeat.parseFrom(input);
+                        input.popLimit(oldLimit);
+                        break;
+                    }
+                    case 34: // field 4: run_log (string)
+                        entry.runLog = input.readStringRequireUtf8();
+                        break;
+                    default:
+                        input.skipField(tag);
+                        break;
+                }
+            }
+            return entry;
+        }
+
+        public int getSerializedSize() {
+            int size = 0;
+            if (logType.getNumber() > 0) size += CodedOutputStream.computeEnumSize(1, logType.getNumber());
+            if (eventPayload != null) size += messageSize(2, eventPayload.getSerializedSize());
+            if (heartbeatPayload != null) size += messageSize(3, heartbeatPayload.getSerializedSize());
+            if (runLog != null) size += CodedOutputStream.computeStringSize(4, runLog);
+            return size;
+        }
+
+        public void writeTo(CodedOutputStream output) throws IOException {
+            if (logType.getNumber() > 0) output.writeEnum(1, logType.getNumber());
+            if (eventPayload != null) {
+                output.writeTag(2, WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(eventPayload.getSerializedSize());
+                eventPayload.writeTo(output);
+            }
+            if (heartbeatPayload != null) {
+                output.writeTag(3, WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(heartbeatPayload.getSerializedSize());
+                heartbeatPayload.writeTo(output);
+            }
+            if (runLog != null) output.writeString(4, runLog);
+        }
+
+        public byte[] toByteArray() {
+            return ECaptureProto.toByteArray(getSerializedSize(), this::writeTo);
+        }
+
+        public static LogEntry ofEvent(Event event) {
+            LogEntry entry = new LogEntry();
+            entry.logType = LogType.LOG_TYPE_EVENT;
+            entry.eventPayload = event;
+            return entry;
+        }
+
+        public static LogEntry ofHeartbeat(Heartbeat heartbeat) {
+            LogEntry entry = new LogEntry();
+            entry.logType = LogType.LOG_TYPE_HEARTBEAT;
+            entry.heartbeatPayload = heartbeat;
+            return entry;
+        }
+
+        public static LogEntry ofRunLog(String runLog) {
+            LogEntry entry = new LogEntry();
+            entry.logType = LogType.LOG_TYPE_PROCESS_LOG;
+            entry.runLog = runLog;
+            return entry;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("LogEntry{logType=%s, event=%s, heartbeat=%s, runLog=%s}",
+                    logType, eventPayload, heartbeatPayload, runLog != null ? "'" + runLog + "'" : "null");
+        }
+    }
+
+    /**
+     * LogEntryBatch - several LogEntry messages delivered in one frame
+     */
+    public static final class LogEntryBatch {
+        private final List<LogEntry> entries;
+        private final int filteredCount;
+
+        private LogEntryBatch(List<LogEntry> entries, int filteredCount) {
+            this.entries = entries;
+            this.filteredCount = filteredCount;
+        }
+
+        public List<LogEntry> getEntriesList() { return entries; }
+        public int getEntriesCount() { return entries.size(); }
+
+        /** Number of entries rejected by the EntryFilter and skipped without parsing. */
+        public int getFilteredCount() { return filteredCount; }
+
+        /**
+         * Check whether an encoded frame is a batch rather than a single LogEntry.
+         * A batch starts with tag 0x0A (field 1, length-delimited); a LogEntry never does.
+         */
+        public static boolean isBatch(ByteBuffer data) {
+            return data.remaining() > 0 && data.get(data.position()) == BATCH_ENTRY_TAG;
+        }
+
+        /**
+         * Parse directly from a received frame; payloads alias the buffer like {@link LogEntry#parseFrom(ByteBuffer)}.
+         */
+        public static LogEntryBatch parseFrom(ByteBuffer data) throws InvalidProtocolBufferException {
+            return parseFrom(data, null);
+        }
+
+        /**
+         * Parse a batch, skipping entries the filter rejects before anything is allocated for them.
+         */
+        public static LogEntryBatch parseFrom(ByteBuffer data, EntryFilter filter) throws InvalidProtocolBufferException {
+            try {
+                CodedInputStream input = aliasingInput(data);
+                List<LogEntry> entries = new ArrayList<>();
+                int filtered = 0;
                 while (!input.isAtEnd()) {
                     int tag = input.readTag();
                     switch (tag) {
                         case 0:
-                            return entry;
-                        case 8: // field 1: log_type (enum)
-                            entry.logType = LogType.forNumber(input.readEnum());
-                            break;
-                        case 18: // field 2: event_payload (message)
-                            int eventLength = input.readRawVarint32();
-                            byte[] eventBytes = input.readRawBytes(eventLength);
-                            entry.eventPayload = Event.parseFrom(eventBytes);
-                            break;
-                        case 26: // field 3: heartbeat_payload (message)
-                            int hbLength = input.readRawVarint32();
-                            byte[] hbBytes = input.readRawBytes(hbLength);
-                            entry.heartbeatPayload = Heartbeat.parseFrom(hbBytes);
-                            break;
-                        case 34: // field 4: run_log (string)
-                            entry.runLog = input.readStringRequireUtf8();
+                            return new LogEntryBatch(entries, filtered);
+                        case BATCH_ENTRY_TAG: { // field 1: entries (repeated message)
+                            int length = input.readRawVarint32();
+                            if (filter != null && !filter.accept(data, data.position() + input.getTotalBytesRead(), length)) {
+                                input.skipRawBytes(length);
+                                filtered++;
+                                break;
+                            }
+                            int oldLimit = input.pushLimit(length);
+                            entries.add(LogEntry.parseFrom(input));
+                            input.popLimit(oldLimit);
                             break;
+                        }
                         default:
                             input.skipField(tag);
                             break;
                     }
                 }
-                return entry;
+                return new LogEntryBatch(entries, filtered);
+            } catch (InvalidProtocolBufferException e) {
+                throw e;
             } catch (IOException e) {
                 throw new InvalidProtocolBufferException(e);
             }
         }
 
+        public static LogEntryBatch of(List<LogEntry> entries) {
+            return new LogEntryBatch(Collections.unmodifiableList(new ArrayList<>(entries)), 0);
+        }
+
+        public int getSerializedSize() {
+            int size = 0;
+            for (LogEntry entry : entries) {
+                size += messageSize(1, entry.getSerializedSize());
+            }
+            return size;
+        }
+
+        public void writeTo(CodedOutputStream output) throws IOException {
+            for (LogEntry entry : entries) {
+                output.writeTag(1, WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(entry.getSerializedSize());
+                entry.writeTo(output);
+            }
+        }
+
+        public byte[] toByteArray() {
+            return ECaptureProto.toByteArray(getSerializedSize(), this::writeTo);
+        }
+
         @Override
         public String toString() {
-            return String.format("LogEntry{logType=%s, event=%s, heartbeat=%s, runLog=%s}",
-                    logType, eventPayload, heartbeatPayload, runLog != null ? "'" + runLog + "'" : "null");
+            return "LogEntryBatch{entries=" + entries.size() + "}";
+        }
+    }
+
+    /**
+     * Filter applied to the raw bytes of an encoded LogEntry before it is parsed.
+     */
+    public interface EntryFilter {
+        boolean accept(ByteBuffer buffer, int offset, int length);
+    }
+
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final byte BATCH_ENTRY_TAG = 10;
+
+    private interface Writer {
+        void writeTo(CodedOutputStream output) throws IOException;
+    }
+
+    /**
+     * Input over a received frame whose bytes fields are slices of the frame. The frame has to be
+     * wrapped as a ByteString first: CodedInputStream.newInstance(ByteBuffer) takes the buffer as
+     * mutable and copies every bytes field even with aliasing enabled.
+     */
+    private static CodedInputStream aliasingInput(ByteBuffer data) {
+        CodedInputStream input = UnsafeByteOperations.unsafeWrap(data).newCodedInput();
+        input.enableAliasing(true);
+        return input;
+    }
+
+    private static int messageSize(int fieldNumber, int messageSize) {
+        return CodedOutputStream.computeTagSize(fieldNumber)
+                + CodedOutputStream.computeUInt32SizeNoTag(messageSize)
+                + messageSize;
+    }
+
+    private static byte[] toByteArray(int size, Writer writer) {
+        byte[] result = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(result);
+        try {
+            writer.writeTo(output);
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Serializing to a byte array threw an IOException", e);
+        }
+        return result;
+    }
+
+    /**
+     * Read a varint from the buffer, returning -1 if it is truncated or too long.
+     */
+    private static int readVarint(ByteBuffer buf) {
+        int result = 0;
+        for (int shift = 0; shift < 32 && buf.hasRemaining(); shift += 7) {
+            byte b = buf.get();
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return result;
+            }
         }
+        return -1;
     }
 }
@@ -0,0 +1,55 @@
+package com.ecapture.burp.session;
+
+import com.ecapture.burp.event.Payload;
+import com.google.protobuf.ByteString;
+
+import java.nio.file.Path;
+
+/**
+ * Body stored in a session segment file. Holds only its location; the bytes are read
+ * from the segment file each time they are requested.
+ */
+final class SegmentPayload extends Payload {
+    
+    private final SessionStore store;
+    private final Path segment;
+    private final long offset;
+    private final int length;
+    
+    SegmentPayload(SessionStore store, Path segment, long offset, int length) {
+        this.store = store;
+        this.segment = segment;
+        this.offset = offset;
+        this.length = length;
+    }
+    
+    @Override
+    public int size() {
+        return length;
+    }
+    
+    @Override
+    public ByteString bytes() {
+        return store.read(segment, offset, length);
+    }
+    
+    @Override
+    public ByteString head(int maxBytes) {
+        return store.read(segment, offset, Math.min(length, maxBytes));
+    }
+    
+    @Override
+    public int copyTo(byte[] target, int offset, int count) {
+        return store.read(segment, this.offset, target, offset, Math.min(count, length));
+    }
+    
+    @Override
+    public boolean isOffHeap() {
+        return true;
+    }
+    
+    @Override
+    public int memorySize() {
+        return 0;
+    }
+}
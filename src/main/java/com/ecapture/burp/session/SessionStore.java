@@ -0,0 +1,582 @@
+package com.ecapture.burp.session;
+
+import burp.api.montoya.logging.Logging;
+import com.ecapture.burp.event.CapturedEvent;
+import com.ecapture.burp.event.HttpHead;
+import com.ecapture.burp.event.MatchedHttpPair;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persists completed pairs to a session directory so they survive a Burp restart.
+ * <p>
+ * Bodies go to append-only segment files; an index file holds, per pair, the segment and
+ * offset of its bodies plus the metadata the table needs. Reopening a session reads only the
+ * index, so the table is filled without touching any body. Bodies are read from the segments
+ * with positional reads when a row is selected or exported. Files are never kept mapped or
+ * open for reading, so old segments can be deleted on every platform.
+ * <p>
+ * Pairs are written by a background thread. Segments are rolled at a size limit; whole
+ * segments are deleted once the session exceeds its size or age limit, and the index is
+ * rewritten without their entries.
+ * <pre>
+ *   segment-NNNNNN.seg: magic, then per pair: request bytes, response bytes
+ *   session.idx:        magic, then per pair: int length, entry (see encodeEntry)
+ * </pre>
+ */
+public class SessionStore {
+    
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_SESSION_BYTES = 2L * 1024 * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MS = 7L * 24 * 60 * 60 * 1000;
+    
+    static final String INDEX_FILE = "session.idx";
+    static final String SEGMENT_PREFIX = "segment-";
+    static final String SEGMENT_EXTENSION = ".seg";
+    static final byte[] INDEX_MAGIC = "ECAPIDX1".getBytes(StandardCharsets.US_ASCII);
+    static final byte[] SEGMENT_MAGIC = "ECAPSEG1".getBytes(StandardCharsets.US_ASCII);
+    
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final long IDLE_POLL_MS = 200;
+    private static final byte FLAG_TIMED_OUT = 1;
+    
+    private final Logging logging;
+    private final BlockingQueue<PendingPair> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    
+    private volatile boolean open;
+    private volatile Path directory;
+    private Thread writer;
+    
+    // Stats
+    private final AtomicLong storedPairs = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong droppedPairs = new AtomicLong();
+    private final AtomicLong deletedSegments = new AtomicLong();
+    
+    public SessionStore(Logging logging) {
+        this.logging = logging;
+    }
+    
+    /**
+     * Open a session directory, creating it if needed. Returns the pairs already stored in it,
+     * built from the index only; new pairs are appended to the same session from now on.
+     */
+    public synchronized List<MatchedHttpPair> open(Path dir, long maxSegmentBytes, long maxSessionBytes,
+                                                   long maxAgeMs) throws IOException {
+        if (open) {
+            close();
+        }
+        awaitWriter();
+        Files.createDirectories(dir);
+        storedPairs.set(0);
+        storedBytes.set(0);
+        droppedPairs.set(0);
+        directory = dir;
+        
+        Writer task = new Writer(dir, maxSegmentBytes, maxSessionBytes, maxAgeMs);
+        task.compact();
+        List<MatchedHttpPair> restored = task.loadIndex();
+        task.openFiles();
+        
+        open = true;
+        writer = new Thread(task, "eCapture-Session");
+        writer.setDaemon(true);
+        writer.start();
+        logging.logToOutput("Session opened at " + dir + " (" + restored.size() + " stored pairs)");
+        return restored;
+    }
+    
+    /**
+     * Stop persisting new pairs. Pairs already queued are still written.
+     */
+    public synchronized void close() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        logging.logToOutput(String.format("Session closed: %d pairs written, %d dropped",
+                storedPairs.get(), droppedPairs.get()));
+    }
+    
+    private void awaitWriter() {
+        Thread previous = writer;
+        if (previous != null) {
+            try {
+                previous.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Pair listener: queue pairs that are complete or timed out. Does not block; the bodies are
+     * copied here because the in-memory store may evict them before the writer gets to them.
+     */
+    public void onPair(MatchedHttpPair pair) {
+        if (!open || !(pair.isComplete() || pair.isTimedOut()) || pair.getRequest() == null) {
+            return;
+        }
+        ByteString request = pair.getRequest().getPayloadBytes();
+        ByteString response = pair.getResponse() != null ? pair.getResponse().getPayloadBytes() : ByteString.EMPTY;
+        if (!queue.offer(new PendingPair(pair, request, response))) {
+            droppedPairs.incrementAndGet();
+        }
+    }
+    
+    /**
+     * Read a body from a segment, or an empty ByteString if the segment is gone.
+     */
+    ByteString read(Path segment, long offset, int length) {
+        if (length == 0) {
+            return ByteString.EMPTY;
+        }
+        byte[] bytes = new byte[length];
+        // The array is not used after this, so the ByteString may own it
+        return read(segment, offset, bytes, 0, length) == length ? UnsafeByteOperations.unsafeWrap(bytes) : ByteString.EMPTY;
+    }
+    
+    /**
+     * Read length bytes at offset of a segment into target. Returns the number read: length,
+     * or 0 if the segment could not be read.
+     */
+    int read(Path segment, long offset, byte[] target, int targetOffset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(target, targetOffset, length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + (buffer.position() - targetOffset)) < 0) {
+                    throw new EOFException("segment ends before offset " + (offset + length));
+                }
+            }
+            return length;
+        } catch (IOException | RuntimeException e) {
+            logging.logToError("Failed to read session segment " + segment.getFileName() + ": " + e.getMessage());
+            return 0;
+        }
+    }
+    
+    static Path segmentPath(Path dir, int segmentId) {
+        return dir.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segmentId, SEGMENT_EXTENSION));
+    }
+    
+    public boolean isOpen() {
+        return open;
+    }
+    
+    public Path getDirectory() {
+        return directory;
+    }
+    
+    // Getters for stats
+    public long getStoredPairs() {
+        return storedPairs.get();
+    }
+    
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+    
+    public long getDroppedPairs() {
+        return droppedPairs.get();
+    }
+    
+    public long getDeletedSegments() {
+        return deletedSegments.get();
+    }
+    
+    private static final class PendingPair {
+        final MatchedHttpPair pair;
+        final ByteString request;
+        final ByteString response;
+        
+        PendingPair(MatchedHttpPair pair, ByteString request, ByteString response) {
+            this.pair = pair;
+            this.request = request;
+            this.response = response;
+        }
+    }
+    
+    /**
+     * Writer thread state: the open segment and index, and the retention limits.
+     */
+    private final class Writer implements Runnable {
+        private final Path dir;
+        private final long maxSegmentBytes;
+        private final long maxSessionBytes;
+        private final long maxAgeMs;
+        private OutputStream segmentOut;
+        private OutputStream indexOut;
+        // Index entries are held back until the bodies they point to are flushed
+        private final ByteArrayOutputStream pendingIndex = new ByteArrayOutputStream(64 * 1024);
+        private int segmentId;
+        private long segmentSize;
+        
+        Writer(Path dir, long maxSegmentBytes, long maxSessionBytes, long maxAgeMs) {
+            this.dir = dir;
+            this.maxSegmentBytes = maxSegmentBytes;
+            this.maxSessionBytes = maxSessionBytes;
+            this.maxAgeMs = maxAgeMs;
+        }
+        
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    PendingPair pending = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                    if (pending == null) {
+                        if (!open) {
+                            break;
+                        }
+                        flush();
+                        continue;
+                    }
+                    write(pending);
+                }
+            } catch (IOException e) {
+                open = false;
+                logging.logToError("Session write failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeFiles();
+            }
+        }
+        
+        private void write(PendingPair pending) throws IOException {
+            int length = pending.request.size() + pending.response.size();
+            if (segmentSize > SEGMENT_MAGIC.length && segmentSize + length > maxSegmentBytes) {
+                roll();
+            }
+            
+            // Bodies first, so the index never points past the end of a segment
+            long offset = segmentSize;
+            pending.request.writeTo(segmentOut);
+            pending.response.writeTo(segmentOut);
+            segmentSize += length;
+            
+            byte[] entry = encodeEntry(pending, segmentId, offset);
+            writeInt(pendingIndex, entry.length);
+            pendingIndex.write(entry);
+            storedPairs.incrementAndGet();
+            storedBytes.addAndGet(length);
+            if (pendingIndex.size() >= 64 * 1024) {
+                flush();
+            }
+        }
+        
+        private void roll() throws IOException {
+            closeFiles();
+            compact();
+            openFiles();
+        }
+        
+        /**
+         * Open a new segment after the highest existing one and the index for appending.
+         */
+        void openFiles() throws IOException {
+            segmentId = listSegments().isEmpty() ? 0 : listSegments().lastKey() + 1;
+            segmentOut = new BufferedOutputStream(Files.newOutputStream(segmentPath(dir, segmentId),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE), 256 * 1024);
+            segmentOut.write(SEGMENT_MAGIC);
+            segmentSize = SEGMENT_MAGIC.length;
+            
+            Path index = dir.resolve(INDEX_FILE);
+            boolean created = !Files.exists(index);
+            indexOut = new BufferedOutputStream(Files.newOutputStream(index,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND), 64 * 1024);
+            if (created) {
+                indexOut.write(INDEX_MAGIC);
+            }
+        }
+        
+        private void flush() throws IOException {
+            if (segmentOut != null) {
+                segmentOut.flush();
+                pendingIndex.writeTo(indexOut);
+                pendingIndex.reset();
+                indexOut.flush();
+            }
+        }
+        
+        private void closeFiles() {
+            try {
+                if (segmentOut != null) {
+                    flush();
+                    segmentOut.close();
+                    indexOut.close();
+                }
+            } catch (IOException e) {
+                logging.logToError("Failed to close session files: " + e.getMessage());
+            }
+            segmentOut = null;
+            indexOut = null;
+        }
+        
+        private TreeMap<Integer, Path> listSegments() throws IOException {
+            TreeMap<Integer, Path> segments = new TreeMap<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_EXTENSION)) {
+                for (Path path : stream) {
+                    String name = path.getFileName().toString();
+                    try {
+                        int id = Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                                name.length() - SEGMENT_EXTENSION.length()));
+                        segments.put(id, path);
+                    } catch (NumberFormatException e) {
+                        // Not one of ours
+                    }
+                }
+            }
+            return segments;
+        }
+        
+        /**
+         * Delete the oldest segments while the session is over its size or age limit,
+         * then rewrite the index without their entries. The segment being written is kept.
+         */
+        void compact() throws IOException {
+            TreeMap<Integer, Path> segments = listSegments();
+            long total = 0;
+            for (Path path : segments.values()) {
+                total += Files.size(path);
+            }
+            
+            long now = System.currentTimeMillis();
+            List<Integer> deleted = new ArrayList<>();
+            while (segments.size() > 1) {
+                Map.Entry<Integer, Path> oldest = segments.firstEntry();
+                long size = Files.size(oldest.getValue());
+                boolean overSize = maxSessionBytes > 0 && total > maxSessionBytes;
+                boolean overAge = maxAgeMs > 0
+                        && now - Files.getLastModifiedTime(oldest.getValue()).toMillis() > maxAgeMs;
+                if (!overSize && !overAge) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(oldest.getValue());
+                } catch (IOException e) {
+                    // E.g. still open in another program on Windows; keep it and retry at the next roll
+                    logging.logToError("Could not delete session segment " + oldest.getValue().getFileName()
+                            + ": " + e.getMessage());
+                    break;
+                }
+                segments.pollFirstEntry();
+                deleted.add(oldest.getKey());
+                total -= size;
+            }
+            if (deleted.isEmpty()) {
+                return;
+            }
+            deletedSegments.addAndGet(deleted.size());
+            
+            // Rewrite the index keeping entries of the remaining segments
+            Path index = dir.resolve(INDEX_FILE);
+            Path rewritten = dir.resolve(INDEX_FILE + ".tmp");
+            ByteBuffer data = readIndex(index);
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(rewritten,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                out.write(INDEX_MAGIC);
+                while (data != null && data.remaining() >= 4) {
+                    int length = data.getInt();
+                    if (length < 4 || length > data.remaining()) {
+                        break;
+                    }
+                    int entrySegment = data.getInt(data.position());
+                    if (segments.containsKey(entrySegment)) {
+                        writeInt(out, length);
+                        byte[] entry = new byte[length];
+                        data.get(entry);
+                        out.write(entry);
+                    } else {
+                        data.position(data.position() + length);
+                    }
+                }
+            }
+            Files.move(rewritten, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logging.logToOutput("Session compacted: deleted " + deleted.size() + " old segment(s)");
+        }
+        
+        /**
+         * Build the stored pairs from the index. Bodies are not read.
+         */
+        List<MatchedHttpPair> loadIndex() throws IOException {
+            List<MatchedHttpPair> pairs = new ArrayList<>();
+            ByteBuffer data = readIndex(dir.resolve(INDEX_FILE));
+            if (data == null) {
+                return pairs;
+            }
+            TreeMap<Integer, Path> segments = listSegments();
+            while (data.remaining() >= 4) {
+                int length = data.getInt();
+                if (length < 4 || length > data.remaining()) {
+                    // A session closed mid-write ends with a partial entry
+                    break;
+                }
+                ByteBuffer entry = data.slice();
+                entry.limit(length);
+                data.position(data.position() + length);
+                try {
+                    MatchedHttpPair pair = decodeEntry(entry, segments);
+                    if (pair != null) {
+                        pairs.add(pair);
+                    }
+                } catch (RuntimeException e) {
+                    logging.logToError("Skipping corrupt session index entry: " + e.getMessage());
+                }
+            }
+            return pairs;
+        }
+        
+        /**
+         * Read the index past its magic, or return null if there is no valid index. Read rather
+         * than mapped: a mapping would keep the file from being replaced by compact() on Windows.
+         */
+        private ByteBuffer readIndex(Path index) throws IOException {
+            if (!Files.exists(index)) {
+                return null;
+            }
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(index));
+            for (byte b : INDEX_MAGIC) {
+                if (!data.hasRemaining() || data.get() != b) {
+                    throw new IOException("Not an eCapture session index: " + index);
+                }
+            }
+            return data;
+        }
+    }
+    
+    /**
+     * Index entry: int segment, long offset, int requestLength, int responseLength, byte flags,
+     * pair uuid, source name, then the request and response metadata (see writeEvent).
+     */
+    private static byte[] encodeEntry(PendingPair pending, int segmentId, long offset) throws IOException {
+        MatchedHttpPair pair = pending.pair;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(segmentId);
+        out.writeLong(offset);
+        out.writeInt(pending.request.size());
+        out.writeInt(pending.response.size());
+        out.writeByte(pair.isTimedOut() ? FLAG_TIMED_OUT : 0);
+        writeString(out, pair.getUuid());
+        writeString(out, pair.getSourceName());
+        writeEvent(out, pair.getRequest());
+        writeEvent(out, pair.getResponse());
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private static void writeEvent(DataOutputStream out, CapturedEvent event) throws IOException {
+        out.writeBoolean(event != null);
+        if (event == null) {
+            return;
+        }
+        HttpHead head = event.getHead();
+        out.writeLong(event.getTimestamp());
+        writeString(out, event.getUuid());
+        writeString(out, event.getSrcIp());
+        out.writeInt(event.getSrcPort());
+        writeString(out, event.getDstIp());
+        out.writeInt(event.getDstPort());
+        out.writeLong(event.getPid());
+        writeString(out, event.getProcessName());
+        out.writeInt(event.getEventType().getCode());
+        out.writeInt(event.getLength());
+        writeString(out, head.getMethod());
+        writeString(out, event.isRequest() ? event.getUrl() : null);
+        writeString(out, head.getHost());
+        writeString(out, head.getStatus());
+    }
+    
+    private MatchedHttpPair decodeEntry(ByteBuffer entry, TreeMap<Integer, Path> segments) {
+        Path segment = segments.get(entry.getInt());
+        if (segment == null) {
+            return null;
+        }
+        long offset = entry.getLong();
+        int requestLength = entry.getInt();
+        int responseLength = entry.getInt();
+        byte flags = entry.get();
+        
+        MatchedHttpPair pair = new MatchedHttpPair(readString(entry));
+        String source = readString(entry);
+        pair.setRequest(readEvent(entry, source, new SegmentPayload(this, segment, offset, requestLength)));
+        pair.setResponse(readEvent(entry, source, new SegmentPayload(this, segment, offset + requestLength, responseLength)));
+        pair.setTimedOut((flags & FLAG_TIMED_OUT) != 0);
+        return pair;
+    }
+    
+    private static CapturedEvent readEvent(ByteBuffer entry, String source, SegmentPayload payload) {
+        if (entry.get() == 0) {
+            return null;
+        }
+        long timestamp = entry.getLong();
+        String uuid = readString(entry);
+        String srcIp = readString(entry);
+        int srcPort = entry.getInt();
+        String dstIp = readString(entry);
+        int dstPort = entry.getInt();
+        long pid = entry.getLong();
+        String processName = readString(entry);
+        int type = entry.getInt();
+        int length = entry.getInt();
+        HttpHead head = HttpHead.of(readString(entry), readString(entry), readString(entry), readString(entry));
+        return CapturedEvent.restore(source, timestamp, uuid, srcIp, srcPort, dstIp, dstPort, pid, processName,
+                type, length, payload, head);
+    }
+    
+    /**
+     * Length-prefixed UTF-8; length -1 encodes null.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
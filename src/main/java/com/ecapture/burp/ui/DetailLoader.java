@@ -0,0 +1,138 @@
+package com.ecapture.burp.ui;
+
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.logging.Logging;
+import com.ecapture.burp.event.MatchedHttpPair;
+import com.ecapture.burp.event.MontoyaMessages;
+
+import javax.swing.*;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Builds the editor content of the selected pair off the EDT.
+ * <p>
+ * Each selection supersedes the previous one: loads still queued for an older selection are
+ * skipped, and a result that arrives after the selection moved on is discarded. After the
+ * selected pair, the neighbouring rows are built into the message cache, so moving through the
+ * table with the arrow keys finds them ready. Bodies over the preview limit are shown cut
+ * short until the full body is asked for.
+ */
+public class DetailLoader {
+    
+    public static final int DEFAULT_PREVIEW_BYTES = 1024 * 1024;
+    
+    /**
+     * Editor content of one pair.
+     */
+    public static final class Detail {
+        final MatchedHttpPair pair;
+        final HttpRequest request;
+        final HttpResponse response;
+        // Request or response cut to the preview limit
+        final boolean truncated;
+        
+        Detail(MatchedHttpPair pair, HttpRequest request, HttpResponse response, boolean truncated) {
+            this.pair = pair;
+            this.request = request;
+            this.response = response;
+            this.truncated = truncated;
+        }
+    }
+    
+    private final MontoyaMessages messages;
+    private final Logging logging;
+    private final ExecutorService executor;
+    // Bumped by every selection; work for an older one is dropped
+    private final AtomicLong generation = new AtomicLong();
+    private volatile int previewBytes = DEFAULT_PREVIEW_BYTES;
+    
+    public DetailLoader(MontoyaMessages messages, Logging logging) {
+        this.messages = messages;
+        this.logging = logging;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "eCapture-Detail");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Load a pair for the editors and prefetch its neighbours. onLoaded runs on the EDT,
+     * unless another load or cancel() came first.
+     *
+     * @param full load whole bodies instead of previews
+     */
+    public void load(MatchedHttpPair pair, boolean full, List<MatchedHttpPair> neighbours, Consumer<Detail> onLoaded) {
+        long current = generation.incrementAndGet();
+        executor.execute(() -> {
+            if (generation.get() != current) {
+                return;
+            }
+            Detail detail;
+            try {
+                detail = build(pair, full);
+            } catch (Exception e) {
+                logging.logToError("Error loading details: " + e.getMessage());
+                return;
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (generation.get() == current) {
+                    onLoaded.accept(detail);
+                }
+            });
+            
+            for (MatchedHttpPair neighbour : neighbours) {
+                if (generation.get() != current) {
+                    return;
+                }
+                prefetch(neighbour);
+            }
+        });
+    }
+    
+    /**
+     * Drop pending work, e.g. when the selection is cleared.
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+    }
+    
+    public int getPreviewBytes() {
+        return previewBytes;
+    }
+    
+    public void setPreviewBytes(int previewBytes) {
+        this.previewBytes = Math.max(1024, previewBytes);
+    }
+    
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+    
+    private Detail build(MatchedHttpPair pair, boolean full) {
+        int limit = previewBytes;
+        if (full || !MontoyaMessages.exceeds(pair, limit)) {
+            return new Detail(pair, messages.request(pair), messages.response(pair), false);
+        }
+        return new Detail(pair, messages.requestPreview(pair, limit), messages.responsePreview(pair, limit), true);
+    }
+    
+    /**
+     * Warm the message cache for a pair that will be shown whole; previews are cheap to rebuild.
+     */
+    private void prefetch(MatchedHttpPair pair) {
+        try {
+            if (!MontoyaMessages.exceeds(pair, previewBytes)) {
+                messages.request(pair);
+            }
+        } catch (Exception e) {
+            logging.logToError("Error prefetching details: " + e.getMessage());
+        }
+    }
+}
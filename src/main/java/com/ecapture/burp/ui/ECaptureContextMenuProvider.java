@@ -1,18 +1,19 @@
 package com.ecapture.burp.ui;
 
 import burp.api.montoya.MontoyaApi;
-import burp.api.montoya.http.HttpService;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.logging.Logging;
 import burp.api.montoya.ui.contextmenu.ContextMenuEvent;
 import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
 import com.ecapture.burp.event.CapturedEvent;
 import com.ecapture.burp.event.MatchedHttpPair;
+import com.ecapture.burp.event.MontoyaMessages;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -132,8 +133,8 @@ public class ECaptureContextMenuProvider implements ContextMenuItemsProvider {
         }
         
         CapturedEvent request = pair.getRequest();
-        if (request.getPayload() != null) {
-            String requestStr = new String(request.getPayload());
+        if (request.getStoredPayload() != null) {
+            String requestStr = request.getPayloadBytes().toString(Charset.defaultCharset());
             copyToClipboard(requestStr);
         }
     }
@@ -148,8 +149,8 @@ public class ECaptureContextMenuProvider implements ContextMenuItemsProvider {
         }
         
         CapturedEvent response = pair.getResponse();
-        if (response.getPayload() != null) {
-            String responseStr = new String(response.getPayload());
+        if (response.getStoredPayload() != null) {
+            String responseStr = response.getPayloadBytes().toString(Charset.defaultCharset());
             copyToClipboard(responseStr);
         }
     }
@@ -183,32 +184,19 @@ public class ECaptureContextMenuProvider implements ContextMenuItemsProvider {
      */
     private HttpRequest buildHttpRequest(MatchedHttpPair pair) {
         CapturedEvent request = pair.getRequest();
-        if (request == null || request.getPayload() == null) {
+        if (request == null || request.getStoredPayload() == null) {
             return null;
         }
         
-        String host = pair.getHost();
-        
-        // Validate host
-        if (host == null || host.isEmpty() || host.equals("0.0.0.0") || host.equals("-")) {
-            logging.logToError("Cannot build request: invalid host '" + host + "'");
+        // Repeater needs a target
+        if (MontoyaMessages.service(pair) == null) {
+            logging.logToError("Cannot build request: invalid host '" + pair.getHost() + "'");
             return null;
         }
         
-        // Get port - default to 443 for common HTTPS hosts
-        int port = pair.getPort();
-        if (port <= 0) {
-            port = 443; // Default to HTTPS
-        }
-        boolean useHttps = (port == 443 || port == 8443);
-        
         try {
-            // Create HttpService
-            HttpService httpService = HttpService.httpService(host, port, useHttps);
-            
-            // Create HttpRequest with service and raw request string
-            String rawRequest = new String(request.getPayload());
-            return HttpRequest.httpRequest(httpService, rawRequest);
+            // Same byte-exact request as shown in the editor
+            return tab.getMessages().request(pair);
         } catch (Exception e) {
             logging.logToError("Error building HttpRequest: " + e.getMessage());
             return null;
@@ -9,24 +9,37 @@ import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
 import burp.api.montoya.ui.editor.HttpRequestEditor;
 import burp.api.montoya.ui.editor.HttpResponseEditor;
 import com.ecapture.burp.ECaptureBurpExtension;
+import com.ecapture.burp.event.BodyStore;
+import com.ecapture.burp.event.BusEvent;
 import com.ecapture.burp.event.CapturedEvent;
+import com.ecapture.burp.event.EventBus;
 import com.ecapture.burp.event.EventManager;
 import com.ecapture.burp.event.MatchedHttpPair;
+import com.ecapture.burp.event.MontoyaMessages;
+import com.ecapture.burp.event.PairIndex;
+import com.ecapture.burp.event.PairStore;
+import com.ecapture.burp.event.PayloadCompressor;
+import com.ecapture.burp.event.SiteMapSink;
 import com.ecapture.burp.websocket.ECaptureWebSocketClient;
+import com.ecapture.burp.websocket.SourceManager;
 import com.ecapture.burp.export.ExportManager;
+import com.ecapture.burp.ingest.CaptureFilter;
+import com.ecapture.burp.ingest.FrameRecorder;
+import com.ecapture.burp.ingest.IngestPipeline;
+import com.ecapture.burp.ingest.OverflowPolicy;
+import com.ecapture.burp.ingest.ReplaySource;
+import com.ecapture.burp.session.SessionStore;
 import com.ecapture.burp.ui.ColumnSelectorDialog;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.TitledBorder;
-import javax.swing.table.DefaultTableModel;
 import javax.swing.table.TableRowSorter;
 import java.awt.*;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Pattern;
 
 import static burp.api.montoya.ui.editor.EditorOptions.READ_ONLY;
 
@@ -37,8 +50,9 @@ public class ECaptureTab {
     
     private final MontoyaApi api;
     private final Logging logging;
-    private final ECaptureWebSocketClient wsClient;
+    private final SourceManager sourceManager;
     private final EventManager eventManager;
+    private final SessionStore sessionStore;
     
     private JPanel mainPanel;
     private JTextField urlField;
@@ -47,33 +61,42 @@ public class ECaptureTab {
     private JLabel statusLabel;
     private JLabel heartbeatLabel;
     private JLabel statsLabel;
+    private JLabel queueLabel;
+    private JLabel recordingLabel;
+    private JComboBox<OverflowPolicy> overflowPolicyBox;
+    private JToggleButton recordButton;
+    private JButton replayButton;
+    private JToggleButton sessionButton;
+    private volatile ReplaySource replaySource;
     
     private JTable eventTable;
-    private DefaultTableModel tableModel;
-    private TableRowSorter<DefaultTableModel> tableSorter;
+    private PairTableModel tableModel;
+    private TableRowSorter<PairTableModel> tableSorter;
+    private TableUpdateCoalescer tableUpdates;
     private JTextField searchField;
     
     // Burp native HTTP message editors (like Proxy History)
     private HttpRequestEditor requestEditor;
     private HttpResponseEditor responseEditor;
+    // Editor content is built off the EDT; large bodies are shown cut short until asked for
+    private DetailLoader detailLoader;
+    private JPanel truncatedPanel;
+    private JLabel truncatedLabel;
+    private MatchedHttpPair shownPair;
     
     private ECaptureContextMenuProvider contextMenuProvider;
     private final com.ecapture.burp.export.ExportManager exportManager = new com.ecapture.burp.export.ExportManager();
     private java.util.List<String> exportColumns = new java.util.ArrayList<>();
 
     // Table columns (add Protocol column)
-    private static final String[] COLUMN_NAMES = {
-            "#", "Time", "Proto", "Method", "Host", "URL", "Status", "Req Len", "Resp Len", "Process", "Complete"
-    };
+    private static final String[] COLUMN_NAMES = PairTableModel.COLUMN_NAMES;
     
-    // Map pair ID to table row index for updates
-    private final java.util.Map<String, Integer> pairToRowMap = new java.util.concurrent.ConcurrentHashMap<>();
-    
-    public ECaptureTab(MontoyaApi api, ECaptureWebSocketClient wsClient, EventManager eventManager) {
+    public ECaptureTab(MontoyaApi api, SourceManager sourceManager, EventManager eventManager, SessionStore sessionStore) {
         this.api = api;
         this.logging = api.logging();
-        this.wsClient = wsClient;
+        this.sourceManager = sourceManager;
         this.eventManager = eventManager;
+        this.sessionStore = sessionStore;
         exportColumns.addAll(java.util.Arrays.asList(COLUMN_NAMES));
 
         initializeUI();
@@ -99,8 +122,8 @@ public class ECaptureTab {
         mainSplit.setTopComponent(tablePanel);
         
         // Bottom - Request/Response split view using Burp's native editors
-        JSplitPane detailSplit = createDetailSplitPane();
-        mainSplit.setBottomComponent(detailSplit);
+        JPanel detailPanel = createDetailPanel();
+        mainSplit.setBottomComponent(detailPanel);
         
         mainPanel.add(mainSplit, BorderLayout.CENTER);
     }
@@ -112,8 +135,9 @@ public class ECaptureTab {
         JPanel connectionPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 5));
         connectionPanel.setBorder(new TitledBorder("Connection"));
         
-        connectionPanel.add(new JLabel("WebSocket URL:"));
+        connectionPanel.add(new JLabel("WebSocket URL(s):"));
         urlField = new JTextField(ECaptureBurpExtension.DEFAULT_WS_URL, 30);
+        urlField.setToolTipText("One or more eCapture endpoints, separated by commas");
         connectionPanel.add(urlField);
         
         connectButton = new JButton("Connect");
@@ -125,6 +149,62 @@ public class ECaptureTab {
         disconnectButton.setEnabled(false);
         connectionPanel.add(disconnectButton);
         
+        connectionPanel.add(new JLabel("On overflow:"));
+        overflowPolicyBox = new JComboBox<>(OverflowPolicy.values());
+        overflowPolicyBox.setSelectedItem(sourceManager.getPipeline().getOverflowPolicy());
+        overflowPolicyBox.setToolTipText("What to do with new frames when the ingestion queue is full");
+        overflowPolicyBox.addActionListener(e ->
+                sourceManager.getPipeline().setOverflowPolicy((OverflowPolicy) overflowPolicyBox.getSelectedItem()));
+        connectionPanel.add(overflowPolicyBox);
+        
+        JButton sourcesButton = new JButton("Sources");
+        sourcesButton.setToolTipText("Per-source throughput and health");
+        sourcesButton.addActionListener(e ->
+                new SourceStatsDialog(SwingUtilities.getWindowAncestor(mainPanel), sourceManager).setVisible(true));
+        connectionPanel.add(sourcesButton);
+        
+        JButton logsButton = new JButton("Logs");
+        logsButton.setToolTipText("Runtime logs sent by eCapture");
+        logsButton.addActionListener(e ->
+                new LogViewerDialog(SwingUtilities.getWindowAncestor(mainPanel), eventManager).setVisible(true));
+        connectionPanel.add(logsButton);
+        
+        JButton filterButton = new JButton("Capture Filter");
+        filterButton.setToolTipText("Drop unwanted events before they are decoded");
+        filterButton.addActionListener(e -> onCaptureFilterClicked());
+        connectionPanel.add(filterButton);
+        
+        recordButton = new JToggleButton("Record");
+        recordButton.setToolTipText("Write every received frame to rotating capture files");
+        recordButton.addActionListener(e -> onRecordToggled());
+        connectionPanel.add(recordButton);
+        
+        replayButton = new JButton("Replay");
+        replayButton.setToolTipText("Feed recorded capture files through the decoder again");
+        replayButton.addActionListener(e -> onReplayClicked());
+        connectionPanel.add(replayButton);
+        
+        sessionButton = new JToggleButton("Session");
+        sessionButton.setToolTipText("Save pairs to a session directory and reload the pairs already in it");
+        sessionButton.addActionListener(e -> onSessionToggled());
+        connectionPanel.add(sessionButton);
+        
+        JToggleButton compressButton = new JToggleButton("Compress");
+        compressButton.setToolTipText("Compress stored bodies larger than "
+                + PayloadCompressor.DEFAULT_MIN_SIZE / 1024 + " KB in the background");
+        compressButton.addActionListener(e -> eventManager.getCompressor().setEnabled(compressButton.isSelected()));
+        connectionPanel.add(compressButton);
+        
+        JButton retentionButton = new JButton("Retention");
+        retentionButton.setToolTipText("Limit how many pairs are kept (oldest are dropped first)");
+        retentionButton.addActionListener(e -> onRetentionClicked());
+        connectionPanel.add(retentionButton);
+        
+        JButton siteMapButton = new JButton("Site Map");
+        siteMapButton.setToolTipText("How completed pairs are added to Burp's Site Map");
+        siteMapButton.addActionListener(e -> onSiteMapClicked());
+        connectionPanel.add(siteMapButton);
+        
         JButton clearButton = new JButton("Clear");
         clearButton.addActionListener(e -> clearAll());
         connectionPanel.add(clearButton);
@@ -132,7 +212,7 @@ public class ECaptureTab {
         topPanel.add(connectionPanel, BorderLayout.WEST);
         
         // Status panel
-        JPanel statusPanel = new JPanel(new GridLayout(3, 1, 5, 2));
+        JPanel statusPanel = new JPanel(new GridLayout(5, 1, 5, 2));
         statusPanel.setBorder(new TitledBorder("Status"));
         
         statusLabel = new JLabel("● Disconnected");
@@ -145,6 +225,12 @@ public class ECaptureTab {
         statsLabel = new JLabel("Events: 0 | Pairs: 0 | Pending: 0");
         statusPanel.add(statsLabel);
         
+        queueLabel = new JLabel("Queue: 0 | Peak: 0 | Dropped: 0");
+        statusPanel.add(queueLabel);
+        
+        recordingLabel = new JLabel("Recording: off");
+        statusPanel.add(recordingLabel);
+        
         topPanel.add(statusPanel, BorderLayout.EAST);
         
         return topPanel;
@@ -192,17 +278,21 @@ public class ECaptureTab {
         exportCsvButton.addActionListener(e -> onExportCsvClicked());
         searchPanel.add(exportCsvButton);
 
+        searchPanel.add(new JLabel("Refresh:"));
+        JComboBox<Integer> refreshBox = new JComboBox<>(new Integer[]{50, 100, 250, 500, 1000});
+        refreshBox.setSelectedItem(TableUpdateCoalescer.DEFAULT_FLUSH_INTERVAL_MS);
+        refreshBox.setToolTipText("Milliseconds between table updates; changes in between are applied as one batch");
+        refreshBox.addActionListener(e -> tableUpdates.setFlushIntervalMs((Integer) refreshBox.getSelectedItem()));
+        searchPanel.add(refreshBox);
+
         panel.add(searchPanel, BorderLayout.NORTH);
         
-        // Table
-        tableModel = new DefaultTableModel(COLUMN_NAMES, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        // Table, reading its cells from the pair index
+        tableModel = new PairTableModel(eventManager.getPairStore());
+        tableUpdates = new TableUpdateCoalescer(tableModel, this::updateStats);
         
         eventTable = new JTable(tableModel);
+        PairTableModel.installRenderers(eventTable);
         // Allow multiple selection so user can select multiple rows to export
         eventTable.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
         eventTable.setAutoResizeMode(JTable.AUTO_RESIZE_SUBSEQUENT_COLUMNS);
@@ -219,6 +309,7 @@ public class ECaptureTab {
         eventTable.getColumnModel().getColumn(8).setPreferredWidth(60);  // Resp Len
         eventTable.getColumnModel().getColumn(9).setPreferredWidth(120); // Process
         eventTable.getColumnModel().getColumn(10).setPreferredWidth(60);  // Complete
+        eventTable.getColumnModel().getColumn(11).setPreferredWidth(150); // Source
 
         // Row sorter for filtering
         tableSorter = new TableRowSorter<>(tableModel);
@@ -238,9 +329,11 @@ public class ECaptureTab {
     }
     
     /**
-     * Create split pane for Request/Response using Burp's native HTTP editors.
+     * Create split pane for Request/Response using Burp's native HTTP editors,
+     * with a bar offering the full bodies when a preview is shown.
      */
-    private JSplitPane createDetailSplitPane() {
+    private JPanel createDetailPanel() {
+        detailLoader = new DetailLoader(eventManager.getMessages(), logging);
         // Create Burp's native HTTP request editor (read-only)
         requestEditor = api.userInterface().createHttpRequestEditor(READ_ONLY);
         
@@ -262,78 +355,63 @@ public class ECaptureTab {
         splitPane.setResizeWeight(0.5);
         splitPane.setDividerLocation(0.5);
         
-        return splitPane;
+        truncatedPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 2));
+        truncatedLabel = new JLabel();
+        truncatedPanel.add(truncatedLabel);
+        JButton loadFullButton = new JButton("Load full body");
+        loadFullButton.addActionListener(e -> {
+            MatchedHttpPair pair = shownPair;
+            if (pair != null) {
+                truncatedLabel.setText("Loading full body...");
+                detailLoader.load(pair, true, java.util.Collections.emptyList(), this::showDetail);
+            }
+        });
+        truncatedPanel.add(loadFullButton);
+        truncatedPanel.setVisible(false);
+        
+        JPanel detailPanel = new JPanel(new BorderLayout());
+        detailPanel.add(truncatedPanel, BorderLayout.NORTH);
+        detailPanel.add(splitPane, BorderLayout.CENTER);
+        return detailPanel;
     }
     
     private void setupListeners() {
         // Connect button
         connectButton.addActionListener(e -> {
-            String url = urlField.getText().trim();
-            if (url.isEmpty()) {
+            List<String> urls = SourceManager.parseEndpoints(urlField.getText());
+            if (urls.isEmpty()) {
                 JOptionPane.showMessageDialog(mainPanel, "Please enter WebSocket URL",
                         "Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
-            wsClient.connect(url);
+            sourceManager.connect(urls);
         });
         
         // Disconnect button
-        disconnectButton.addActionListener(e -> wsClient.disconnect());
-        
-        // WebSocket state listener
-        wsClient.setStateListener(state -> SwingUtilities.invokeLater(() -> {
-            switch (state) {
-                case CONNECTED:
-                    statusLabel.setText("● Connected");
-                    statusLabel.setForeground(new Color(76, 175, 80));
-                    connectButton.setEnabled(false);
-                    disconnectButton.setEnabled(true);
-                    urlField.setEnabled(false);
-                    break;
-                    
-                case CONNECTING:
-                    statusLabel.setText("● Connecting...");
-                    statusLabel.setForeground(new Color(255, 193, 7));
-                    connectButton.setEnabled(false);
-                    disconnectButton.setEnabled(true);
-                    break;
-                    
-                case RECONNECTING:
-                    statusLabel.setText("● Reconnecting...");
-                    statusLabel.setForeground(new Color(255, 152, 0));
-                    break;
-                    
-                case DISCONNECTED:
-                    statusLabel.setText("● Disconnected");
-                    statusLabel.setForeground(Color.GRAY);
-                    connectButton.setEnabled(true);
-                    disconnectButton.setEnabled(false);
-                    urlField.setEnabled(true);
-                    break;
-                    
-                case ERROR:
-                    statusLabel.setText("● Error");
-                    statusLabel.setForeground(Color.RED);
-                    break;
-            }
-        }));
-        
-        // Event manager listeners
-        eventManager.addPairListener(pair -> {
-            javax.swing.SwingUtilities.invokeLater(() -> {
-                try {
-                    updateTableSafe(pair);
-                    updateStats();
-                } catch (Exception e) {
-                    logging.logToError("Error in pair listener: " + e.getMessage());
-                    e.printStackTrace();
+        disconnectButton.addActionListener(e -> sourceManager.disconnectAll());
+        
+        EventBus bus = eventManager.getEventBus();
+        
+        // WebSocket state (aggregated over all sources); only the newest state matters
+        bus.subscribe("State", BusEvent.ConnectionStateChanged.class, EventBus.DeliveryMode.LATEST, 1,
+                event -> SwingUtilities.invokeLater(() -> showConnectionState(event.getState())));
+        
+        // Pair events are collected here and applied to the table in batches. A dropped event
+        // only delays a repaint: cells are read from the pair index, and rows follow the newest pair.
+        bus.subscribe("Table", BusEvent.PairEvent.class, EventBus.DeliveryMode.LATEST, EventBus.DEFAULT_CAPACITY,
+                event -> tableUpdates.pairChanged(event.getPair()));
+        tableUpdates.start();
+        
+        // eCapture logs go to Burp Output, one call per batch
+        bus.subscribe("Output", BusEvent.LogLines.class, EventBus.DeliveryMode.LATEST, 64, event -> {
+            StringBuilder output = new StringBuilder();
+            for (String line : event.getLines()) {
+                if (output.length() > 0) {
+                    output.append('\n');
                 }
-            });
-        });
-        
-        // eCapture logs go to Burp Output
-        eventManager.addLogListener(log -> {
-            logging.logToOutput("[eCapture] " + log.trim());
+                output.append("[eCapture] ").append(line.trim());
+            }
+            logging.logToOutput(output.toString());
         });
         
         // Search field - filter on Enter
@@ -344,58 +422,305 @@ public class ECaptureTab {
         statsTimer.start();
     }
     
-    /**
-     * Safely add or update a row in the table for the given pair.
-     */
-    private void updateTableSafe(MatchedHttpPair pair) {
-        try {
-            String pairId = pair.getUuid();
-            
-            // Check if this pair already has a row
-            Integer existingRow = pairToRowMap.get(pairId);
-            
-            if (existingRow != null && existingRow < tableModel.getRowCount()) {
-                // Update existing row (response arrived)
-                tableModel.setValueAt(pair.getStatusCode(), existingRow, 6);
-                tableModel.setValueAt(pair.getResponseLength(), existingRow, 8);
-                tableModel.setValueAt(pair.isComplete() ? "✓" : "...", existingRow, 10);
-
-            } else {
-                // Add new row
-                int rowNum = tableModel.getRowCount();
+    private void showConnectionState(ECaptureWebSocketClient.ConnectionState state) {
+        switch (state) {
+            case CONNECTED:
+                statusLabel.setText(sourceManager.getSourceCount() > 1
+                        ? String.format("● Connected (%d/%d)", sourceManager.getConnectedCount(), sourceManager.getSourceCount())
+                        : "● Connected");
+                statusLabel.setForeground(new Color(76, 175, 80));
+                connectButton.setEnabled(false);
+                disconnectButton.setEnabled(true);
+                urlField.setEnabled(false);
+                break;
                 
-                java.util.Vector<Object> rowData = new java.util.Vector<>();
-                rowData.add(rowNum + 1);
-                rowData.add(pair.getTimestamp());
-                rowData.add(pair.getProtocol());
-                rowData.add(pair.getMethod());
-                rowData.add(pair.getHost());
-                rowData.add(pair.getUrl());
-                rowData.add(pair.getStatusCode());
-                rowData.add(pair.getRequestLength());
-                rowData.add(pair.getResponseLength());
-                rowData.add(pair.getProcessInfo());
-                rowData.add(pair.isComplete() ? "✓" : "...");
+            case CONNECTING:
+                statusLabel.setText("● Connecting...");
+                statusLabel.setForeground(new Color(255, 193, 7));
+                connectButton.setEnabled(false);
+                disconnectButton.setEnabled(true);
+                break;
                 
-                tableModel.addRow(rowData);
-                pairToRowMap.put(pairId, rowNum);
+            case RECONNECTING:
+                statusLabel.setText("● Reconnecting...");
+                statusLabel.setForeground(new Color(255, 152, 0));
+                break;
                 
-            }
-            
-        } catch (Exception e) {
-            logging.logToError("Error in updateTableSafe: " + e.getMessage());
-            e.printStackTrace();
+            case DISCONNECTED:
+                statusLabel.setText("● Disconnected");
+                statusLabel.setForeground(Color.GRAY);
+                connectButton.setEnabled(true);
+                disconnectButton.setEnabled(false);
+                urlField.setEnabled(true);
+                break;
+                
+            case ERROR:
+                statusLabel.setText("● Error");
+                statusLabel.setForeground(Color.RED);
+                break;
         }
     }
     
     private void updateStats() {
-        statsLabel.setText(String.format("Events: %d | Pairs: %d | Pending: %d",
+        IngestPipeline pipeline = sourceManager.getPipeline();
+        long decodeBytes = pipeline.getDecoder().getDecodeBytesPerEvent();
+        long retainedBytes = eventManager.getRetainedBytesPerEvent();
+        statsLabel.setText(String.format("Events: %d | Pairs: %d | Pending: %d | Expired: %d | Idle released: %d (leaked: %d) | Decode: %s/event | Retained: %s/event",
                 eventManager.getTotalEventsReceived(),
                 eventManager.getTotalPairsMatched(),
-                eventManager.getPendingPairsCount()));
+                eventManager.getPendingPairsCount(),
+                eventManager.getExpiredRequestsCount(),
+                eventManager.getReleasedConnectionsCount(),
+                eventManager.getLeakedConnectionsCount(),
+                decodeBytes >= 0 ? decodeBytes + " B" : "-",
+                retainedBytes >= 0 ? retainedBytes + " B" : "-"));
+        PairStore store = eventManager.getPairStore();
+        PairIndex index = store.getIndex();
+        long[] statusClasses = index.countStatusClasses();
+        statsLabel.setText(statsLabel.getText() + String.format(" | Hosts: %d | 2xx/3xx/4xx/5xx: %d/%d/%d/%d",
+                index.getDistinctHosts(), statusClasses[2], statusClasses[3], statusClasses[4], statusClasses[5]));
+        queueLabel.setText(String.format("Queue: %d/%d | Peak: %d | Dropped: %d | Spilled: %d | Filtered: %d | Stored: %d pairs, %.1f MB (evicted: %d) | Off-heap: %.1f/%.1f MB",
+                pipeline.getDepth(),
+                pipeline.getCapacity(),
+                pipeline.getHighWaterMark(),
+                pipeline.getDroppedFrames(),
+                pipeline.getSpilledFrames(),
+                pipeline.getDecoder().getFilter().getRejectedCount(),
+                store.size(),
+                store.getPayloadBytes() / (1024.0 * 1024.0),
+                store.getEvictedCount(),
+                store.getArena().getLiveBytes() / (1024.0 * 1024.0),
+                store.getArena().getReservedBytes() / (1024.0 * 1024.0)));
+        BodyStore bodies = store.getBodyStore();
+        if (bodies.getLookups() > 0) {
+            queueLabel.setText(queueLabel.getText() + String.format(" | Dedup: %.0f%% hits, %d bodies, %.1f MB saved",
+                    bodies.getHitRate() * 100,
+                    bodies.getUniqueBodies(),
+                    bodies.getSavedBytes() / (1024.0 * 1024.0)));
+        }
+        PayloadCompressor compressor = eventManager.getCompressor();
+        if (compressor.isEnabled() || compressor.getCompressedCount() > 0) {
+            queueLabel.setText(queueLabel.getText() + String.format(" | Compressed: %d bodies, %.1fx, %.1f MB saved",
+                    compressor.getCompressedCount(),
+                    compressor.getRatio(),
+                    compressor.getSavedBytes() / (1024.0 * 1024.0)));
+        }
+        SiteMapSink siteMap = eventManager.getSiteMapSink();
+        if (siteMap.isEnabled() || siteMap.getSubmittedCount() > 0) {
+            queueLabel.setText(queueLabel.getText() + String.format(" | Site Map: %d sent, %d deduped, %d dropped",
+                    siteMap.getSubmittedCount(),
+                    siteMap.getDedupedCount(),
+                    siteMap.getDroppedCount()));
+        }
+        
+        FrameRecorder recorder = sourceManager.getRecorder();
+        String recording = recorder.isRecording()
+                ? String.format("Recording: %d frames, %.1f MB, %d dropped",
+                        recorder.getRecordedFrames(), recorder.getRecordedBytes() / (1024.0 * 1024.0), recorder.getDroppedFrames())
+                : "Recording: off";
+        ReplaySource replay = replaySource;
+        if (replay != null) {
+            recording += String.format(" | Replay: %d frames, %d events (%.0f events/s)%s",
+                    replay.getFramesReplayed(), replay.getEventsReplayed(), replay.getEventsPerSecond(),
+                    replay.isRunning() ? "" : " done");
+        }
+        if (sessionStore.isOpen()) {
+            recording += String.format(" | Session: %d pairs, %.1f MB written, %d dropped",
+                    sessionStore.getStoredPairs(), sessionStore.getStoredBytes() / (1024.0 * 1024.0),
+                    sessionStore.getDroppedPairs());
+        }
+        for (EventBus.Subscription<?> subscription : eventManager.getEventBus().getSubscriptions()) {
+            if (subscription.getLag() > 0 || subscription.getDropped() > 0 || subscription.getPublisherWaits() > 0) {
+                recording += String.format(" | %s: lag %d (peak %d), dropped %d, waits %d",
+                        subscription.getName(), subscription.getLag(), subscription.getHighWaterMark(),
+                        subscription.getDropped(), subscription.getPublisherWaits());
+            }
+        }
+        recordingLabel.setText(recording);
+    }
+    
+    private void onRecordToggled() {
+        FrameRecorder recorder = sourceManager.getRecorder();
+        if (!recordButton.isSelected()) {
+            recorder.stop();
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Record frames to directory");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showSaveDialog(mainPanel) != JFileChooser.APPROVE_OPTION) {
+            recordButton.setSelected(false);
+            return;
+        }
+        try {
+            recorder.start(chooser.getSelectedFile().toPath(), FrameRecorder.DEFAULT_MAX_FILE_BYTES);
+        } catch (Exception ex) {
+            recordButton.setSelected(false);
+            logging.logToError("Failed to start recording: " + ex.getMessage());
+            JOptionPane.showMessageDialog(mainPanel, "Failed to start recording: " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void onReplayClicked() {
+        ReplaySource running = replaySource;
+        if (running != null && running.isRunning()) {
+            running.stop();
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Replay capture files");
+        chooser.setMultiSelectionEnabled(true);
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter(
+                "eCapture recordings (*" + FrameRecorder.FILE_EXTENSION + ")", FrameRecorder.FILE_EXTENSION.substring(1)));
+        if (chooser.showOpenDialog(mainPanel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Object[] options = {"Original timing", "Max speed", "Cancel"};
+        int mode = JOptionPane.showOptionDialog(mainPanel, "Replay speed", "Replay",
+                JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE, null, options, options[0]);
+        if (mode != 0 && mode != 1) {
+            return;
+        }
+        
+        // Rotated files sort by name in recording order
+        java.util.List<java.nio.file.Path> files = new ArrayList<>();
+        for (File file : chooser.getSelectedFiles()) {
+            files.add(file.toPath());
+        }
+        files.sort(null);
+        
+        ReplaySource replay = new ReplaySource(logging, sourceManager.getPipeline(), files, mode == 0);
+        replay.setCompletionListener(() -> SwingUtilities.invokeLater(() -> replayButton.setText("Replay")));
+        replaySource = replay;
+        replayButton.setText("Stop Replay");
+        replay.start();
+    }
+    
+    private void onCaptureFilterClicked() {
+        CaptureFilter filter = sourceManager.getPipeline().getDecoder().getFilter();
+        Object input = JOptionPane.showInputDialog(mainPanel,
+                "Space separated terms, prefix with ! to exclude (empty = capture everything):\n" +
+                "  pname=curl,wget   pid=1234   port=443   type=1,3\n" +
+                "Example: pname=curl !port=80",
+                "Capture Filter", JOptionPane.PLAIN_MESSAGE, null, null, filter.getRulesText());
+        if (input == null) {
+            return;
+        }
+        try {
+            filter.setRules(input.toString());
+            logging.logToOutput("Capture filter set to: " + filter.getRulesText());
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(mainPanel, ex.getMessage(), "Invalid filter", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void onSessionToggled() {
+        if (!sessionButton.isSelected()) {
+            sessionStore.close();
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Open or create session directory");
+        chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+        if (chooser.showOpenDialog(mainPanel) != JFileChooser.APPROVE_OPTION) {
+            sessionButton.setSelected(false);
+            return;
+        }
+        java.nio.file.Path dir = chooser.getSelectedFile().toPath();
+        
+        // Reading the index can take a moment for large sessions; keep it off the EDT
+        Thread loader = new Thread(() -> {
+            try {
+                List<MatchedHttpPair> restored = sessionStore.open(dir, SessionStore.DEFAULT_MAX_SEGMENT_BYTES,
+                        SessionStore.DEFAULT_MAX_SESSION_BYTES, SessionStore.DEFAULT_MAX_AGE_MS);
+                int added = eventManager.restorePairs(restored);
+                if (added < restored.size()) {
+                    logging.logToOutput((restored.size() - added) + " stored pairs are already shown and were not added again");
+                }
+                SwingUtilities.invokeLater(() -> {
+                    tableModel.showAll();
+                    updateStats();
+                });
+            } catch (Exception ex) {
+                logging.logToError("Failed to open session: " + ex.getMessage());
+                SwingUtilities.invokeLater(() -> sessionButton.setSelected(false));
+            }
+        }, "eCapture-SessionLoad");
+        loader.setDaemon(true);
+        loader.start();
+    }
+    
+    private void onRetentionClicked() {
+        PairStore store = eventManager.getPairStore();
+        JTextField pairsField = new JTextField(String.valueOf(store.getMaxPairs()), 10);
+        JTextField megabytesField = new JTextField(String.valueOf(store.getMaxBytes() / (1024 * 1024)), 10);
+        JTextField minutesField = new JTextField(String.valueOf(store.getMaxAgeMs() / 60_000), 10);
+        
+        JPanel panel = new JPanel(new GridLayout(4, 2, 5, 5));
+        panel.add(new JLabel("Max pairs:"));
+        panel.add(pairsField);
+        panel.add(new JLabel("Max payload MB:"));
+        panel.add(megabytesField);
+        panel.add(new JLabel("Max age (minutes):"));
+        panel.add(minutesField);
+        panel.add(new JLabel("0 = unlimited"));
+        
+        int result = JOptionPane.showConfirmDialog(mainPanel, panel, "Pair Retention",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        try {
+            int maxPairs = Integer.parseInt(pairsField.getText().trim());
+            long maxBytes = Long.parseLong(megabytesField.getText().trim()) * 1024 * 1024;
+            long maxAgeMs = Long.parseLong(minutesField.getText().trim()) * 60_000;
+            store.setRetention(maxPairs, maxBytes, maxAgeMs);
+            tableModel.trimEvicted();
+            logging.logToOutput(String.format("Pair retention set to %d pairs, %d MB, %d min",
+                    maxPairs, maxBytes / (1024 * 1024), maxAgeMs / 60_000));
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(mainPanel, "Limits must be whole numbers", "Invalid retention", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void onSiteMapClicked() {
+        SiteMapSink sink = eventManager.getSiteMapSink();
+        JCheckBox enabledBox = new JCheckBox("Add completed pairs to the Site Map", sink.isEnabled());
+        JTextField rateField = new JTextField(String.valueOf(sink.getMaxPerSecond()), 10);
+        JCheckBox hashBox = new JCheckBox("Send again when the response body changes", sink.isHashResponses());
+        JCheckBox forgetBox = new JCheckBox("Forget requests already sent");
+        
+        JPanel panel = new JPanel(new GridLayout(5, 1, 5, 5));
+        panel.add(enabledBox);
+        JPanel ratePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        ratePanel.add(new JLabel("Max pairs per second (0 = unlimited):"));
+        ratePanel.add(rateField);
+        panel.add(ratePanel);
+        panel.add(hashBox);
+        panel.add(forgetBox);
+        panel.add(new JLabel("Requests with the same method, host, path and status are sent once"));
+        
+        int result = JOptionPane.showConfirmDialog(mainPanel, panel, "Site Map",
+                JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result != JOptionPane.OK_OPTION) {
+            return;
+        }
+        try {
+            int maxPerSecond = Integer.parseInt(rateField.getText().trim());
+            sink.setMaxPerSecond(maxPerSecond);
+            sink.setEnabled(enabledBox.isSelected());
+            sink.setHashResponses(hashBox.isSelected());
+            if (forgetBox.isSelected()) {
+                sink.clear();
+            }
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(mainPanel, "Rate must be a whole number", "Invalid rate", JOptionPane.ERROR_MESSAGE);
+        }
     }
     
     private void updateHeartbeatAndStats() {
+        tableModel.trimEvicted();
         long lastHeartbeat = eventManager.getLastHeartbeatTime();
         if (lastHeartbeat > 0) {
             long elapsed = (System.currentTimeMillis() - lastHeartbeat) / 1000;
@@ -416,55 +741,57 @@ public class ECaptureTab {
     }
     
     /**
-     * Show selected pair's request and response in Burp's native editors.
+     * Show selected pair's request and response in Burp's native editors. The messages are
+     * built off the EDT, and the rows next to the selection are prefetched.
      */
     private void showSelectedPairDetails() {
         int selectedRow = eventTable.getSelectedRow();
         if (selectedRow < 0) {
+            detailLoader.cancel();
             return;
         }
         
         // Convert view index to model index (for filtering)
         int modelRow = eventTable.convertRowIndexToModel(selectedRow);
         
-        List<MatchedHttpPair> pairs = eventManager.getMatchedPairs();
-        if (modelRow >= pairs.size()) {
+        MatchedHttpPair pair = tableModel.getPair(modelRow);
+        if (pair == null) {
+            detailLoader.cancel();
             return;
         }
         
-        MatchedHttpPair pair = pairs.get(modelRow);
-        
-        try {
-            // Build HttpRequest for the editor
-            HttpRequest httpRequest = null;
-            if (pair.getRequest() != null && pair.getRequest().getPayload() != null) {
-                String rawRequest = new String(pair.getRequest().getPayload());
-                httpRequest = HttpRequest.httpRequest(rawRequest);
+        java.util.List<MatchedHttpPair> neighbours = new java.util.ArrayList<>(2);
+        for (int viewRow : new int[]{selectedRow + 1, selectedRow - 1}) {
+            if (viewRow >= 0 && viewRow < eventTable.getRowCount()) {
+                MatchedHttpPair neighbour = tableModel.getPair(eventTable.convertRowIndexToModel(viewRow));
+                if (neighbour != null) {
+                    neighbours.add(neighbour);
+                }
             }
+        }
+        detailLoader.load(pair, false, neighbours, this::showDetail);
+    }
+    
+    /**
+     * Put loaded messages into the editors (EDT).
+     */
+    private void showDetail(DetailLoader.Detail detail) {
+        try {
+            shownPair = detail.pair;
             
-            // Build HttpResponse for the editor
-            HttpResponse httpResponse = null;
-            if (pair.getResponse() != null && pair.getResponse().getPayload() != null) {
-                String rawResponse = new String(pair.getResponse().getPayload());
-                httpResponse = HttpResponse.httpResponse(rawResponse);
-            }
+            // Set request in editor, or clear it if there is none
+            requestEditor.setRequest(detail.request != null ? detail.request : HttpRequest.httpRequest(""));
             
-            // Set request in editor
-            if (httpRequest != null) {
-                requestEditor.setRequest(httpRequest);
-            } else {
-                // Clear the editor if no request
-                requestEditor.setRequest(HttpRequest.httpRequest(""));
-            }
+            // Set response in editor, or clear it if there is none
+            responseEditor.setResponse(detail.response != null ? detail.response : HttpResponse.httpResponse(""));
             
-            // Set response in editor
-            if (httpResponse != null) {
-                responseEditor.setResponse(httpResponse);
-            } else {
-                // Clear the editor if no response
-                responseEditor.setResponse(HttpResponse.httpResponse(""));
+            if (detail.truncated) {
+                truncatedLabel.setText(String.format("Large body: showing the first %d KB (request %d KB, response %d KB)",
+                        detailLoader.getPreviewBytes() / 1024,
+                        detail.pair.getRequestLength() / 1024,
+                        detail.pair.getResponseLength() / 1024));
             }
-            
+            truncatedPanel.setVisible(detail.truncated);
         } catch (Exception e) {
             logging.logToError("Error showing details: " + e.getMessage());
         }
@@ -476,21 +803,26 @@ public class ECaptureTab {
         if (filterText.isEmpty()) {
             tableSorter.setRowFilter(null);
         } else {
-            try {
-                // Case-insensitive filter across multiple columns (Host, URL, Method, Process)
-                tableSorter.setRowFilter(RowFilter.regexFilter("(?i)" + Pattern.quote(filterText)));
-            } catch (Exception e) {
-                logging.logToError("Invalid filter pattern: " + e.getMessage());
-            }
+            // Case-insensitive match on Host, URL, Method, Process and Source, scanned from the pair index
+            PairIndex.TextFilter matcher = eventManager.getPairStore().getIndex().textFilter(filterText);
+            tableSorter.setRowFilter(new RowFilter<PairTableModel, Integer>() {
+                @Override
+                public boolean include(Entry<? extends PairTableModel, ? extends Integer> entry) {
+                    return matcher.matches(entry.getModel().getSequence(entry.getIdentifier()));
+                }
+            });
         }
     }
     
     private void clearAll() {
         eventManager.clear();
-        tableModel.setRowCount(0);
-        pairToRowMap.clear();
+        tableUpdates.reset();
+        tableModel.clear();
         
         // Clear editors
+        detailLoader.cancel();
+        shownPair = null;
+        truncatedPanel.setVisible(false);
         try {
             requestEditor.setRequest(HttpRequest.httpRequest(""));
             responseEditor.setResponse(HttpResponse.httpResponse(""));
@@ -511,12 +843,14 @@ public class ECaptureTab {
         }
         
         int modelRow = eventTable.convertRowIndexToModel(selectedRow);
-        List<MatchedHttpPair> pairs = eventManager.getMatchedPairs();
-        
-        if (modelRow < pairs.size()) {
-            return pairs.get(modelRow);
-        }
-        return null;
+        return tableModel.getPair(modelRow);
+    }
+    
+    /**
+     * Montoya messages of the pairs (for context menu).
+     */
+    public MontoyaMessages getMessages() {
+        return eventManager.getMessages();
     }
     
     /**
@@ -533,6 +867,14 @@ public class ECaptureTab {
         return mainPanel;
     }
     
+    /**
+     * Stop the tab's background work when the extension unloads.
+     */
+    public void shutdown() {
+        tableUpdates.stop();
+        detailLoader.shutdown();
+    }
+    
     /**
      * Get context menu provider.
      */
@@ -547,11 +889,10 @@ public class ECaptureTab {
         int[] selectedRows = eventTable.getSelectedRows();
         java.util.List<MatchedHttpPair> result = new java.util.ArrayList<>();
         if (selectedRows == null || selectedRows.length == 0) return result;
-        java.util.List<MatchedHttpPair> pairs = eventManager.getMatchedPairs();
         for (int viewRow : selectedRows) {
-            int modelRow = eventTable.convertRowIndexToModel(viewRow);
-            if (modelRow >= 0 && modelRow < pairs.size()) {
-                result.add(pairs.get(modelRow));
+            MatchedHttpPair pair = tableModel.getPair(eventTable.convertRowIndexToModel(viewRow));
+            if (pair != null) {
+                result.add(pair);
             }
         }
         return result;
@@ -595,7 +936,7 @@ public class ECaptureTab {
         if (res != JFileChooser.APPROVE_OPTION) return;
         File out = chooser.getSelectedFile();
         try {
-            exportManager.exportAsExcel(out, toExport, exportColumns);
+            exportManager.exportAsExcel(out, toExport, exportColumns, eventManager.getPairStore().getIndex());
             JOptionPane.showMessageDialog(mainPanel, "Exported CSV: " + out.getAbsolutePath());
         } catch (Exception ex) {
             logging.logToError("Export CSV failed: " + ex.getMessage());
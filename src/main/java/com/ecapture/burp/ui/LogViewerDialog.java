@@ -0,0 +1,120 @@
+package com.ecapture.burp.ui;
+
+import com.ecapture.burp.event.EventManager;
+import com.ecapture.burp.event.LogRing;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+
+/**
+ * Non-modal dialog showing eCapture runtime logs. The list reads lines straight from the
+ * log ring and only renders the visible rows, so the ring is never copied.
+ */
+public class LogViewerDialog extends JDialog {
+
+    private static final Integer[] CAPACITIES = {1024, 4096, 16384, 65536};
+
+    private final EventManager eventManager;
+    private final RingListModel model = new RingListModel();
+    private final JList<String> list;
+    private final JScrollPane scrollPane;
+    private final JLabel countLabel = new JLabel();
+    private final Timer refreshTimer;
+
+    public LogViewerDialog(Window owner, EventManager eventManager) {
+        super(owner, "eCapture Logs", ModalityType.MODELESS);
+        this.eventManager = eventManager;
+        setLayout(new BorderLayout(8, 8));
+
+        list = new JList<>(model);
+        list.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        // Fixed row height lets the list lay out without measuring every line
+        list.setFixedCellHeight(list.getFontMetrics(list.getFont()).getHeight() + 2);
+        scrollPane = new JScrollPane(list);
+        add(scrollPane, BorderLayout.CENTER);
+
+        JPanel bottom = new JPanel(new BorderLayout());
+        JPanel options = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        options.add(new JLabel("Keep last:"));
+        JComboBox<Integer> capacityBox = new JComboBox<>(CAPACITIES);
+        capacityBox.setSelectedItem(eventManager.getRuntimeLogs().capacity());
+        capacityBox.addActionListener(e -> {
+            eventManager.setRuntimeLogCapacity((Integer) capacityBox.getSelectedItem());
+            refresh();
+        });
+        options.add(capacityBox);
+        options.add(new JLabel("lines"));
+        options.add(countLabel);
+        bottom.add(options, BorderLayout.WEST);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton close = new JButton("Close");
+        close.addActionListener(e -> dispose());
+        buttons.add(close);
+        bottom.add(buttons, BorderLayout.EAST);
+        add(bottom, BorderLayout.SOUTH);
+
+        refreshTimer = new Timer(500, e -> refresh());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+
+        refresh();
+        refreshTimer.start();
+        setSize(900, 450);
+        setLocationRelativeTo(owner);
+    }
+
+    private void refresh() {
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        boolean atBottom = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+        LogRing ring = eventManager.getRuntimeLogs();
+        model.refresh(ring);
+        countLabel.setText(String.format("(%d of %d received)", model.getSize(), ring.getEndSequence()));
+        if (atBottom && model.getSize() > 0) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+
+    /**
+     * List model over the lines the ring held at the last refresh.
+     */
+    private static final class RingListModel extends AbstractListModel<String> {
+        private LogRing ring;
+        private long first;
+        private int size;
+
+        void refresh(LogRing ring) {
+            long previousFirst = first;
+            int previousSize = size;
+            this.ring = ring;
+            this.first = ring.getFirstSequence();
+            this.size = (int) (ring.getEndSequence() - first);
+            if (size > previousSize) {
+                fireIntervalAdded(this, previousSize, size - 1);
+            } else if (size < previousSize) {
+                fireIntervalRemoved(this, size, previousSize - 1);
+            }
+            // Rows shift when old lines are overwritten
+            if (first != previousFirst && size > 0) {
+                fireContentsChanged(this, 0, size - 1);
+            }
+        }
+
+        @Override
+        public int getSize() {
+            return size;
+        }
+
+        @Override
+        public String getElementAt(int index) {
+            String line = ring.get(first + index);
+            return line != null ? line : "";
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.ecapture.burp.ui;
+
+import com.ecapture.burp.event.MatchedHttpPair;
+import com.ecapture.burp.event.PairIndex;
+import com.ecapture.burp.event.PairStore;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Table model over the pair store. Row r is the pair with sequence number first + r; cells are
+ * read from the {@link PairIndex} when the table asks for them, so the model holds no per-row data.
+ * <p>
+ * Cell values are primitives or dictionary strings. The time and status columns are formatted
+ * by renderers at paint time, i.e. only for visible rows, with recent timestamps cached.
+ * <p>
+ * EDT only.
+ */
+public class PairTableModel extends AbstractTableModel {
+    
+    public static final String[] COLUMN_NAMES = {
+            "#", "Time", "Proto", "Method", "Host", "URL", "Status", "Req Len", "Resp Len", "Process", "Complete", "Source"
+    };
+    static final int TIME_COLUMN = 1;
+    static final int STATUS_COLUMN = 6;
+    
+    private static final Class<?>[] COLUMN_CLASSES = {
+            Long.class, Long.class, String.class, String.class, String.class, String.class,
+            Integer.class, Integer.class, Integer.class, String.class, String.class, String.class
+    };
+    
+    private final PairStore store;
+    private final PairIndex index;
+    // Rows cover sequences [first, end); # counts from numberBase
+    private long first;
+    private long end;
+    private long numberBase;
+    
+    public PairTableModel(PairStore store) {
+        this.store = store;
+        this.index = store.getIndex();
+        this.first = store.getFirstSequence();
+        this.end = first;
+        this.numberBase = first;
+    }
+    
+    @Override
+    public int getRowCount() {
+        return (int) (end - first);
+    }
+    
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+    
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+    
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return COLUMN_CLASSES[column];
+    }
+    
+    @Override
+    public Object getValueAt(int row, int column) {
+        long sequence = first + row;
+        switch (column) {
+            case 0: return sequence - numberBase + 1;
+            case 1: return index.getTimestamp(sequence);
+            case 2: return index.getProtocol(sequence);
+            case 3: return index.getMethod(sequence);
+            case 4: return index.getHost(sequence);
+            case 5: return index.getUrl(sequence);
+            case 6: return index.getStatus(sequence);
+            case 7: return index.getRequestLength(sequence);
+            case 8: return index.getResponseLength(sequence);
+            case 9: return index.getProcess(sequence);
+            case 10: return stateLabel(index.getState(sequence));
+            case 11: return index.getSource(sequence);
+            default: return null;
+        }
+    }
+    
+    private static String stateLabel(int state) {
+        switch (state) {
+            case PairIndex.STATE_COMPLETE: return "✓";
+            case PairIndex.STATE_TIMED_OUT: return "Timed out";
+            default: return "...";
+        }
+    }
+    
+    /**
+     * Pair store sequence number of a model row.
+     */
+    public long getSequence(int row) {
+        return first + row;
+    }
+    
+    /**
+     * Pair shown in a model row, or null if it was evicted.
+     */
+    public MatchedHttpPair getPair(int row) {
+        return row >= 0 && row < getRowCount() ? store.get(first + row) : null;
+    }
+    
+    /**
+     * Repaint the rows of the pairs with sequence numbers lowest..highest that are already shown.
+     */
+    void sequencesChanged(long lowest, long highest) {
+        long from = Math.max(lowest, first);
+        long to = Math.min(highest, end - 1);
+        if (from <= to) {
+            fireTableRowsUpdated((int) (from - first), (int) (to - first));
+        }
+    }
+    
+    /**
+     * Add rows for every pair stored so far.
+     */
+    public void showAll() {
+        showUpTo(store.getEndSequence());
+    }
+    
+    /**
+     * Add rows for the pairs before newEnd that are not shown yet, as one inserted range.
+     */
+    void showUpTo(long newEnd) {
+        newEnd = Math.min(newEnd, index.getEndSequence());
+        if (newEnd <= end) {
+            return;
+        }
+        int firstNewRow = getRowCount();
+        end = newEnd;
+        fireTableRowsInserted(firstNewRow, getRowCount() - 1);
+    }
+    
+    /**
+     * Remove the leading rows whose pairs were evicted from the pair store.
+     */
+    public void trimEvicted() {
+        long retained = Math.min(store.getFirstSequence(), end);
+        if (retained <= first) {
+            return;
+        }
+        int evicted = (int) (retained - first);
+        first = retained;
+        fireTableRowsDeleted(0, evicted - 1);
+    }
+    
+    /**
+     * Drop all rows after the pair store was cleared; numbering restarts at 1.
+     */
+    public void clear() {
+        first = store.getEndSequence();
+        end = first;
+        numberBase = first;
+        fireTableDataChanged();
+    }
+    
+    /**
+     * Install the renderers that format the time and status columns of visible rows.
+     */
+    public static void installRenderers(JTable table) {
+        table.getColumnModel().getColumn(TIME_COLUMN).setCellRenderer(new TimeRenderer());
+        table.getColumnModel().getColumn(STATUS_COLUMN).setCellRenderer(new StatusRenderer());
+    }
+    
+    /**
+     * Formats epoch seconds; neighbouring rows usually share a second, so formatted values are cached.
+     */
+    private static final class TimeRenderer extends DefaultTableCellRenderer {
+        private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        private static final int CACHE_SIZE = 256;
+        private final ZoneId zone = ZoneId.systemDefault();
+        private final Map<Long, String> formatted = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        
+        @Override
+        protected void setValue(Object value) {
+            if (!(value instanceof Long)) {
+                super.setValue(value);
+                return;
+            }
+            setText(formatted.computeIfAbsent((Long) value,
+                    seconds -> FORMAT.format(Instant.ofEpochSecond(seconds).atZone(zone))));
+        }
+    }
+    
+    /**
+     * Shows "-" for pairs without a response.
+     */
+    private static final class StatusRenderer extends DefaultTableCellRenderer {
+        StatusRenderer() {
+            setHorizontalAlignment(SwingConstants.LEFT);
+        }
+        
+        @Override
+        protected void setValue(Object value) {
+            setText(value instanceof Integer && (Integer) value > 0 ? value.toString() : "-");
+        }
+    }
+}
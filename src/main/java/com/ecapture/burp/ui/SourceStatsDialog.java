@@ -0,0 +1,95 @@
+package com.ecapture.burp.ui;
+
+import com.ecapture.burp.ingest.IngestSource;
+import com.ecapture.burp.websocket.ECaptureWebSocketClient;
+import com.ecapture.burp.websocket.SourceManager;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Non-modal dialog showing throughput and health of every connected eCapture source.
+ */
+public class SourceStatsDialog extends JDialog {
+
+    private static final String[] COLUMNS = {
+            "Source", "State", "Events/s", "Events", "Frames", "MB", "Reconnects", "Last Frame"
+    };
+
+    private final SourceManager sourceManager;
+    private final DefaultTableModel model;
+    private final Timer refreshTimer;
+    private final Map<IngestSource, Long> lastEventCounts = new HashMap<>();
+    private long lastRefreshTime = System.currentTimeMillis();
+
+    public SourceStatsDialog(Window owner, SourceManager sourceManager) {
+        super(owner, "eCapture Sources", ModalityType.MODELESS);
+        this.sourceManager = sourceManager;
+        setLayout(new BorderLayout(8, 8));
+
+        model = new DefaultTableModel(COLUMNS, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable table = new JTable(model);
+        table.getColumnModel().getColumn(0).setPreferredWidth(220);
+        add(new JScrollPane(table), BorderLayout.CENTER);
+
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        JButton close = new JButton("Close");
+        close.addActionListener(e -> dispose());
+        buttons.add(close);
+        add(buttons, BorderLayout.SOUTH);
+
+        refreshTimer = new Timer(1000, e -> refresh());
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                refreshTimer.stop();
+            }
+        });
+
+        refresh();
+        refreshTimer.start();
+        setSize(760, 300);
+        setLocationRelativeTo(owner);
+    }
+
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        double elapsedSeconds = Math.max(0.001, (now - lastRefreshTime) / 1000.0);
+        lastRefreshTime = now;
+
+        List<ECaptureWebSocketClient> clients = sourceManager.getClients();
+        model.setRowCount(0);
+        for (ECaptureWebSocketClient client : clients) {
+            IngestSource source = client.getSource();
+            if (source == null) {
+                continue;
+            }
+            long events = source.getEventsDecoded();
+            Long previous = lastEventCounts.put(source, events);
+            double rate = previous != null ? (events - previous) / elapsedSeconds : 0;
+            long lastFrame = source.getLastFrameTime();
+
+            model.addRow(new Object[]{
+                    source.getName(),
+                    client.getState(),
+                    String.format("%.1f", rate),
+                    events,
+                    source.getFramesReceived(),
+                    String.format("%.1f", source.getBytesReceived() / (1024.0 * 1024.0)),
+                    client.getTotalReconnects(),
+                    lastFrame > 0 ? ((now - lastFrame) / 1000) + "s ago" : "-"
+            });
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.ecapture.burp.ui;
+
+import com.ecapture.burp.event.MatchedHttpPair;
+
+import javax.swing.*;
+import java.util.Arrays;
+
+/**
+ * Collects pair changes from the ingestion threads and applies them to the table model in
+ * batches on the EDT, at most once per flush interval.
+ * <p>
+ * New pairs become one inserted row range; changed rows are de-duplicated (a pair that was
+ * added and completed in the same interval is painted once) and fired as contiguous ranges.
+ * The EDT cost per flush depends on how many rows changed, not on the ingest rate.
+ */
+public class TableUpdateCoalescer {
+    
+    public static final int DEFAULT_FLUSH_INTERVAL_MS = 100;
+    // Beyond this many changed rows per interval, one range from the lowest to the highest is fired
+    private static final int MAX_TRACKED_UPDATES = 4096;
+    
+    private final PairTableModel model;
+    private final Runnable afterFlush;
+    private final Timer timer;
+    
+    // Guarded by this
+    private long[] updated = new long[256];
+    private int updatedCount;
+    private long lowestUpdated = Long.MAX_VALUE;
+    private long highestUpdated = -1;
+    private long highestSeen = -1;
+    private boolean dirty;
+    
+    /**
+     * @param afterFlush run on the EDT after every flush that changed something
+     */
+    public TableUpdateCoalescer(PairTableModel model, Runnable afterFlush) {
+        this.model = model;
+        this.afterFlush = afterFlush;
+        this.timer = new Timer(DEFAULT_FLUSH_INTERVAL_MS, e -> flush());
+        timer.setCoalesce(true);
+    }
+    
+    public void start() {
+        timer.start();
+    }
+    
+    public void stop() {
+        timer.stop();
+    }
+    
+    public int getFlushIntervalMs() {
+        return timer.getDelay();
+    }
+    
+    public void setFlushIntervalMs(int intervalMs) {
+        timer.setDelay(Math.max(10, intervalMs));
+    }
+    
+    /**
+     * Record a new or changed pair; any thread.
+     */
+    public synchronized void pairChanged(MatchedHttpPair pair) {
+        long sequence = pair.getSequence();
+        if (sequence < 0) {
+            return;
+        }
+        dirty = true;
+        if (sequence > highestSeen) {
+            highestSeen = sequence;
+        }
+        lowestUpdated = Math.min(lowestUpdated, sequence);
+        highestUpdated = Math.max(highestUpdated, sequence);
+        if (updatedCount <= MAX_TRACKED_UPDATES) {
+            if (updatedCount == updated.length) {
+                updated = Arrays.copyOf(updated, updated.length * 2);
+            }
+            updated[updatedCount++] = sequence;
+        }
+    }
+    
+    /**
+     * Drop pending changes; call on the EDT when the table is cleared.
+     */
+    public synchronized void reset() {
+        updatedCount = 0;
+        lowestUpdated = Long.MAX_VALUE;
+        highestUpdated = -1;
+        highestSeen = -1;
+        dirty = false;
+    }
+    
+    private void flush() {
+        long[] changed;
+        int count;
+        long lowest;
+        long highest;
+        long newest;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            changed = updated;
+            count = updatedCount;
+            lowest = lowestUpdated;
+            highest = highestUpdated;
+            newest = highestSeen;
+            updated = new long[Math.max(256, Math.min(changed.length, MAX_TRACKED_UPDATES))];
+            updatedCount = 0;
+            lowestUpdated = Long.MAX_VALUE;
+            highestUpdated = -1;
+            dirty = false;
+        }
+        
+        // Rows that already exist are repainted; rows past the end arrive with the insert below
+        if (count > MAX_TRACKED_UPDATES) {
+            model.sequencesChanged(lowest, highest);
+        } else {
+            Arrays.sort(changed, 0, count);
+            int start = 0;
+            for (int i = 1; i <= count; i++) {
+                if (i == count || changed[i] > changed[i - 1] + 1) {
+                    model.sequencesChanged(changed[start], changed[i - 1]);
+                    start = i;
+                }
+            }
+        }
+        model.showUpTo(newest + 1);
+        afterFlush.run();
+    }
+}
@@ -2,16 +2,19 @@ package com.ecapture.burp.websocket;
 
 import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.logging.Logging;
-import com.ecapture.burp.event.CapturedEvent;
-import com.ecapture.burp.event.EventManager;
-import com.ecapture.burp.proto.ECaptureProto;
-import com.google.protobuf.InvalidProtocolBufferException;
-import org.java_websocket.client.WebSocketClient;
-import org.java_websocket.handshake.ServerHandshake;
+import com.ecapture.burp.ingest.FrameRecorder;
+import com.ecapture.burp.ingest.IngestPipeline;
+import com.ecapture.burp.ingest.IngestSource;
 
 import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
 import java.nio.ByteBuffer;
-import java.util.concurrent.Executors;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -19,26 +22,40 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 /**
- * WebSocket client for receiving events from eCapture.
- * Supports auto-reconnection.
+ * WebSocket client for receiving events from one eCapture endpoint.
+ * Supports auto-reconnection. Received frames are handed to the IngestPipeline
+ * so the listener never runs decoding or event processing itself.
+ * Instances are created by {@link SourceManager}, which shares one HttpClient (a single
+ * selector thread for every socket) and one reconnect scheduler between all endpoints.
+ * A connection that stays silent for longer than {@link #CONNECTION_LOST_SECONDS},
+ * pings included, is dropped and reconnected.
  */
 public class ECaptureWebSocketClient {
     
     private final MontoyaApi api;
     private final Logging logging;
-    private final EventManager eventManager;
+    private final IngestPipeline pipeline;
+    private final FrameRecorder recorder;
+    private final HttpClient httpClient;
+    private IngestSource source;
     
-    private WebSocketClient wsClient;
+    // The current connection attempt; callbacks of an older one are ignored
+    private volatile Connection connection;
     private String serverUrl;
     private final AtomicBoolean shouldReconnect;
     private final AtomicBoolean isConnecting;
     
-    // Auto-reconnect settings
+    // Auto-reconnect settings (scheduler is shared between sources)
     private final ScheduledExecutorService scheduler;
     private ScheduledFuture<?> reconnectTask;
-    private int reconnectAttempts;
+    private ScheduledFuture<?> keepAliveTask;
+    private volatile int reconnectAttempts;
+    private volatile long totalReconnects;
     private static final int MAX_RECONNECT_DELAY_SECONDS = 30;
     private static final int INITIAL_RECONNECT_DELAY_SECONDS = 2;
+    private static final int CONNECT_TIMEOUT_SECONDS = 10;
+    private static final int PING_INTERVAL_SECONDS = 30;
+    static final int CONNECTION_LOST_SECONDS = 2 * PING_INTERVAL_SECONDS;
     
     // Connection state listeners
     private Consumer<ConnectionState> stateListener;
@@ -53,17 +70,16 @@ public class ECaptureWebSocketClient {
     
     private volatile ConnectionState currentState = ConnectionState.DISCONNECTED;
     
-    public ECaptureWebSocketClient(MontoyaApi api, EventManager eventManager) {
+    public ECaptureWebSocketClient(MontoyaApi api, IngestPipeline pipeline, FrameRecorder recorder,
+                                   HttpClient httpClient, ScheduledExecutorService scheduler) {
         this.api = api;
         this.logging = api.logging();
-        this.eventManager = eventManager;
+        this.pipeline = pipeline;
+        this.recorder = recorder;
+        this.httpClient = httpClient;
         this.shouldReconnect = new AtomicBoolean(false);
         this.isConnecting = new AtomicBoolean(false);
-        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
-            Thread t = new Thread(r, "eCapture-Reconnect");
-            t.setDaemon(true);
-            return t;
-        });
+        this.scheduler = scheduler;
         this.reconnectAttempts = 0;
     }
     
@@ -76,8 +92,15 @@ public class ECaptureWebSocketClient {
         }
         
         this.serverUrl = url;
+        if (source == null) {
+            source = pipeline.registerSource(url);
+        }
         this.shouldReconnect.set(true);
         this.reconnectAttempts = 0;
+        if (keepAliveTask == null || keepAliveTask.isDone()) {
+            keepAliveTask = scheduler.scheduleWithFixedDelay(this::keepAlive,
+                    PING_INTERVAL_SECONDS, PING_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        }
         
         doConnect();
     }
@@ -93,12 +116,11 @@ public class ECaptureWebSocketClient {
         
         try {
             // Close existing connection if any
-            if (wsClient != null) {
-                try {
-                    wsClient.close();
-                } catch (Exception e) {
-                    // Ignore
-                }
+            Connection previous = connection;
+            Connection attempt = new Connection();
+            connection = attempt;
+            if (previous != null) {
+                previous.abort();
             }
             
             updateState(reconnectAttempts > 0 ? ConnectionState.RECONNECTING : ConnectionState.CONNECTING);
@@ -107,53 +129,17 @@ public class ECaptureWebSocketClient {
             logging.logToOutput("Connecting to eCapture at " + serverUrl + 
                     (reconnectAttempts > 0 ? " (attempt " + (reconnectAttempts + 1) + ")" : ""));
             
-            // Create WebSocket client with custom headers
-            java.util.Map<String, String> httpHeaders = new java.util.HashMap<>();
-            httpHeaders.put("Origin", "http://localhost");
-            
-            wsClient = new WebSocketClient(uri, httpHeaders) {
-                @Override
-                public void onOpen(ServerHandshake handshake) {
-                    logging.logToOutput("Connected to eCapture WebSocket server!");
-                    reconnectAttempts = 0;
-                    isConnecting.set(false);
-                    updateState(ConnectionState.CONNECTED);
-                }
-                
-                @Override
-                public void onMessage(String message) {
-                    // Text messages are not expected, but log them anyway
-                    // Received text message (unexpected)
-                }
-                
-                @Override
-                public void onMessage(ByteBuffer bytes) {
-                    handleBinaryMessage(bytes);
-                }
-                
-                @Override
-                public void onClose(int code, String reason, boolean remote) {
-                    logging.logToOutput("WebSocket closed: code=" + code + ", reason=" + reason + 
-                            ", remote=" + remote);
-                    isConnecting.set(false);
-                    
-                    if (shouldReconnect.get()) {
-                        updateState(ConnectionState.RECONNECTING);
-                        scheduleReconnect();
-                    } else {
-                        updateState(ConnectionState.DISCONNECTED);
-                    }
-                }
-                
-                @Override
-                public void onError(Exception ex) {
-                    logging.logToError("WebSocket error: " + ex.getMessage());
-                    isConnecting.set(false);
-                    updateState(ConnectionState.ERROR);
-                }
-            };
-            
-            wsClient.connect();
+            httpClient.newWebSocketBuilder()
+                    .header("Origin", "http://localhost")
+                    .connectTimeout(Duration.ofSeconds(CONNECT_TIMEOUT_SECONDS))
+                    .buildAsync(uri, attempt)
+                    .whenComplete((webSocket, error) -> {
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                                    ? error.getCause() : error;
+                            attempt.failed(cause);
+                        }
+                    });
             
         } catch (Exception e) {
             logging.logToError("Failed to create WebSocket connection: " + e.getMessage());
@@ -167,73 +153,163 @@ public class ECaptureWebSocketClient {
     }
     
     /**
-     * Handle binary protobuf message from eCapture.
+     * Listener of one connection attempt. Binary messages may arrive in parts; the parts are
+     * copied as they come, since the client reuses their buffers, and joined into one buffer per
+     * message that the decoder can keep and slice.
      */
-    private void handleBinaryMessage(ByteBuffer bytes) {
-        try {
-            byte[] data = new byte[bytes.remaining()];
-            bytes.get(data);
-            
-            ECaptureProto.LogEntry logEntry = ECaptureProto.LogEntry.parseFrom(data);
-            
-            switch (logEntry.getLogType()) {
-                case LOG_TYPE_HEARTBEAT:
-                    handleHeartbeat(logEntry.getHeartbeatPayload());
-                    break;
-                    
-                case LOG_TYPE_PROCESS_LOG:
-                    handleProcessLog(logEntry.getRunLog());
-                    break;
-                    
-                case LOG_TYPE_EVENT:
-                    handleEvent(logEntry.getEventPayload());
-                    break;
-                    
-                default:
-                    logging.logToOutput("Unknown log type: " + logEntry.getLogType());
+    private final class Connection implements WebSocket.Listener {
+        private volatile WebSocket webSocket;
+        private volatile long lastReceivedNanos = System.nanoTime();
+        private final List<ByteBuffer> parts = new ArrayList<>();
+        private int partBytes;
+        private boolean closed;
+        
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            this.webSocket = webSocket;
+            if (connection != this) {
+                webSocket.abort();
+                return;
             }
-            
-        } catch (InvalidProtocolBufferException e) {
-            logging.logToError("Failed to parse protobuf message: " + e.getMessage());
+            logging.logToOutput("Connected to eCapture WebSocket server " + serverUrl);
+            reconnectAttempts = 0;
+            isConnecting.set(false);
+            updateState(ConnectionState.CONNECTED);
+            webSocket.request(1);
         }
-    }
-    
-    private void handleHeartbeat(ECaptureProto.Heartbeat heartbeat) {
-        if (heartbeat != null) {
-            eventManager.processHeartbeat(
-                    heartbeat.getTimestamp(),
-                    heartbeat.getCount(),
-                    heartbeat.getMessage()
-            );
+        
+        @Override
+        public CompletionStage<?> onBinary(WebSocket webSocket, ByteBuffer data, boolean last) {
+            lastReceivedNanos = System.nanoTime();
+            if (!last || !parts.isEmpty()) {
+                parts.add(copy(data));
+                partBytes += data.remaining();
+            }
+            if (last) {
+                ByteBuffer message;
+                if (parts.isEmpty()) {
+                    message = copy(data);
+                } else {
+                    message = ByteBuffer.allocate(partBytes);
+                    for (ByteBuffer part : parts) {
+                        message.put(part);
+                    }
+                    message.flip();
+                    parts.clear();
+                    partBytes = 0;
+                }
+                if (connection == this) {
+                    recorder.record(source, message);
+                    pipeline.submit(source, message);
+                }
+            }
+            webSocket.request(1);
+            return null;
+        }
+        
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            // Text messages are not expected
+            lastReceivedNanos = System.nanoTime();
+            webSocket.request(1);
+            return null;
+        }
+        
+        @Override
+        public CompletionStage<?> onPing(WebSocket webSocket, ByteBuffer message) {
+            // The client answers with a pong itself
+            lastReceivedNanos = System.nanoTime();
+            webSocket.request(1);
+            return null;
+        }
+        
+        @Override
+        public CompletionStage<?> onPong(WebSocket webSocket, ByteBuffer message) {
+            lastReceivedNanos = System.nanoTime();
+            webSocket.request(1);
+            return null;
+        }
+        
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            logging.logToOutput("WebSocket " + serverUrl + " closed: code=" + statusCode + ", reason=" + reason);
+            // Answer the close, then drop the socket
+            webSocket.sendClose(WebSocket.NORMAL_CLOSURE, "").whenComplete((ws, e) -> webSocket.abort());
+            closed();
+            return null;
+        }
+        
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            failed(error);
+        }
+        
+        void failed(Throwable error) {
+            if (connection == this) {
+                // Connection failures often carry no message, only their type
+                logging.logToError("WebSocket error (" + serverUrl + "): "
+                        + (error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName()));
+                updateState(ConnectionState.ERROR);
+            }
+            closed();
+        }
+        
+        /**
+         * The connection is gone; reconnect unless it was replaced or disconnected meanwhile.
+         */
+        void closed() {
+            synchronized (ECaptureWebSocketClient.this) {
+                if (closed || connection != this) {
+                    closed = true;
+                    return;
+                }
+                closed = true;
+                connection = null;
+            }
+            isConnecting.set(false);
+            if (shouldReconnect.get()) {
+                updateState(ConnectionState.RECONNECTING);
+                scheduleReconnect();
+            } else {
+                updateState(ConnectionState.DISCONNECTED);
+            }
+        }
+        
+        void abort() {
+            WebSocket ws = webSocket;
+            if (ws != null) {
+                ws.abort();
+            }
+        }
+        
+        boolean isOpen() {
+            WebSocket ws = webSocket;
+            return ws != null && !closed && !ws.isInputClosed() && !ws.isOutputClosed();
         }
     }
     
-    private void handleProcessLog(String log) {
-        if (log != null && !log.isEmpty()) {
-            eventManager.processRuntimeLog(log);
-        }
+    private static ByteBuffer copy(ByteBuffer data) {
+        ByteBuffer copy = ByteBuffer.allocate(data.remaining());
+        copy.put(data.duplicate());
+        return copy.flip();
     }
     
-    private void handleEvent(ECaptureProto.Event event) {
-        if (event == null) {
+    /**
+     * Ping the server, or reconnect if nothing arrived for CONNECTION_LOST_SECONDS.
+     * Runs on the shared scheduler.
+     */
+    private void keepAlive() {
+        Connection current = connection;
+        if (current == null || !current.isOpen()) {
             return;
         }
-        
-        CapturedEvent capturedEvent = new CapturedEvent(
-                event.getTimestamp(),
-                event.getUuid(),
-                event.getSrcIp(),
-                event.getSrcPort(),
-                event.getDstIp(),
-                event.getDstPort(),
-                event.getPid(),
-                event.getPname(),
-                event.getType(),
-                event.getLength(),
-                event.getPayload().toByteArray()
-        );
-        
-        eventManager.processEvent(capturedEvent);
+        if (System.nanoTime() - current.lastReceivedNanos > TimeUnit.SECONDS.toNanos(CONNECTION_LOST_SECONDS)) {
+            logging.logToError("No data from " + serverUrl + " for " + CONNECTION_LOST_SECONDS + " seconds, reconnecting");
+            current.abort();
+            current.closed();
+        } else {
+            current.webSocket.sendPing(ByteBuffer.allocate(0));
+        }
     }
     
     /**
@@ -256,8 +332,9 @@ public class ECaptureWebSocketClient {
         );
         
         reconnectAttempts++;
+        totalReconnects++;
         
-        logging.logToOutput("Scheduling reconnect in " + delay + " seconds...");
+        logging.logToOutput("Scheduling reconnect to " + serverUrl + " in " + delay + " seconds...");
         
         reconnectTask = scheduler.schedule(this::doConnect, delay, TimeUnit.SECONDS);
     }
@@ -268,29 +345,38 @@ public class ECaptureWebSocketClient {
     public void disconnect() {
         shouldReconnect.set(false);
         
-        // Cancel any pending reconnect
+        // Cancel any pending reconnect and the pings
         if (reconnectTask != null) {
             reconnectTask.cancel(false);
         }
+        if (keepAliveTask != null) {
+            keepAliveTask.cancel(false);
+        }
         
         // Close WebSocket connection
-        if (wsClient != null) {
+        Connection current = connection;
+        connection = null;
+        WebSocket ws = current != null ? current.webSocket : null;
+        if (ws != null) {
             try {
-                wsClient.close();
+                ws.sendClose(WebSocket.NORMAL_CLOSURE, "").whenComplete((w, e) -> ws.abort());
             } catch (Exception e) {
                 logging.logToError("Error closing WebSocket: " + e.getMessage());
+                ws.abort();
             }
         }
+        isConnecting.set(false);
         
         updateState(ConnectionState.DISCONNECTED);
-        logging.logToOutput("Disconnected from eCapture");
+        logging.logToOutput("Disconnected from eCapture at " + serverUrl);
     }
     
     /**
      * Check if currently connected.
      */
     public boolean isConnected() {
-        return wsClient != null && wsClient.isOpen();
+        Connection current = connection;
+        return current != null && current.isOpen();
     }
     
     /**
@@ -318,6 +404,17 @@ public class ECaptureWebSocketClient {
         }
     }
     
+    /**
+     * Get the pipeline source (throughput counters) of this endpoint, or null before the first connect.
+     */
+    public IngestSource getSource() {
+        return source;
+    }
+    
+    public long getTotalReconnects() {
+        return totalReconnects;
+    }
+    
     /**
      * Get current server URL.
      */
@@ -326,11 +423,13 @@ public class ECaptureWebSocketClient {
     }
     
     /**
-     * Shutdown the client and scheduler.
+     * Shutdown the client and release its pipeline source.
      */
     public void shutdown() {
         disconnect();
-        scheduler.shutdownNow();
+        if (source != null) {
+            pipeline.unregisterSource(source);
+        }
     }
 }
 
@@ -0,0 +1,209 @@
+package com.ecapture.burp.websocket;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.logging.Logging;
+import com.ecapture.burp.event.BusEvent;
+import com.ecapture.burp.event.EventBus;
+import com.ecapture.burp.ingest.FrameRecorder;
+import com.ecapture.burp.ingest.IngestPipeline;
+
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Manages connections to one or more eCapture endpoints.
+ * Every endpoint gets its own ECaptureWebSocketClient (connection and reconnect state),
+ * while the HttpClient, the reconnect scheduler and the decode workers of the IngestPipeline
+ * are shared. All sockets are served by the HttpClient's one selector thread, and messages are
+ * delivered on a pool that only holds threads while a listener runs, so the thread count does
+ * not grow with the number of sources.
+ */
+public class SourceManager {
+    
+    private final MontoyaApi api;
+    private final Logging logging;
+    private final IngestPipeline pipeline;
+    private final FrameRecorder recorder;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService listenerExecutor;
+    private final HttpClient httpClient;
+    private final List<ECaptureWebSocketClient> clients = new CopyOnWriteArrayList<>();
+    
+    // Aggregated connection state changes are published here
+    private final EventBus eventBus;
+    
+    public SourceManager(MontoyaApi api, IngestPipeline pipeline, EventBus eventBus) {
+        this.api = api;
+        this.logging = api.logging();
+        this.pipeline = pipeline;
+        this.eventBus = eventBus;
+        this.recorder = new FrameRecorder(logging);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "eCapture-Reconnect");
+            t.setDaemon(true);
+            return t;
+        });
+        this.listenerExecutor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "eCapture-WebSocket");
+            t.setDaemon(true);
+            return t;
+        });
+        this.httpClient = HttpClient.newBuilder().executor(listenerExecutor).build();
+    }
+    
+    /**
+     * Split a user supplied list of endpoints (comma, semicolon or whitespace separated).
+     */
+    public static List<String> parseEndpoints(String text) {
+        List<String> urls = new ArrayList<>();
+        if (text == null) {
+            return urls;
+        }
+        for (String part : text.split("[,;\\s]+")) {
+            String url = part.trim();
+            if (!url.isEmpty() && !urls.contains(url)) {
+                urls.add(url);
+            }
+        }
+        return urls;
+    }
+    
+    /**
+     * Connect to every endpoint in the list that is not connected or connecting yet, and
+     * disconnect and forget the endpoints that are no longer in the list.
+     */
+    public void connect(List<String> urls) {
+        for (ECaptureWebSocketClient client : clients) {
+            if (!urls.contains(client.getServerUrl())) {
+                client.shutdown();
+                clients.remove(client);
+            }
+        }
+        for (String url : urls) {
+            ECaptureWebSocketClient client = findClient(url);
+            if (client == null) {
+                client = new ECaptureWebSocketClient(api, pipeline, recorder, httpClient, scheduler);
+                client.setStateListener(state -> publishState());
+                clients.add(client);
+            } else {
+                ECaptureWebSocketClient.ConnectionState state = client.getState();
+                if (state == ECaptureWebSocketClient.ConnectionState.CONNECTED
+                        || state == ECaptureWebSocketClient.ConnectionState.CONNECTING) {
+                    continue;
+                }
+            }
+            client.connect(url);
+        }
+        publishState();
+        logging.logToOutput("Connecting to " + urls.size() + " eCapture source(s)");
+    }
+    
+    /**
+     * Disconnect and forget all endpoints.
+     */
+    public void disconnectAll() {
+        for (ECaptureWebSocketClient client : clients) {
+            client.shutdown();
+        }
+        clients.clear();
+        publishState();
+    }
+    
+    private ECaptureWebSocketClient findClient(String url) {
+        for (ECaptureWebSocketClient client : clients) {
+            if (url.equals(client.getServerUrl())) {
+                return client;
+            }
+        }
+        return null;
+    }
+    
+    public List<ECaptureWebSocketClient> getClients() {
+        return new ArrayList<>(clients);
+    }
+    
+    public int getConnectedCount() {
+        int connected = 0;
+        for (ECaptureWebSocketClient client : clients) {
+            if (client.getState() == ECaptureWebSocketClient.ConnectionState.CONNECTED) {
+                connected++;
+            }
+        }
+        return connected;
+    }
+    
+    public int getSourceCount() {
+        return clients.size();
+    }
+    
+    /**
+     * Combined state of all sources: connected if any source is connected,
+     * otherwise the most "active" state among them.
+     */
+    public ECaptureWebSocketClient.ConnectionState getState() {
+        boolean connecting = false;
+        boolean reconnecting = false;
+        boolean error = false;
+        for (ECaptureWebSocketClient client : clients) {
+            switch (client.getState()) {
+                case CONNECTED:
+                    return ECaptureWebSocketClient.ConnectionState.CONNECTED;
+                case CONNECTING:
+                    connecting = true;
+                    break;
+                case RECONNECTING:
+                    reconnecting = true;
+                    break;
+                case ERROR:
+                    error = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (connecting) {
+            return ECaptureWebSocketClient.ConnectionState.CONNECTING;
+        }
+        if (reconnecting) {
+            return ECaptureWebSocketClient.ConnectionState.RECONNECTING;
+        }
+        if (error) {
+            return ECaptureWebSocketClient.ConnectionState.ERROR;
+        }
+        return ECaptureWebSocketClient.ConnectionState.DISCONNECTED;
+    }
+    
+    /**
+     * Publish the aggregated state whenever any source changes state.
+     */
+    private void publishState() {
+        eventBus.publish(new BusEvent.ConnectionStateChanged(getState()));
+    }
+    
+    public IngestPipeline getPipeline() {
+        return pipeline;
+    }
+    
+    /**
+     * Recorder that tees the frames of all sources into capture files.
+     */
+    public FrameRecorder getRecorder() {
+        return recorder;
+    }
+    
+    /**
+     * Stop recording, disconnect all sources and stop the shared threads. The HttpClient's
+     * selector thread ends by itself once the client is no longer referenced.
+     */
+    public void shutdown() {
+        recorder.stop();
+        disconnectAll();
+        scheduler.shutdownNow();
+        listenerExecutor.shutdownNow();
+    }
+}
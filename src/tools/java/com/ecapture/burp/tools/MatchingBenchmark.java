@@ -0,0 +1,147 @@
+package com.ecapture.burp.tools;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.logging.Logging;
+import com.ecapture.burp.event.CapturedEvent;
+import com.ecapture.burp.event.EventManager;
+import com.google.protobuf.ByteString;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures EventManager matching throughput for an increasing number of feeding threads.
+ * Each thread owns a disjoint set of connections, as the ingestion lanes do, and feeds their
+ * request/response events in order. Runs outside Burp against a no-op MontoyaApi. The measured
+ * cost is matching, storing the pairs and queueing their bus events; Site Map submission and
+ * the other bus subscribers run on their own threads and are not part of it.
+ * <p>
+ * Usage: {@code gradle matchingBenchmark -PbenchArgs="[--pairs 20000] [--connections 256] [--rounds 3]
+ * [--threads N]"}. Threads go up to the core count unless --threads is given; more threads than
+ * cores only show the cost of contention, not a speedup.
+ */
+public class MatchingBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pairs = 20000;
+        int connections = 256;
+        int rounds = 3;
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--pairs": pairs = Integer.parseInt(args[i + 1]); break;
+                case "--connections": connections = Integer.parseInt(args[i + 1]); break;
+                case "--rounds": rounds = Integer.parseInt(args[i + 1]); break;
+                case "--threads": maxThreads = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%d pairs over %d connections, %d cores%n", pairs, connections, cores);
+        // Untimed round, so the first measured thread count does not pay for JIT compilation
+        run(generate(pairs, connections), maxThreads);
+        System.out.println("threads  events/s  speedup");
+
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double best = 0;
+            for (int round = 0; round < rounds; round++) {
+                // Fresh events every round: stored events have their payloads moved off-heap
+                best = Math.max(best, run(generate(pairs, connections), threads));
+            }
+            if (threads == 1) {
+                baseline = best;
+            }
+            System.out.printf("%7d  %8.0f  %6.2fx%n", threads, best, best / baseline);
+        }
+    }
+
+    private static double run(List<List<CapturedEvent>> eventsByConnection, int threads) throws InterruptedException {
+        EventManager eventManager = new EventManager(noOpApi());
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        long events = 0;
+
+        for (int t = 0; t < threads; t++) {
+            List<List<CapturedEvent>> owned = new ArrayList<>();
+            for (int c = t; c < eventsByConnection.size(); c += threads) {
+                owned.add(eventsByConnection.get(c));
+                events += eventsByConnection.get(c).size();
+            }
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Interleave connections like live traffic does
+                int longest = owned.stream().mapToInt(List::size).max().orElse(0);
+                for (int i = 0; i < longest; i++) {
+                    for (List<CapturedEvent> connection : owned) {
+                        if (i < connection.size()) {
+                            eventManager.processEvent(connection.get(i));
+                        }
+                    }
+                }
+            }, "bench-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        eventManager.shutdown();
+
+        if (eventManager.getTotalEventsReceived() != events) {
+            throw new IllegalStateException("Lost events: " + eventManager.getTotalEventsReceived() + " of " + events);
+        }
+        return events * 1e9 / elapsed;
+    }
+
+    private static List<List<CapturedEvent>> generate(int pairs, int connections) {
+        List<List<CapturedEvent>> eventsByConnection = new ArrayList<>();
+        for (int c = 0; c < connections; c++) {
+            eventsByConnection.add(new ArrayList<>());
+        }
+        for (int sequence = 0; sequence < pairs; sequence++) {
+            int connection = sequence % connections;
+            List<CapturedEvent> events = eventsByConnection.get(connection);
+            events.add(event(connection, 0, 1, "GET /item/" + sequence + " HTTP/1.1\r\n"
+                    + "Host: example.com\r\nUser-Agent: bench\r\n\r\n"));
+            events.add(event(connection, 1, 3, "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: application/json\r\nContent-Length: 2\r\n\r\n{}"));
+        }
+        return eventsByConnection;
+    }
+
+    private static CapturedEvent event(int connection, int direction, int type, String raw) {
+        int pid = 4000 + connection;
+        String uuid = "sock:" + pid + "_" + (pid + 1) + "_bench_" + (10 + connection) + "_" + direction
+                + "_10.0.0.2:" + (40000 + connection) + "-93.184.216.34:443_0";
+        ByteString payload = ByteString.copyFrom(raw, StandardCharsets.UTF_8);
+        return new CapturedEvent("bench", System.currentTimeMillis() / 1000, uuid,
+                "10.0.0.2", 40000 + connection, "93.184.216.34", 443,
+                pid, "bench", type, payload.size(), payload);
+    }
+
+    /**
+     * MontoyaApi whose logging() swallows everything and whose other services are null.
+     */
+    private static MontoyaApi noOpApi() {
+        Logging logging = (Logging) Proxy.newProxyInstance(MatchingBenchmark.class.getClassLoader(),
+                new Class<?>[]{Logging.class}, (proxy, method, args) -> null);
+        return (MontoyaApi) Proxy.newProxyInstance(MatchingBenchmark.class.getClassLoader(),
+                new Class<?>[]{MontoyaApi.class},
+                (proxy, method, args) -> method.getName().equals("logging") ? logging : null);
+    }
+}
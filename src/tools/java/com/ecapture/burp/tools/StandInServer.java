@@ -0,0 +1,183 @@
+package com.ecapture.burp.tools;
+
+import com.ecapture.burp.proto.ECaptureProto;
+import com.google.protobuf.ByteString;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local stand-in for the eCapture eCaptureQ WebSocket service, for development and load tests.
+ * Emits synthetic HTTP request/response events plus a heartbeat every second, either one
+ * LogEntry per frame or grouped into LogEntryBatch frames.
+ * <p>
+ * Usage: {@code gradle standInServer -PserverArgs="[--port 28257] [--rate 1000] [--batch 1] [--connections 8]"}
+ * where rate is request/response pairs per second and batch is entries per frame (1 = unbatched).
+ */
+public class StandInServer extends WebSocketServer {
+
+    private static final long TICK_MS = 10;
+
+    private final int pairsPerSecond;
+    private final int batchSize;
+    private final int connections;
+    private volatile boolean running = true;
+
+    public StandInServer(int port, int pairsPerSecond, int batchSize, int connections) {
+        super(new InetSocketAddress("127.0.0.1", port));
+        this.pairsPerSecond = pairsPerSecond;
+        this.batchSize = Math.max(1, batchSize);
+        this.connections = Math.max(1, connections);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 28257;
+        int rate = 1000;
+        int batch = 1;
+        int connections = 8;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--rate": rate = Integer.parseInt(args[i + 1]); break;
+                case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                case "--connections": connections = Integer.parseInt(args[i + 1]); break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        StandInServer server = new StandInServer(port, rate, batch, connections);
+        server.setReuseAddr(true);
+        server.start();
+        System.out.println("Stand-in eCapture server on ws://127.0.0.1:" + port + "/ (" + rate
+                + " pairs/s, " + (batch > 1 ? "batches of " + batch : "single-entry frames") + ")");
+        server.generate();
+    }
+
+    /**
+     * Generate traffic until the server is stopped.
+     */
+    public void generate() throws InterruptedException {
+        List<ECaptureProto.LogEntry> pending = new ArrayList<>(batchSize);
+        long sequence = 0;
+        long heartbeats = 0;
+        long nextHeartbeat = System.currentTimeMillis();
+        double carry = 0;
+
+        while (running) {
+            long now = System.currentTimeMillis();
+            if (now >= nextHeartbeat) {
+                send(ECaptureProto.LogEntry.ofHeartbeat(
+                        ECaptureProto.Heartbeat.of(now / 1000, ++heartbeats, "stand-in")), pending);
+                nextHeartbeat = now + 1000;
+            }
+
+            carry += pairsPerSecond * TICK_MS / 1000.0;
+            int pairs = (int) carry;
+            carry -= pairs;
+            for (int i = 0; i < pairs; i++, sequence++) {
+                int connection = (int) (sequence % connections);
+                send(ECaptureProto.LogEntry.ofEvent(requestEvent(connection, sequence)), pending);
+                send(ECaptureProto.LogEntry.ofEvent(responseEvent(connection, sequence)), pending);
+            }
+            flush(pending);
+            Thread.sleep(TICK_MS);
+        }
+    }
+
+    private void send(ECaptureProto.LogEntry entry, List<ECaptureProto.LogEntry> pending) {
+        if (batchSize == 1) {
+            broadcast(entry.toByteArray());
+            return;
+        }
+        pending.add(entry);
+        if (pending.size() >= batchSize) {
+            flush(pending);
+        }
+    }
+
+    private void flush(List<ECaptureProto.LogEntry> pending) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        broadcast(ECaptureProto.LogEntryBatch.of(pending).toByteArray());
+        pending.clear();
+    }
+
+    private static String uuid(int connection, int direction) {
+        int pid = 4000 + connection;
+        return "sock:" + pid + "_" + (pid + 1) + "_curl_" + (10 + connection) + "_" + direction
+                + "_10.0.0.2:" + (40000 + connection) + "-93.184.216.34:443_0";
+    }
+
+    private static ECaptureProto.Event requestEvent(int connection, long sequence) {
+        String raw = "GET /item/" + sequence + " HTTP/1.1\r\n"
+                + "Host: example.com\r\n"
+                + "User-Agent: stand-in\r\n"
+                + "Accept: */*\r\n\r\n";
+        return event(connection, 0, 1, raw);
+    }
+
+    private static ECaptureProto.Event responseEvent(int connection, long sequence) {
+        String body = "{\"id\":" + sequence + ",\"status\":\"ok\"}";
+        String raw = "HTTP/1.1 200 OK\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + body.length() + "\r\n\r\n"
+                + body;
+        return event(connection, 1, 3, raw);
+    }
+
+    private static ECaptureProto.Event event(int connection, int direction, int type, String raw) {
+        byte[] payload = raw.getBytes(StandardCharsets.UTF_8);
+        return ECaptureProto.Event.newBuilder()
+                .setTimestamp(System.currentTimeMillis() / 1000)
+                .setUuid(uuid(connection, direction))
+                .setSrcIp("10.0.0.2")
+                .setSrcPort(40000 + connection)
+                .setDstIp("93.184.216.34")
+                .setDstPort(443)
+                .setPid(4000 + connection)
+                .setPname("curl")
+                .setType(type)
+                .setLength(payload.length)
+                .setPayload(ByteString.copyFrom(payload))
+                .build();
+    }
+
+    @Override
+    public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        System.out.println("Client connected: " + conn.getRemoteSocketAddress());
+    }
+
+    @Override
+    public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        System.out.println("Client disconnected: " + conn.getRemoteSocketAddress());
+    }
+
+    @Override
+    public void onMessage(WebSocket conn, String message) {
+        // Clients never send anything
+    }
+
+    @Override
+    public void onError(WebSocket conn, Exception ex) {
+        System.err.println("Server error: " + ex.getMessage());
+    }
+
+    @Override
+    public void onStart() {
+        // Ready
+    }
+
+    @Override
+    public void stop() throws InterruptedException {
+        running = false;
+        super.stop();
+    }
+}